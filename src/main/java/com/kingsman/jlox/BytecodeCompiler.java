@@ -0,0 +1,676 @@
+package com.kingsman.jlox;
+
+import com.kingsman.jlox.vm.Chunk;
+import com.kingsman.jlox.vm.OpCode;
+import com.kingsman.jlox.vm.Prototype;
+import com.kingsman.jlox.vm.VM;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compiles the resolved tree into bytecode for the {@link VM}.
+ *
+ * The VM keeps the environments of a call in one frame, so each scope the
+ * Resolver opened becomes a range of frame slots, starting where the scope
+ * around it ends. A Location's depth and slot are turned into a frame slot by
+ * counting back through the open scopes, and captured variables are boxed,
+ * exactly like the tree walker does.
+ */
+class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /**
+     * the slots of one scope the Resolver opened
+     */
+    private static final class Scope {
+        // the frame slot of the scope's first variable
+        final int base;
+        final boolean[] captured;
+        // the next slot to define, variables are defined in the order the Resolver declared them
+        int count = 0;
+
+        Scope(int base, boolean[] captured) {
+            this.base = base;
+            this.captured = captured;
+        }
+    }
+
+    /**
+     * a function being compiled
+     */
+    private static final class FunctionState {
+        final FunctionState enclosing;
+        final Chunk chunk = new Chunk();
+        final boolean isInitializer;
+        final List<Scope> scopes = new ArrayList<>();
+        // the first frame slot not taken by an open scope
+        int top = 0;
+        int localCount = 0;
+        // how many values the code leaves on the operand stack at this point
+        int stackDepth = 0;
+        int stackSize = 0;
+
+        FunctionState(FunctionState enclosing, boolean isInitializer) {
+            this.enclosing = enclosing;
+            this.isInitializer = isInitializer;
+        }
+    }
+
+    private final VM vm;
+    private FunctionState current;
+    // the line of the code being compiled, for the instructions that can't fail
+    private int line = 1;
+
+    BytecodeCompiler(VM vm) {
+        this.vm = vm;
+    }
+
+    /**
+     * @return the script as a function without parameters
+     */
+    Prototype compile(List<Stmt> statements) {
+        current = new FunctionState(null, false);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emit(OpCode.NIL, 1);
+        emit(OpCode.RETURN, -1);
+
+        FunctionState script = current;
+        current = null;
+        return new Prototype("script", 0, false, script.chunk, script.localCount,
+                script.stackSize, new boolean[0], new int[0], new int[0]);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line();
+
+        Location location = expr.location;
+        if (location == null) {
+            emit(OpCode.SET_GLOBAL, 0, constant(vm.global(expr.name.lexeme())));
+        } else if (location.upvalue) {
+            emit(OpCode.SET_UPVALUE, 0, location.slot);
+        } else if (location.boxed) {
+            emit(OpCode.SET_BOXED, 0, slot(location));
+        } else {
+            emit(OpCode.SET_LOCAL, 0, slot(location));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        line = expr.operator.line();
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL, -1); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL, -1); break;
+            case GREATER: emit(OpCode.GREATER, -1); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL, -1); break;
+            case LESS: emit(OpCode.LESS, -1); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL, -1); break;
+            case MINUS: emit(OpCode.SUBTRACT, -1); break;
+            case PLUS: emit(OpCode.ADD, -1); break;
+            case SLASH: emit(OpCode.DIVIDE, -1); break;
+            case STAR: emit(OpCode.MULTIPLY, -1); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, OpCode.CALL, OpCode.INVOKE, 0);
+        return null;
+    }
+
+    /**
+     * compiles a call
+     * @param expr
+     * @param call the instruction that calls a value
+     * @param invoke the instruction that calls a method
+     * @param tail 1 for a tail call, which leaves no result on the stack, 0 otherwise
+     */
+    private void call(Expr.Call expr, byte call, byte invoke, int tail) {
+        if (expr.callee instanceof Expr.Get) {
+            // the method is looked up before the arguments are evaluated,
+            // and isn't bound to the instance
+            Expr.Get get = (Expr.Get)expr.callee;
+            compile(get.object);
+            line = get.name.line();
+            emit(OpCode.GET_METHOD, 1, constant(get.name.lexeme()));
+            arguments(expr);
+            emitByte(invoke, -expr.arguments.size() - 1 - tail, expr.arguments.size());
+            return;
+        }
+
+        compile(expr.callee);
+        arguments(expr);
+        emitByte(call, -expr.arguments.size() - tail, expr.arguments.size());
+    }
+
+    private void arguments(Expr.Call expr) {
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        line = expr.paren.line();
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line();
+        emit(OpCode.GET_PROPERTY, 0, constant(expr.name.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL, 1);
+        } else if (expr.value.equals(Boolean.TRUE)) {
+            emit(OpCode.TRUE, 1);
+        } else if (expr.value.equals(Boolean.FALSE)) {
+            emit(OpCode.FALSE, 1);
+        } else if (expr.value instanceof Double) {
+            emit(OpCode.NUMBER, 1, constant(expr.value));
+        } else {
+            emit(OpCode.CONSTANT, 1, constant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+
+        // the left operand is the result if it decides it, otherwise the right one is
+        int end = emitJump(expr.operator.type == TokenType.OR
+                ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE, 0);
+        emit(OpCode.POP, -1);
+        compile(expr.right);
+        patchJump(end);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        line = expr.name.line();
+        int name = constant(expr.name.lexeme());
+        // the object must be an instance before the value is evaluated,
+        // which only matters when evaluating the value can do something
+        if (!isSimple(expr.value)) emit(OpCode.CHECK_INSTANCE, 0, name);
+
+        compile(expr.value);
+        line = expr.name.line();
+        emit(OpCode.SET_PROPERTY, -1, name);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        load(expr.receiver.location);
+        load(expr.location);
+        line = expr.method.line();
+        emit(OpCode.GET_SUPER, -1, constant(expr.method.lexeme()));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr.location);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line();
+        emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE, 0);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line();
+        if (expr.location == null) {
+            emit(OpCode.GET_GLOBAL, 1, constant(vm.global(expr.name.lexeme())));
+        } else {
+            load(expr.location);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        // a block without a scope runs in the slots of the one around it
+        if (stmt.slotCount == 0) {
+            for (Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            return null;
+        }
+
+        beginScope(stmt.slotCount, stmt.captured);
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            line = stmt.superclass.name.line();
+            emit(OpCode.CHECK_SUPERCLASS, 0);
+        }
+
+        // like functions, the methods may capture the class's name
+        line = stmt.name.line();
+        int slot = -1;
+        if (!current.scopes.isEmpty()) {
+            emit(OpCode.NIL, 1);
+            slot = define();
+        }
+
+        if (stmt.superclass != null) {
+            // "super" gets a scope of its own, and the methods always capture it
+            beginScope(1, new boolean[] { true });
+            define();
+        }
+
+        emit(OpCode.CLASS, 1, constant(stmt.name.lexeme()));
+        for (Stmt.Function method : stmt.methods) {
+            boolean isInitializer = method.name.lexeme().equals("init");
+            emit(OpCode.CLOSURE, 1, constant(function(method, true, isInitializer)));
+            emit(OpCode.METHOD, -1, constant(method.name.lexeme()));
+        }
+
+        if (stmt.superclass != null) {
+            emit(OpCode.GET_BOXED, 1, current.scopes.get(current.scopes.size() - 1).base);
+            emit(OpCode.INHERIT, -1);
+            endScope(1);
+        }
+
+        line = stmt.name.line();
+        initialize(stmt.name, slot);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        discard(stmt.expression);
+        return null;
+    }
+
+    /**
+     * compiles an expression whose value is thrown away
+     */
+    private void discard(Expr expr) {
+        // an assignment to a local just stores it
+        if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign)expr;
+            Location location = assign.location;
+            if (location != null && !location.upvalue && !location.boxed) {
+                compile(assign.value);
+                line = assign.name.line();
+                emit(OpCode.STORE_LOCAL, -1, slot(location));
+                return;
+            }
+        }
+
+        compile(expr);
+        emit(OpCode.POP, -1);
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // the loop is compiled as written, the hoisted version only
+        // saves work for the interpreters that walk the tree
+        if (stmt.slotCount > 0) beginScope(stmt.slotCount, stmt.captured);
+        if (stmt.initializer != null) compile(stmt.initializer);
+
+        int loopStart = current.chunk.count();
+        int exitJump = stmt.condition != null ? condition(stmt.condition) : -1;
+        compile(stmt.body);
+        if (stmt.increment != null) discard(stmt.increment);
+
+        emit(OpCode.LOOP, 0);
+        int offset = current.chunk.count() + 2 - loopStart;
+        if (offset > 0xffff) Lox.error(line, "Loop body too large.");
+        current.chunk.writeShort(offset, line);
+
+        if (exitJump >= 0) patchJump(exitJump);
+        if (stmt.slotCount > 0) endScope(stmt.slotCount);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line();
+        // the name must exist before the closure is made, so a
+        // function that calls itself can capture it.
+        int slot = -1;
+        if (!current.scopes.isEmpty()) {
+            emit(OpCode.NIL, 1);
+            slot = define();
+        }
+
+        emit(OpCode.CLOSURE, 1, constant(function(stmt, false, false)));
+        initialize(stmt.name, slot);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int elseJump = condition(stmt.condition);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            patchJump(elseJump);
+            return null;
+        }
+
+        int endJump = emitJump(OpCode.JUMP, 0);
+        patchJump(elseJump);
+        compile(stmt.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line();
+        if (current.isInitializer) {
+            // an initializer always returns the instance
+            loadThis();
+        } else if (stmt.tailCall) {
+            // the callee reuses the function's frame, and its RETURN
+            // goes straight back to the function's caller
+            call((Expr.Call)stmt.value, OpCode.TAIL_CALL, OpCode.TAIL_INVOKE, 1);
+            return null;
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+
+        line = stmt.name.line();
+        if (current.scopes.isEmpty()) {
+            emit(OpCode.DEFINE_GLOBAL, -1, constant(vm.global(stmt.name.lexeme())));
+        } else {
+            define();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.chunk.count();
+        int exitJump = condition(stmt.condition);
+        compile(stmt.body);
+
+        emit(OpCode.LOOP, 0);
+        int offset = current.chunk.count() + 2 - loopStart;
+        if (offset > 0xffff) Lox.error(line, "Loop body too large.");
+        current.chunk.writeShort(offset, line);
+
+        patchJump(exitJump);
+        return null;
+    }
+
+    /**
+     * compiles the condition of a statement, and the jump taken when it is false.
+     * a comparison jumps on its own, without making a boolean first.
+     *
+     * @return where the jump's offset goes
+     */
+    private int condition(Expr condition) {
+        if (condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)condition;
+            byte jump = -1;
+            switch (binary.operator.type) {
+                case GREATER: jump = OpCode.JUMP_IF_NOT_GREATER; break;
+                case GREATER_EQUAL: jump = OpCode.JUMP_IF_NOT_GREATER_EQUAL; break;
+                case LESS: jump = OpCode.JUMP_IF_NOT_LESS; break;
+                case LESS_EQUAL: jump = OpCode.JUMP_IF_NOT_LESS_EQUAL; break;
+            }
+
+            if (jump >= 0) {
+                compile(binary.left);
+                compile(binary.right);
+                line = binary.operator.line();
+                return emitJump(jump, -2);
+            }
+        }
+
+        compile(condition);
+        return emitJump(OpCode.POP_JUMP_IF_FALSE, -1);
+    }
+
+    /**
+     * compiles a function declaration into a prototype of its own
+     */
+    private Prototype function(Stmt.Function stmt, boolean isMethod, boolean isInitializer) {
+        FunctionState enclosing = current;
+        current = new FunctionState(enclosing, isInitializer);
+
+        // "this" and the parameters are in place when the call begins
+        Scope scope = beginScope(stmt.slotCount, stmt.captured);
+        int parameters = stmt.params.size() + (isMethod ? 1 : 0);
+        scope.count = parameters;
+
+        for (Stmt statement : stmt.body) {
+            compile(statement);
+        }
+
+        // falling off the end returns nil, or the instance from an initializer
+        if (isInitializer) {
+            loadThis();
+        } else {
+            emit(OpCode.NIL, 1);
+        }
+        emit(OpCode.RETURN, -1);
+        endScope(stmt.slotCount);
+
+        FunctionState function = current;
+        current = enclosing;
+
+        List<Integer> boxed = new ArrayList<>();
+        for (int i = 0; i < parameters; i++) {
+            if (stmt.captured != null && stmt.captured[i]) boxed.add(i);
+        }
+
+        // the upvalues are found where the function is declared
+        boolean[] isLocal = new boolean[stmt.upvalues.length];
+        int[] indices = new int[stmt.upvalues.length];
+        for (int i = 0; i < stmt.upvalues.length; i++) {
+            Upvalue.Source source = stmt.upvalues[i];
+            isLocal[i] = source.isLocal;
+            indices[i] = source.isLocal ? slot(source.depth, source.index) : source.index;
+        }
+
+        return new Prototype(stmt.name.lexeme(), stmt.params.size(), isMethod, function.chunk,
+                function.localCount, function.stackSize, isLocal, indices,
+                boxed.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private Scope beginScope(int slotCount, boolean[] captured) {
+        Scope scope = new Scope(current.top, captured);
+        current.scopes.add(scope);
+        current.top += slotCount;
+        current.localCount = Math.max(current.localCount, current.top);
+        return scope;
+    }
+
+    private void endScope(int slotCount) {
+        current.scopes.remove(current.scopes.size() - 1);
+        current.top -= slotCount;
+    }
+
+    /**
+     * pops the value on top of the stack into the next slot of the innermost scope
+     *
+     * @return the frame slot
+     */
+    private int define() {
+        Scope scope = current.scopes.get(current.scopes.size() - 1);
+        int slot = scope.base + scope.count;
+        if (scope.captured != null && scope.captured[scope.count]) {
+            emit(OpCode.DEFINE_BOXED, -1, slot);
+        } else {
+            emit(OpCode.STORE_LOCAL, -1, slot);
+        }
+        scope.count++;
+        return slot;
+    }
+
+    /**
+     * stores the value on top of the stack in a function's or class's variable,
+     * which is a global if there is no slot for it
+     */
+    private void initialize(Token name, int slot) {
+        if (slot < 0) {
+            emit(OpCode.DEFINE_GLOBAL, -1, constant(vm.global(name.lexeme())));
+            return;
+        }
+
+        Scope scope = current.scopes.get(current.scopes.size() - 1);
+        if (scope.captured != null && scope.captured[slot - scope.base]) {
+            emit(OpCode.SET_BOXED, 0, slot);
+            emit(OpCode.POP, -1);
+        } else {
+            emit(OpCode.STORE_LOCAL, -1, slot);
+        }
+    }
+
+    private void load(Location location) {
+        if (location.upvalue) {
+            emit(OpCode.GET_UPVALUE, 1, location.slot);
+        } else if (location.boxed) {
+            emit(OpCode.GET_BOXED, 1, slot(location));
+        } else {
+            emit(OpCode.GET_LOCAL, 1, slot(location));
+        }
+    }
+
+    /**
+     * "this" is the first slot of a method's own scope
+     */
+    private void loadThis() {
+        boolean[] captured = current.scopes.get(0).captured;
+        emit(captured != null && captured[0] ? OpCode.GET_BOXED : OpCode.GET_LOCAL, 1, 0);
+    }
+
+    private int slot(Location location) {
+        return slot(location.depth, location.slot);
+    }
+
+    /**
+     * the frame slot of a variable, depth scopes out from the innermost one
+     */
+    private int slot(int depth, int index) {
+        return current.scopes.get(current.scopes.size() - 1 - depth).base + index;
+    }
+
+    /**
+     * only reads a value, so evaluating it has no effect and can't fail
+     */
+    private boolean isSimple(Expr expr) {
+        if (expr instanceof Expr.Literal || expr instanceof Expr.This) return true;
+        return expr instanceof Expr.Variable && ((Expr.Variable)expr).location != null;
+    }
+
+    private int constant(Object value) {
+        int index = current.chunk.addConstant(value);
+        if (index < 0) {
+            Lox.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+
+        return index;
+    }
+
+    /**
+     * writes an instruction without operands
+     *
+     * @param effect how many values it pushes, or pops if negative
+     */
+    private void emit(byte op, int effect) {
+        current.chunk.write(op, line);
+        adjustStack(effect);
+    }
+
+    private void emit(byte op, int effect, int operand) {
+        current.chunk.write(op, line);
+        current.chunk.writeShort(operand, line);
+        adjustStack(effect);
+    }
+
+    private void emitByte(byte op, int effect, int operand) {
+        current.chunk.write(op, line);
+        current.chunk.write(operand, line);
+        adjustStack(effect);
+    }
+
+    private void adjustStack(int effect) {
+        current.stackDepth += effect;
+        current.stackSize = Math.max(current.stackSize, current.stackDepth);
+    }
+
+    /**
+     * writes a forward jump whose offset is filled in later
+     *
+     * @return where the offset goes
+     */
+    private int emitJump(byte op, int effect) {
+        emit(op, effect, 0);
+        return current.chunk.count() - 2;
+    }
+
+    /**
+     * points the jump at the next instruction
+     */
+    private void patchJump(int offset) {
+        int jump = current.chunk.count() - offset - 2;
+        if (jump > 0xffff) Lox.error(line, "Too much code to jump over.");
+        current.chunk.patchShort(offset, jump);
+    }
+}
@@ -0,0 +1,946 @@
+package com.kingsman.jlox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the resolved tree after turning every Expr and Stmt into a Java lambda.
+ *
+ * Everything that doesn't depend on the values the code runs with is decided
+ * while translating, each lambda only does its own piece of work and calls the
+ * lambdas of its operands directly: no visitor, and no switch on the operator.
+ * Like the {@link SpecializingInterpreter}, top-level statements are translated
+ * when they run and a function's body the first time it is called, the lambdas
+ * are kept on the declaration.
+ */
+class ClosureInterpreter extends Interpreter {
+    // the environment "super" lives in only ever holds that one, captured, variable
+    private static final boolean[] SUPER_CAPTURED = { true };
+
+    /**
+     * evaluates an expression
+     */
+    interface Evaluator {
+        Object evaluate(Environment environment);
+    }
+
+    /**
+     * evaluates an expression that gives a number, without boxing it
+     */
+    interface NumberEvaluator {
+        double evaluate(Environment environment);
+    }
+
+    /**
+     * evaluates an expression only for its truthiness
+     */
+    interface Condition {
+        boolean test(Environment environment);
+    }
+
+    /**
+     * runs a statement
+     */
+    interface Executor {
+        /**
+         * @return true if a return statement ran, its value is in returnValue
+         */
+        boolean execute(Environment environment);
+    }
+
+    @Override
+    void interpret(List<Stmt> statements) {
+        try {
+            Translator translator = new Translator(true);
+            for (Stmt statement : statements) {
+                translator.translate(statement).execute(null);
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    @Override
+    Object executeFunction(Stmt.Function declaration, Environment environment) {
+        Executor body = (Executor)declaration.code;
+        if (body == null) {
+            body = sequence(new Translator(false).translate(declaration.body));
+            declaration.code = body;
+        }
+
+        if (!body.execute(environment)) return null;
+
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    private static Executor sequence(Executor[] statements) {
+        // the usual sizes don't need a loop
+        switch (statements.length) {
+            case 0:
+                return environment -> false;
+            case 1:
+                return statements[0];
+            case 2: {
+                Executor first = statements[0];
+                Executor second = statements[1];
+                return environment -> first.execute(environment) || second.execute(environment);
+            }
+        }
+
+        return environment -> {
+            for (Executor statement : statements) {
+                if (statement.execute(environment)) return true;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * evaluates a loop's invariants into the slots after its variable
+     * @return false if one of them fails, the loop then runs as written and fails where it would
+     */
+    private static boolean hoist(Evaluator[] invariants, Environment environment) {
+        try {
+            for (Evaluator invariant : invariants) {
+                environment.define(invariant.evaluate(environment));
+            }
+            return true;
+        } catch (RuntimeError error) {
+            return false;
+        }
+    }
+
+    private static Object[] evaluate(Evaluator[] arguments, Environment environment) {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].evaluate(environment);
+        }
+
+        return values;
+    }
+
+    private static Object call(Object callee, Object[] arguments, Token paren,
+                               Interpreter interpreter) {
+        return callable(callee, arguments.length, paren).call(interpreter, arguments);
+    }
+
+    /**
+     * checks that the callee can be called with the arguments, once they are evaluated
+     */
+    private static LoxCallable callable(Object callee, int argCount, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren,
+                    "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(paren, function, argCount);
+        return function;
+    }
+
+    private static void checkArity(Token paren, LoxCallable function, int argCount) {
+        if (argCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    argCount + ".");
+        }
+    }
+
+    /**
+     * the object of a property access, which must be an instance
+     */
+    private static LoxInstance instance(Object value, Token name) {
+        if (!(value instanceof LoxInstance)) {
+            throw new RuntimeError(name,
+                    "Only instances have properties.");
+        }
+
+        return (LoxInstance)value;
+    }
+
+    private static RuntimeError numberOperandsError(Token operator) {
+        if (operator.type == TokenType.PLUS) {
+            return new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+
+    /**
+     * turns Expr and Stmt objects into lambdas
+     */
+    private class Translator implements Expr.Visitor<Evaluator>, Stmt.Visitor<Executor> {
+        // true while translating code that runs without an environment,
+        // whose declarations go in global cells
+        private boolean global;
+
+        Translator(boolean global) {
+            this.global = global;
+        }
+
+        Evaluator translate(Expr expr) {
+            // numbers and booleans are computed unboxed, and only boxed at the end
+            if (isNumeric(expr)) {
+                NumberEvaluator number = number(expr);
+                return environment -> number.evaluate(environment);
+            }
+            return expr.accept(this);
+        }
+
+        Executor translate(Stmt stmt) {
+            return stmt.accept(this);
+        }
+
+        Executor[] translate(List<Stmt> statements) {
+            Executor[] executors = new Executor[statements.size()];
+            for (int i = 0; i < executors.length; i++) {
+                executors[i] = translate(statements.get(i));
+            }
+
+            return executors;
+        }
+
+        Evaluator[] translateAll(List<Expr> expressions) {
+            Evaluator[] evaluators = new Evaluator[expressions.size()];
+            for (int i = 0; i < evaluators.length; i++) {
+                evaluators[i] = translate(expressions.get(i));
+            }
+
+            return evaluators;
+        }
+
+        /**
+         * whether the Resolver's marks say the expression gives a number
+         */
+        private boolean isNumeric(Expr expr) {
+            if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+            if (expr instanceof Expr.Grouping) return isNumeric(((Expr.Grouping)expr).expression);
+            if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                switch (binary.operator.type) {
+                    case MINUS:
+                    case SLASH:
+                    case STAR:
+                        return true;
+                    case PLUS:
+                        return binary.leftNumeric || binary.rightNumeric;
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * translates an expression isNumeric() accepts
+         */
+        private NumberEvaluator number(Expr expr) {
+            if (expr instanceof Expr.Literal) {
+                double value = (double)((Expr.Literal)expr).value;
+                return environment -> value;
+            }
+
+            if (expr instanceof Expr.Grouping) {
+                return number(((Expr.Grouping)expr).expression);
+            }
+
+            if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary)expr;
+                if (isNumeric(unary.right)) {
+                    NumberEvaluator right = number(unary.right);
+                    return environment -> -right.evaluate(environment);
+                }
+
+                Evaluator right = translate(unary.right);
+                Token operator = unary.operator;
+                return environment -> {
+                    Object value = right.evaluate(environment);
+                    // avoid a runtime error when the operand isn’t a number
+                    if (value instanceof Double) return -(double)value;
+                    throw new RuntimeError(operator, "Operand must be a number.");
+                };
+            }
+
+            Expr.Binary binary = (Expr.Binary)expr;
+            NumberEvaluator left = leftOperand(binary);
+            NumberEvaluator right = rightOperand(binary);
+            switch (binary.operator.type) {
+                case MINUS: return environment -> left.evaluate(environment) - right.evaluate(environment);
+                case PLUS: return environment -> left.evaluate(environment) + right.evaluate(environment);
+                case SLASH: return environment -> left.evaluate(environment) / right.evaluate(environment);
+                case STAR: return environment -> left.evaluate(environment) * right.evaluate(environment);
+            }
+
+            // Unreachable.
+            return null;
+        }
+
+        /**
+         * the left operand of an operator that needs numbers
+         */
+        private NumberEvaluator leftOperand(Expr.Binary expr) {
+            if (isNumeric(expr.left)) return number(expr.left);
+
+            Evaluator left = translate(expr.left);
+            Evaluator right = translate(expr.right);
+            Token operator = expr.operator;
+            return environment -> {
+                Object value = left.evaluate(environment);
+                if (value instanceof Double) return (double)value;
+
+                // both operands are evaluated before the type error, like any other binary expression
+                right.evaluate(environment);
+                throw numberOperandsError(operator);
+            };
+        }
+
+        private NumberEvaluator rightOperand(Expr.Binary expr) {
+            if (isNumeric(expr.right)) return number(expr.right);
+
+            Evaluator right = translate(expr.right);
+            Token operator = expr.operator;
+            return environment -> {
+                Object value = right.evaluate(environment);
+                if (value instanceof Double) return (double)value;
+                throw numberOperandsError(operator);
+            };
+        }
+
+        /**
+         * translates an expression that is only evaluated for its truthiness
+         */
+        private Condition condition(Expr expr) {
+            if (expr instanceof Expr.Grouping) {
+                return condition(((Expr.Grouping)expr).expression);
+            }
+
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                switch (binary.operator.type) {
+                    case GREATER:
+                    case GREATER_EQUAL:
+                    case LESS:
+                    case LESS_EQUAL:
+                        return compare(binary);
+                    case BANG_EQUAL: {
+                        Evaluator left = translate(binary.left);
+                        Evaluator right = translate(binary.right);
+                        return environment -> !isEqual(left.evaluate(environment), right.evaluate(environment));
+                    }
+                    case EQUAL_EQUAL: {
+                        Evaluator left = translate(binary.left);
+                        Evaluator right = translate(binary.right);
+                        return environment -> isEqual(left.evaluate(environment), right.evaluate(environment));
+                    }
+                }
+            } else if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary)expr;
+                if (unary.operator.type == TokenType.BANG) {
+                    Condition right = condition(unary.right);
+                    return environment -> !right.test(environment);
+                }
+            } else if (expr instanceof Expr.Logical) {
+                // as a condition, only the truthiness of the chosen operand matters
+                Expr.Logical logical = (Expr.Logical)expr;
+                Condition left = condition(logical.left);
+                Condition right = condition(logical.right);
+                if (logical.operator.type == TokenType.OR) {
+                    return environment -> left.test(environment) || right.test(environment);
+                }
+                return environment -> left.test(environment) && right.test(environment);
+            }
+
+            Evaluator value = translate(expr);
+            return environment -> isTruthy(value.evaluate(environment));
+        }
+
+        private Condition compare(Expr.Binary expr) {
+            NumberEvaluator left = leftOperand(expr);
+            NumberEvaluator right = rightOperand(expr);
+            switch (expr.operator.type) {
+                case GREATER: return environment -> left.evaluate(environment) > right.evaluate(environment);
+                case GREATER_EQUAL: return environment -> left.evaluate(environment) >= right.evaluate(environment);
+                case LESS: return environment -> left.evaluate(environment) < right.evaluate(environment);
+                case LESS_EQUAL: return environment -> left.evaluate(environment) <= right.evaluate(environment);
+            }
+
+            // Unreachable.
+            return null;
+        }
+
+        /**
+         * reads a local variable from where the Resolver found it
+         */
+        private Evaluator read(Location location) {
+            int depth = location.depth;
+            int slot = location.slot;
+            if (location.upvalue) return environment -> environment.upvalues[slot].value;
+            if (location.boxed) {
+                return environment -> ((Upvalue)environment.getAt(depth, slot)).value;
+            }
+            if (depth == 0) return environment -> environment.slots[slot];
+            return environment -> environment.ancestor(depth).slots[slot];
+        }
+
+        @Override
+        public Evaluator visitAssignExpr(Expr.Assign expr) {
+            Evaluator value = translate(expr.value);
+            Location location = expr.location;
+            if (location == null) {
+                Globals.Cell cell = expr.global;
+                Token name = expr.name;
+                return environment -> {
+                    Object result = value.evaluate(environment);
+                    cell.assign(name, result);
+                    return result;
+                };
+            }
+
+            int depth = location.depth;
+            int slot = location.slot;
+            if (location.upvalue) {
+                return environment -> environment.upvalues[slot].value = value.evaluate(environment);
+            }
+            if (location.boxed) {
+                return environment -> {
+                    Object result = value.evaluate(environment);
+                    ((Upvalue)environment.getAt(depth, slot)).value = result;
+                    return result;
+                };
+            }
+            if (depth == 0) {
+                return environment -> environment.slots[slot] = value.evaluate(environment);
+            }
+            return environment -> {
+                Object result = value.evaluate(environment);
+                environment.ancestor(depth).slots[slot] = result;
+                return result;
+            };
+        }
+
+        @Override
+        public Evaluator visitBinaryExpr(Expr.Binary expr) {
+            if (expr.operator.type != TokenType.PLUS) {
+                // a comparison or an equality, computed as a condition
+                Condition condition = condition(expr);
+                return environment -> condition.test(environment);
+            }
+
+            Evaluator left = translate(expr.left);
+            Evaluator right = translate(expr.right);
+            Token operator = expr.operator;
+            return environment -> {
+                Object a = left.evaluate(environment);
+                Object b = right.evaluate(environment);
+                if (a instanceof Double && b instanceof Double) {
+                    return (double)a + (double)b;
+                }
+
+                if (a instanceof String && b instanceof String) {
+                    return (String)a + (String)b;
+                }
+
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+            };
+        }
+
+        @Override
+        public Evaluator visitCallExpr(Expr.Call expr) {
+            Evaluator[] arguments = translateAll(expr.arguments);
+            Token paren = expr.paren;
+            Interpreter interpreter = ClosureInterpreter.this;
+            if (!(expr.callee instanceof Expr.Get)) {
+                Evaluator callee = translate(expr.callee);
+                // up to two arguments are passed as they are, without an array
+                switch (arguments.length) {
+                    case 0:
+                        return environment -> callable(callee.evaluate(environment), 0, paren)
+                                .call0(interpreter);
+                    case 1: {
+                        Evaluator first = arguments[0];
+                        return environment -> {
+                            Object function = callee.evaluate(environment);
+                            Object a = first.evaluate(environment);
+                            return callable(function, 1, paren).call1(interpreter, a);
+                        };
+                    }
+                    case 2: {
+                        Evaluator first = arguments[0];
+                        Evaluator second = arguments[1];
+                        return environment -> {
+                            Object function = callee.evaluate(environment);
+                            Object a = first.evaluate(environment);
+                            Object b = second.evaluate(environment);
+                            return callable(function, 2, paren).call2(interpreter, a, b);
+                        };
+                    }
+                    default:
+                        return environment -> call(callee.evaluate(environment),
+                                evaluate(arguments, environment), paren, interpreter);
+                }
+            }
+
+            // a method called right away doesn't need a bound method made for it
+            Expr.Get get = (Expr.Get)expr.callee;
+            Evaluator object = translate(get.object);
+            Token name = get.name;
+            InlineCache cache = get.cache;
+            switch (arguments.length) {
+                case 0:
+                    return environment -> {
+                        LoxInstance instance = instance(object.evaluate(environment), name);
+                        LoxFunction method = instance.getMethod(name, cache);
+                        if (method == null) {
+                            return call(instance.get(name, cache),
+                                    evaluate(arguments, environment), paren, interpreter);
+                        }
+
+                        checkArity(paren, method, 0);
+                        return method.invoke0(interpreter, instance);
+                    };
+                case 1: {
+                    Evaluator first = arguments[0];
+                    return environment -> {
+                        LoxInstance instance = instance(object.evaluate(environment), name);
+                        LoxFunction method = instance.getMethod(name, cache);
+                        if (method == null) {
+                            return call(instance.get(name, cache),
+                                    evaluate(arguments, environment), paren, interpreter);
+                        }
+
+                        Object a = first.evaluate(environment);
+                        checkArity(paren, method, 1);
+                        return method.invoke1(interpreter, instance, a);
+                    };
+                }
+                case 2: {
+                    Evaluator first = arguments[0];
+                    Evaluator second = arguments[1];
+                    return environment -> {
+                        LoxInstance instance = instance(object.evaluate(environment), name);
+                        LoxFunction method = instance.getMethod(name, cache);
+                        if (method == null) {
+                            return call(instance.get(name, cache),
+                                    evaluate(arguments, environment), paren, interpreter);
+                        }
+
+                        Object a = first.evaluate(environment);
+                        Object b = second.evaluate(environment);
+                        checkArity(paren, method, 2);
+                        return method.invoke2(interpreter, instance, a, b);
+                    };
+                }
+                default:
+                    return environment -> {
+                        LoxInstance instance = instance(object.evaluate(environment), name);
+                        LoxFunction method = instance.getMethod(name, cache);
+                        if (method == null) {
+                            // a field, which may hold anything callable
+                            return call(instance.get(name, cache),
+                                    evaluate(arguments, environment), paren, interpreter);
+                        }
+
+                        Object[] values = evaluate(arguments, environment);
+                        checkArity(paren, method, values.length);
+                        return method.invoke(interpreter, instance, values);
+                    };
+            }
+        }
+
+        @Override
+        public Evaluator visitGetExpr(Expr.Get expr) {
+            Evaluator object = translate(expr.object);
+            Token name = expr.name;
+            InlineCache cache = expr.cache;
+            return environment -> {
+                Object value = object.evaluate(environment);
+                if (value instanceof LoxInstance) {
+                    return ((LoxInstance)value).get(name, cache);
+                }
+
+                throw new RuntimeError(name,
+                        "Only instances have properties.");
+            };
+        }
+
+        @Override
+        public Evaluator visitGroupingExpr(Expr.Grouping expr) {
+            return translate(expr.expression);
+        }
+
+        @Override
+        public Evaluator visitLiteralExpr(Expr.Literal expr) {
+            Object value = expr.value;
+            return environment -> value;
+        }
+
+        @Override
+        public Evaluator visitLogicalExpr(Expr.Logical expr) {
+            Evaluator left = translate(expr.left);
+            Evaluator right = translate(expr.right);
+            if (expr.operator.type == TokenType.OR) {
+                return environment -> {
+                    Object value = left.evaluate(environment);
+                    return isTruthy(value) ? value : right.evaluate(environment);
+                };
+            }
+
+            return environment -> {
+                Object value = left.evaluate(environment);
+                return !isTruthy(value) ? value : right.evaluate(environment);
+            };
+        }
+
+        @Override
+        public Evaluator visitSetExpr(Expr.Set expr) {
+            Evaluator object = translate(expr.object);
+            Evaluator value = translate(expr.value);
+            Token name = expr.name;
+            InlineCache cache = expr.cache;
+            return environment -> {
+                Object instance = object.evaluate(environment);
+                // must set an instance's field
+                if (!(instance instanceof LoxInstance)) {
+                    throw new RuntimeError(name,
+                            "Only instances have fields.");
+                }
+
+                Object result = value.evaluate(environment);
+                ((LoxInstance)instance).set(name, result, cache);
+                return result;
+            };
+        }
+
+        @Override
+        public Evaluator visitSuperExpr(Expr.Super expr) {
+            Evaluator superclass = read(expr.location);
+            Evaluator receiver = read(expr.receiver.location);
+            Token method = expr.method;
+            return environment -> {
+                LoxClass klass = (LoxClass)superclass.evaluate(environment);
+                LoxInstance object = (LoxInstance)receiver.evaluate(environment);
+
+                LoxFunction function = klass.findMethod(method.lexeme());
+                if (function == null) {
+                    throw new RuntimeError(method,
+                            "Undefined property '" + method.lexeme() + "'.");
+                }
+
+                return function.bind(object);
+            };
+        }
+
+        @Override
+        public Evaluator visitThisExpr(Expr.This expr) {
+            return read(expr.location);
+        }
+
+        @Override
+        public Evaluator visitUnaryExpr(Expr.Unary expr) {
+            // a negation is numeric, so only "!" is left
+            Condition condition = condition(expr);
+            return environment -> condition.test(environment);
+        }
+
+        @Override
+        public Evaluator visitVariableExpr(Expr.Variable expr) {
+            if (expr.location != null) return read(expr.location);
+
+            Globals.Cell cell = expr.global;
+            Token name = expr.name;
+            return environment -> cell.get(name);
+        }
+
+        @Override
+        public Executor visitBlockStmt(Stmt.Block stmt) {
+            if (stmt.slotCount == 0) {
+                return sequence(translate(stmt.statements));
+            }
+
+            boolean enclosing = global;
+            global = false;
+            Executor body = sequence(translate(stmt.statements));
+            global = enclosing;
+
+            int slotCount = stmt.slotCount;
+            boolean[] captured = stmt.captured;
+            return environment -> body.execute(new Environment(environment, slotCount, captured));
+        }
+
+        @Override
+        public Executor visitClassStmt(Stmt.Class stmt) {
+            Evaluator superclass = stmt.superclass != null ? translate(stmt.superclass) : null;
+            Globals.Cell cell = global ? globals.cell(stmt.name.lexeme()) : null;
+            return environment -> {
+                Object klass = null;
+                if (superclass != null) {
+                    klass = superclass.evaluate(environment);
+                    // check at runtime
+                    if (!(klass instanceof LoxClass)) {
+                        throw new RuntimeError(stmt.superclass.name,
+                                "Superclass must be a class.");
+                    }
+                }
+
+                // like functions, the methods may capture the class's name
+                int slot = cell == null ? environment.define(null) : -1;
+
+                Environment methods = environment;
+                if (superclass != null) {
+                    methods = new Environment(environment, 1, SUPER_CAPTURED);
+                    methods.define(klass); // "super"
+                }
+
+                Map<String, LoxFunction> table = new HashMap<>();
+                for (Stmt.Function method : stmt.methods) {
+                    table.put(method.name.lexeme(), new LoxFunction(method,
+                            Upvalue.capture(method.upvalues, methods),
+                            method.name.lexeme().equals("init")));
+                }
+
+                LoxClass result = new LoxClass(stmt.name.lexeme(), (LoxClass)klass, table);
+                if (cell != null) {
+                    cell.value = result;
+                    cell.defined = true;
+                } else {
+                    environment.initialize(slot, result);
+                }
+                return false;
+            };
+        }
+
+        @Override
+        public Executor visitExpressionStmt(Stmt.Expression stmt) {
+            Evaluator expression = translate(stmt.expression);
+            return environment -> {
+                expression.evaluate(environment);
+                return false;
+            };
+        }
+
+        @Override
+        public Executor visitForStmt(Stmt.For stmt) {
+            // the loop's variable is a local even in top-level code
+            boolean enclosing = global;
+            if (stmt.slotCount > 0) global = false;
+
+            Executor initializer = stmt.initializer != null ? translate(stmt.initializer) : null;
+            Executor loop = loop(stmt);
+            Evaluator[] invariants = stmt.hoisted != null ? translateAll(stmt.invariants) : null;
+            Executor hoisted = stmt.hoisted != null ? loop(stmt.hoisted) : null;
+            global = enclosing;
+
+            int slotCount = stmt.slotCount;
+            boolean[] captured = stmt.captured;
+            if (slotCount == 0) {
+                if (initializer == null) return loop;
+                return environment -> {
+                    initializer.execute(environment);
+                    return loop.execute(environment);
+                };
+            }
+
+            return environment -> {
+                Environment inner = new Environment(environment, slotCount, captured);
+                initializer.execute(inner);
+                if (hoisted != null && hoist(invariants, inner)) return hoisted.execute(inner);
+                return loop.execute(inner);
+            };
+        }
+
+        /**
+         * translates the condition, body and increment of a for loop
+         */
+        private Executor loop(Stmt.For stmt) {
+            Condition condition = stmt.condition != null
+                    ? condition(stmt.condition) : environment -> true;
+            Evaluator increment = stmt.increment != null
+                    ? translate(stmt.increment) : environment -> null;
+
+            // like in a while loop, a body whose variables no closure
+            // captures runs every iteration in the same environment
+            if (stmt.body instanceof Stmt.Block) {
+                Stmt.Block body = (Stmt.Block)stmt.body;
+                if (body.slotCount > 0 && body.captured == null) {
+                    boolean enclosing = global;
+                    global = false;
+                    Executor statements = sequence(translate(body.statements));
+                    global = enclosing;
+
+                    int slotCount = body.slotCount;
+                    return environment -> {
+                        Environment iteration = new Environment(environment, slotCount, null);
+                        while (condition.test(environment)) {
+                            iteration.reset();
+                            if (statements.execute(iteration)) return true;
+                            increment.evaluate(environment);
+                        }
+                        return false;
+                    };
+                }
+            }
+
+            Executor body = translate(stmt.body);
+            return environment -> {
+                while (condition.test(environment)) {
+                    if (body.execute(environment)) return true;
+                    increment.evaluate(environment);
+                }
+                return false;
+            };
+        }
+
+        @Override
+        public Executor visitFunctionStmt(Stmt.Function stmt) {
+            // the body is translated when it is first called
+            if (global) {
+                Globals.Cell cell = globals.cell(stmt.name.lexeme());
+                return environment -> {
+                    cell.value = new LoxFunction(stmt,
+                            Upvalue.capture(stmt.upvalues, environment), false);
+                    cell.defined = true;
+                    return false;
+                };
+            }
+
+            return environment -> {
+                // the name must exist before the closure is made, so a
+                // function that calls itself can capture it.
+                int slot = environment.define(null);
+                environment.initialize(slot, new LoxFunction(stmt,
+                        Upvalue.capture(stmt.upvalues, environment), false));
+                return false;
+            };
+        }
+
+        @Override
+        public Executor visitIfStmt(Stmt.If stmt) {
+            Condition condition = condition(stmt.condition);
+            Executor thenBranch = translate(stmt.thenBranch);
+            if (stmt.elseBranch == null) {
+                return environment -> condition.test(environment) && thenBranch.execute(environment);
+            }
+
+            Executor elseBranch = translate(stmt.elseBranch);
+            return environment -> condition.test(environment)
+                    ? thenBranch.execute(environment) : elseBranch.execute(environment);
+        }
+
+        @Override
+        public Executor visitPrintStmt(Stmt.Print stmt) {
+            Evaluator expression = translate(stmt.expression);
+            return environment -> {
+                System.out.println(stringify(expression.evaluate(environment)));
+                return false;
+            };
+        }
+
+        @Override
+        public Executor visitReturnStmt(Stmt.Return stmt) {
+            Interpreter interpreter = ClosureInterpreter.this;
+            if (stmt.value == null) {
+                return environment -> {
+                    interpreter.returnValue = null;
+                    return true;
+                };
+            }
+
+            Evaluator value = stmt.tailCall
+                    ? tailCall((Expr.Call)stmt.value) : translate(stmt.value);
+            return environment -> {
+                interpreter.returnValue = value.evaluate(environment);
+                return true;
+            };
+        }
+
+        /**
+         * "return f(...)", evaluates to the TailCall the trampoline in LoxFunction makes
+         */
+        private Evaluator tailCall(Expr.Call expr) {
+            Evaluator[] arguments = translateAll(expr.arguments);
+            Token paren = expr.paren;
+            if (!(expr.callee instanceof Expr.Get)) {
+                Evaluator callee = translate(expr.callee);
+                return environment -> TailCall.of(callee.evaluate(environment),
+                        evaluate(arguments, environment), paren);
+            }
+
+            Expr.Get get = (Expr.Get)expr.callee;
+            Evaluator object = translate(get.object);
+            Token name = get.name;
+            InlineCache cache = get.cache;
+            return environment -> {
+                Object value = object.evaluate(environment);
+                if (!(value instanceof LoxInstance)) {
+                    throw new RuntimeError(name,
+                            "Only instances have properties.");
+                }
+
+                LoxInstance instance = (LoxInstance)value;
+                LoxFunction method = instance.getMethod(name, cache);
+                if (method == null) {
+                    Object callee = instance.get(name, cache);
+                    return TailCall.of(callee, evaluate(arguments, environment), paren);
+                }
+
+                return TailCall.method(method, instance, evaluate(arguments, environment), paren);
+            };
+        }
+
+        @Override
+        public Executor visitVarStmt(Stmt.Var stmt) {
+            Evaluator initializer = stmt.initializer != null
+                    ? translate(stmt.initializer) : environment -> null;
+            if (global) {
+                Globals.Cell cell = globals.cell(stmt.name.lexeme());
+                return environment -> {
+                    cell.value = initializer.evaluate(environment);
+                    cell.defined = true;
+                    return false;
+                };
+            }
+
+            return environment -> {
+                environment.define(initializer.evaluate(environment));
+                return false;
+            };
+        }
+
+        @Override
+        public Executor visitWhileStmt(Stmt.While stmt) {
+            Condition condition = condition(stmt.condition);
+
+            // when no closure captures the variables of the loop body,
+            // every iteration can run in the same environment
+            if (stmt.body instanceof Stmt.Block) {
+                Stmt.Block body = (Stmt.Block)stmt.body;
+                if (body.slotCount > 0 && body.captured == null) {
+                    boolean enclosing = global;
+                    global = false;
+                    Executor statements = sequence(translate(body.statements));
+                    global = enclosing;
+
+                    int slotCount = body.slotCount;
+                    return environment -> {
+                        Environment iteration = new Environment(environment, slotCount, null);
+                        while (condition.test(environment)) {
+                            iteration.reset();
+                            if (statements.execute(iteration)) return true;
+                        }
+                        return false;
+                    };
+                }
+            }
+
+            Executor body = translate(stmt.body);
+            return environment -> {
+                while (condition.test(environment)) {
+                    if (body.execute(environment)) return true;
+                }
+                return false;
+            };
+        }
+    }
+}
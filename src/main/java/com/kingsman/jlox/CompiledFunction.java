@@ -0,0 +1,36 @@
+package com.kingsman.jlox;
+
+/**
+ * A function body the JIT has compiled into a JVM class.
+ *
+ * Takes over from {@link Interpreter#executeFunction} for every closure
+ * made from the same declaration. A function with up to two parameters
+ * is compiled into the entry point for its arity, the others unpack
+ * an argument array into it.
+ */
+interface CompiledFunction {
+    /**
+     * runs the body
+     * @param interpreter
+     * @param upvalues the closure's upvalues
+     * @param receiver the instance a method is called on, null for a function
+     * @param arguments
+     * @return the returned value, or null if the body just ends
+     */
+    Object invoke(Interpreter interpreter, Upvalue[] upvalues,
+                  LoxInstance receiver, Object[] arguments);
+
+    default Object invoke0(Interpreter interpreter, Upvalue[] upvalues, LoxInstance receiver) {
+        return invoke(interpreter, upvalues, receiver, new Object[0]);
+    }
+
+    default Object invoke1(Interpreter interpreter, Upvalue[] upvalues,
+                           LoxInstance receiver, Object a) {
+        return invoke(interpreter, upvalues, receiver, new Object[] { a });
+    }
+
+    default Object invoke2(Interpreter interpreter, Upvalue[] upvalues,
+                           LoxInstance receiver, Object a, Object b) {
+        return invoke(interpreter, upvalues, receiver, new Object[] { a, b });
+    }
+}
@@ -1,66 +1,78 @@
 package com.kingsman.jlox;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
- * provides a way to store and retrieve variables
+ * provides a way to store and retrieve local variables,
+ * globals live in {@link Globals} instead
  */
 public class Environment {
-    // we chain environments, give each environment a reference to its enclosing one,
-    // walk that chain from innermost out until we find the variable
+    // we chain the environments of one function call, give each environment a reference
+    // to its enclosing one, walk that chain from innermost out until we find the variable.
+    // the function's own environment has no enclosing one, variables further out
+    // are either globals or captured into the function's upvalues.
     final Environment enclosing;
-    // Using the raw string ensures all of those tokens refer to the same map key.
-    public final Map<String, Object> values = new HashMap<>();
-
-    Environment() {
-        enclosing = null;
-    }
+    // variables are kept in a fixed-size array, the Resolver has already given
+    // every local a slot and counted how many the scope needs.
+    final Object[] slots;
+    // which slots hold a variable that an inner function captures, those
+    // are boxed in an Upvalue. null if none of them is captured.
+    private final boolean[] captured;
+    // the upvalues of the function this environment belongs to
+    final Upvalue[] upvalues;
+    // the next free slot, locals are defined in the order the Resolver declared them
+    private int count = 0;
 
-    Environment(Environment enclosing) {
+    /**
+     * creates the environment of a block
+     */
+    Environment(Environment enclosing, int slotCount, boolean[] captured) {
         this.enclosing = enclosing;
+        this.upvalues = enclosing != null ? enclosing.upvalues : null;
+        this.slots = new Object[slotCount];
+        this.captured = captured;
     }
 
     /**
-     * store the value of a variable in the environment
+     * creates the outermost environment of a function call
      */
-    void define(String name, Object value) {
-        values.put(name, value);
+    Environment(Upvalue[] upvalues, int slotCount, boolean[] captured) {
+        this.enclosing = null;
+        this.upvalues = upvalues;
+        this.slots = new Object[slotCount];
+        this.captured = captured;
     }
 
     /**
-     * get the value of a variable from the environment
+     * store the value of a variable in the environment's next slot
+     *
+     * @return the slot of the variable
      */
-    Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
+    int define(Object value) {
+        if (captured != null && captured[count]) {
+            value = new Upvalue(value);
         }
 
-        // if the variable is not found in the current environment, check the enclosing one
-        if (enclosing != null) return enclosing.get(name);
-
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'.");
+        slots[count] = value;
+        return count++;
     }
 
     /**
-     * assign a new value to a variable
+     * forget the variables so the environment can be defined again from the first
+     * slot, a loop body reuses its environment this way for every iteration
      */
-    void assign(Token name, Object value) {
-        // assignment is not allowed to create a new variable
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+    void reset() {
+        count = 0;
+    }
 
-        // if the variable is not found in the current environment, check the enclosing one
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    /**
+     * fill in a variable that was defined before its value was ready,
+     * going through its box if it is captured
+     */
+    void initialize(int slot, Object value) {
+        if (captured != null && captured[slot]) {
+            ((Upvalue) slots[slot]).value = value;
+        } else {
+            slots[slot] = value;
         }
-
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'.");
     }
 
     /**
@@ -78,16 +90,16 @@ public class Environment {
 
     /**
      * now we know exactly which environment in the chain will have the variable,
-     * returns the value of the variable in the specific environment’s map
+     * returns the value in the variable's slot of the specific environment
      */
-    Object getAt(Integer distance, String lexeme) {
-        return ancestor(distance).values.get(lexeme);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
     /**
      * like getAt() but for assignment
      */
-    public void assignAt(Integer distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    public void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 }
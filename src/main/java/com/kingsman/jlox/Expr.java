@@ -33,6 +33,9 @@ abstract class Expr {
 
         final Token name;
         final Expr value;
+        // Filled in after parsing.
+        Globals.Cell global;
+        Location location;
     }
     static class Binary extends Expr    {
         Binary(Expr left, Token operator, Expr right) {
@@ -49,6 +52,9 @@ abstract class Expr {
         final Expr left;
         final Token operator;
         final Expr right;
+        // Filled in after parsing.
+        boolean leftNumeric;
+        boolean rightNumeric;
     }
     static class Call extends Expr    {
         Call(Expr callee, Token paren, List<Expr> arguments) {
@@ -79,6 +85,8 @@ abstract class Expr {
 
         final Expr object;
         final Token name;
+        // Filled in after parsing.
+        InlineCache cache;
     }
     static class Grouping extends Expr    {
         Grouping(Expr expression) {
@@ -135,6 +143,8 @@ abstract class Expr {
         final Expr object;
         final Token name;
         final Expr value;
+        // Filled in after parsing.
+        InlineCache cache;
     }
     static class Super extends Expr    {
         Super(Token keyword, Token method) {
@@ -149,6 +159,9 @@ abstract class Expr {
 
         final Token keyword;
         final Token method;
+        // Filled in after parsing.
+        Expr.This receiver;
+        Location location;
     }
     static class This extends Expr    {
         This(Token keyword) {
@@ -161,6 +174,8 @@ abstract class Expr {
         }
 
         final Token keyword;
+        // Filled in after parsing.
+        Location location;
     }
     static class Unary extends Expr    {
         Unary(Token operator, Expr right) {
@@ -175,6 +190,8 @@ abstract class Expr {
 
         final Token operator;
         final Expr right;
+        // Filled in after parsing.
+        boolean rightNumeric;
     }
     static class Variable extends Expr    {
         Variable(Token name) {
@@ -187,6 +204,9 @@ abstract class Expr {
         }
 
         final Token name;
+        // Filled in after parsing.
+        Globals.Cell global;
+        Location location;
     }
 
     abstract <R> R accept(Visitor<R> visitor);
@@ -0,0 +1,69 @@
+package com.kingsman.jlox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The global scope.
+ *
+ * Every global name maps to a cell, created the first time the name is seen,
+ * either when it is defined or when the Resolver finds a reference to it.
+ * The Resolver hands the cell to the referencing expression, so reading or
+ * assigning a global at runtime never looks its name up again.
+ */
+class Globals {
+    /**
+     * holds the value of one global variable
+     */
+    static final class Cell {
+        Object value;
+        // a cell may exist before its variable does, because functions are
+        // allowed to refer to globals that are defined later
+        boolean defined = false;
+
+        Object get(Token name) {
+            if (!defined) {
+                throw new RuntimeError(name,
+                        "Undefined variable '" + name.lexeme() + "'.");
+            }
+
+            return value;
+        }
+
+        void assign(Token name, Object value) {
+            // assignment is not allowed to create a new variable
+            if (!defined) {
+                throw new RuntimeError(name,
+                        "Undefined variable '" + name.lexeme() + "'.");
+            }
+
+            this.value = value;
+        }
+    }
+
+    // Using the raw string ensures all of those tokens refer to the same cell.
+    // names are interned by the scanner's Symbols, so they are compared by identity.
+    private final Map<String, Cell> cells = new IdentityHashMap<>();
+
+    /**
+     * get the cell of a global, creating it if the name is new
+     */
+    Cell cell(String name) {
+        Cell cell = cells.get(name);
+        if (cell == null) {
+            cell = new Cell();
+            cells.put(name, cell);
+        }
+
+        return cell;
+    }
+
+    /**
+     * store the value of a global variable, redefining it if it already exists
+     */
+    void define(String name, Object value) {
+        Cell cell = cell(name);
+        cell.value = value;
+        cell.defined = true;
+    }
+}
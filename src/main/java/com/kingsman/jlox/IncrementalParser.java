@@ -0,0 +1,311 @@
+package com.kingsman.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.kingsman.jlox.TokenType.*;
+
+/**
+ * Keeps the tokens and resolved statements of a script that is being edited, so
+ * that an edit is scanned, parsed and resolved again only where it changed
+ * something.
+ *
+ * The script is kept in sections, each starting at a "class", "fun" or "var"
+ * outside of any braces and parentheses, where ParallelParser cuts a script
+ * too. Scanning, parsing and resolving carry nothing from one top-level
+ * declaration over to the next, so every section is done on its own. An edit
+ * replaces the sections it overlaps. If it opens a string, a comment or a brace
+ * that runs on into the next section, it replaces all the sections that follow
+ * as well. Every other section keeps its statements, the very objects the
+ * statements() of the previous version had.
+ *
+ * The tokens of a section share a Token.Shift, so an edit which adds or removes
+ * lines moves the lines of every section after it with one addition each. That
+ * and looking up the sections are the only work an edit does for the unchanged
+ * part of the script.
+ *
+ * Errors are reported as each section is scanned, parsed and resolved. As a
+ * section is parsed on its own, recovering from a syntax error never takes the
+ * parser into the next section, the way it may when the whole script is parsed.
+ *
+ * run() optimizes the statements before it runs them. The Optimizer copies
+ * what it rewrites, so the statements kept here stay as the Resolver left them.
+ */
+public final class IncrementalParser {
+    /**
+     * a run of top-level declarations, with what they were parsed to
+     */
+    private static final class Section {
+        final String text;
+        // the line the text started on when it was scanned
+        private final int line;
+        // moves the section's tokens, and the section with them
+        final Token.Shift shift;
+        final int lines;
+        final List<Stmt> statements;
+        final boolean hadError;
+
+        Section(String text, int line, Token.Shift shift, List<Stmt> statements, boolean hadError) {
+            this.text = text;
+            this.line = line;
+            this.shift = shift;
+            this.lines = newlines(text, 0, text.length());
+            this.statements = statements;
+            this.hadError = hadError;
+        }
+
+        /**
+         * the line the text starts on now
+         */
+        int line() {
+            return line + shift.lines;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final List<Section> sections = new ArrayList<>();
+    // the number of sections with an error
+    private int errors = 0;
+
+    /**
+     * scans, parses and resolves the whole script, for an interpreter of its own
+     *
+     * @param source
+     */
+    public IncrementalParser(String source) {
+        this(new Interpreter(), source);
+    }
+
+    /**
+     * scans, parses and resolves the whole script
+     *
+     * @param interpreter the one the statements will run on, the resolver finds its globals
+     * @param source
+     */
+    IncrementalParser(Interpreter interpreter, String source) {
+        this.interpreter = interpreter;
+        replace(0, 0, sections(source, 1));
+    }
+
+    /**
+     * replaces length characters at offset with the replacement
+     *
+     * @param offset
+     * @param length
+     * @param replacement
+     */
+    public void edit(int offset, int length, String replacement) {
+        // the sections holding the characters on either side of the edit,
+        // a token there may run into the edit.
+        int before = Math.max(offset - 1, 0);
+        int after = offset + length;
+        int first = -1;
+        int last = -1;
+        int start = 0;
+        int firstStart = 0;
+        for (int i = 0; i < sections.size(); i++) {
+            int end = start + sections.get(i).text.length();
+            boolean isLast = i == sections.size() - 1;
+            if (first < 0 && (before < end || isLast)) {
+                first = i;
+                firstStart = start;
+            }
+            if (first >= 0 && (after < end || isLast)) {
+                last = i;
+                if (offset < 0 || length < 0 || after > end) {
+                    throw new IndexOutOfBoundsException("Edit at " + offset + " of length " + length + ".");
+                }
+                break;
+            }
+            start = end;
+        }
+
+        StringBuilder edited = new StringBuilder();
+        for (int i = first; i <= last; i++) {
+            edited.append(sections.get(i).text);
+        }
+        int oldLines = newlines(edited, 0, edited.length());
+        edited.replace(offset - firstStart, after - firstStart, replacement);
+
+        int line = sections.get(first).line();
+        if (last + 1 < sections.size() && !endsBetweenDeclarations(edited, line, sections.get(last + 1))) {
+            for (last++; last < sections.size(); last++) {
+                Section section = sections.get(last);
+                oldLines += section.lines;
+                edited.append(section.text);
+            }
+            last--;
+        }
+
+        String text = edited.toString();
+        List<Section> replaced = sections(text, line);
+        replace(first, last + 1, replaced);
+
+        int delta = newlines(text, 0, text.length()) - oldLines;
+        if (delta != 0) {
+            for (int i = first + replaced.size(); i < sections.size(); i++) {
+                sections.get(i).shift.lines += delta;
+            }
+        }
+    }
+
+    /**
+     * replaces the sections from start up to end
+     */
+    private void replace(int start, int end, List<Section> replacements) {
+        for (int i = start; i < end; i++) {
+            if (sections.get(i).hadError) errors--;
+        }
+        for (Section section : replacements) {
+            if (section.hadError) errors++;
+        }
+
+        // most edits give as many sections as they take, which need no others moved
+        int common = Math.min(end - start, replacements.size());
+        for (int i = 0; i < common; i++) {
+            sections.set(start + i, replacements.get(i));
+        }
+        if (common < end - start) {
+            sections.subList(start + common, end).clear();
+        } else {
+            sections.addAll(start + common, replacements.subList(common, replacements.size()));
+        }
+    }
+
+    /**
+     * @return the statements of the script, a section with a syntax error may have nulls among them
+     */
+    List<Stmt> statements() {
+        List<Stmt> statements = new ArrayList<>();
+        for (Section section : sections) {
+            statements.addAll(section.statements);
+        }
+
+        return statements;
+    }
+
+    /**
+     * whether an error was reported for the script as it is now
+     */
+    public boolean hadError() {
+        return errors > 0;
+    }
+
+    /**
+     * @return the script as it is now
+     */
+    public String text() {
+        StringBuilder text = new StringBuilder();
+        for (Section section : sections) {
+            text.append(section.text);
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * runs the script as it is now, unless it has an error. Every run is on the
+     * same interpreter, the globals keep what earlier runs left in them, like
+     * at the prompt.
+     */
+    public void run() {
+        if (hadError()) return;
+
+        List<Stmt> statements = statements();
+        new Optimizer().optimize(statements);
+        interpreter.interpret(statements);
+    }
+
+    /**
+     * whether the edited text, followed by the section after it, still has a
+     * top-level declaration start where that section starts
+     */
+    private static boolean endsBetweenDeclarations(CharSequence edited, int line, Section next) {
+        String text = edited.toString() + next.text;
+        int boundary = edited.length();
+        int depth = 0;
+        for (Token token : new Scanner(text, line, false, null).scanTokens()) {
+            if (token.offset() >= boundary && token.type != EOF) {
+                return token.offset() == boundary && depth == 0;
+            }
+
+            switch (token.type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * cuts the text into sections, then scans, parses and resolves each one
+     *
+     * @param text
+     * @param line the line the text starts on
+     */
+    private List<Section> sections(String text, int line) {
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+        int depth = 0;
+        for (Token token : new Scanner(text, line, false, null).scanTokens()) {
+            switch (token.type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
+                case CLASS:
+                case FUN:
+                case VAR:
+                    if (depth == 0 && token.offset() > 0) cuts.add(token.offset());
+                    break;
+            }
+        }
+        cuts.add(text.length());
+
+        List<Section> sections = new ArrayList<>();
+        for (int i = 0; i + 1 < cuts.size(); i++) {
+            String part = text.substring(cuts.get(i), cuts.get(i + 1));
+            sections.add(section(part, line));
+            line += sections.get(i).lines;
+        }
+
+        return sections;
+    }
+
+    private Section section(String text, int line) {
+        Token.Shift shift = new Token.Shift();
+        Scanner scanner = new Scanner(text, line, true, shift);
+        Parser parser = new Parser(scanner);
+        List<Stmt> statements = parser.parse();
+
+        boolean hadError = scanner.hadError || parser.hadError;
+        // like the whole script, a section with a syntax error is not resolved
+        if (!hadError) {
+            Resolver resolver = new Resolver(interpreter);
+            resolver.resolve(statements);
+            hadError = resolver.hadError;
+        }
+
+        return new Section(text, line, shift, statements, hadError);
+    }
+
+    private static int newlines(CharSequence text, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+
+        return count;
+    }
+}
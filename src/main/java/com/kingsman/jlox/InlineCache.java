@@ -0,0 +1,81 @@
+package com.kingsman.jlox;
+
+/**
+ * Remembers how a property access site found its property last time.
+ *
+ * Entries are keyed by the receiver's shape, which also pins down its class
+ * because every class has its own empty shape. An entry holds either the index
+ * of a field or the method the name resolved to, and for assignments that add a
+ * field, the shape the instance moves on to. A site that sees a single shape is
+ * monomorphic, up to LIMIT shapes it is polymorphic, past that it is megamorphic
+ * and stops caching, every access then does the full lookup.
+ */
+final class InlineCache {
+    static final int LIMIT = 4;
+
+    private Shape[] shapes;
+    // field index for each cached shape, -1 if the name is a method
+    private int[] indices;
+    // the method the name resolved to, for property reads
+    private LoxFunction[] methods;
+    // the shape after adding the field, for assignments that create one
+    private Shape[] transitions;
+    private int size = 0;
+    private boolean megamorphic = false;
+
+    /**
+     * finds the entry for the shape
+     *
+     * @return the entry, or -1 on a miss
+     */
+    int lookup(Shape shape) {
+        if (megamorphic) return -1;
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) return i;
+        }
+
+        return -1;
+    }
+
+    int index(int entry) {
+        return indices[entry];
+    }
+
+    LoxFunction method(int entry) {
+        return methods[entry];
+    }
+
+    Shape transition(int entry) {
+        return transitions[entry];
+    }
+
+    /**
+     * remembers the result of a full lookup
+     */
+    void add(Shape shape, int index, LoxFunction method, Shape transition) {
+        if (megamorphic) return;
+        if (size == LIMIT) {
+            // too many shapes go through here, let go of the entries
+            megamorphic = true;
+            shapes = null;
+            indices = null;
+            methods = null;
+            transitions = null;
+            return;
+        }
+
+        if (shapes == null) {
+            // allocated on first use, most sites in a script never run
+            shapes = new Shape[LIMIT];
+            indices = new int[LIMIT];
+            methods = new LoxFunction[LIMIT];
+            transitions = new Shape[LIMIT];
+        }
+
+        shapes[size] = shape;
+        indices[size] = index;
+        methods[size] = method;
+        transitions[size] = transition;
+        size++;
+    }
+}
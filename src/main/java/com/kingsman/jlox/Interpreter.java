@@ -1,6 +1,5 @@
 package com.kingsman.jlox;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -8,15 +7,24 @@ import java.util.Map;
 /**
  * Visitor pattern
  * <p>
- * Unlike expressions, statements produce no values,
- * so the return type of the visit methods is Void
+ * Unlike expressions, statements produce no values, the visit methods
+ * return whether a return statement ran, so the statements around it stop
+ * like after a normal branch, without unwinding the Java stack with an exception.
  */
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    // holds a fixed reference to the outermost global environment.
-    final Environment globals = new Environment();
-    // tracks the current environment
-    private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Boolean> {
+    // holds a fixed reference to the global scope.
+    final Globals globals = new Globals();
+    // tracks the current environment, null while running top-level code
+    // because its variables live in globals.
+    private Environment environment = null;
+    // compiles hot functions to JVM bytecode, null when the JIT is off
+    JitCompiler jit = null;
+    // the value of the return statement that ran last, the function
+    // it returns from takes it once its body has stopped
+    Object returnValue = null;
+
+    // the environment "super" lives in only ever holds that one, captured, variable
+    private static final boolean[] SUPER_CAPTURED = { true };
 
     // when we instantiate an Interpreter, we stuff the native
     // function in that global scope.
@@ -28,8 +36,12 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             public int arity() { return 0; }
 
             @Override
-            public Object call(Interpreter interpreter,
-                               List<Object> arguments) {
+            public Object call(Interpreter interpreter, Object[] arguments) {
+                return call0(interpreter);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter) {
                 return (double)System.currentTimeMillis() / 1000.0;
             }
 
@@ -52,27 +64,30 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
-        Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
-
+        // operators that only work on numbers compute with unboxed doubles,
+        // only the final result gets boxed
         switch (expr.operator.type) {
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left <= (double)right;
+                return compare(expr);
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left - (double)right;
+            case SLASH:
+            case STAR:
+                return arithmetic(expr);
+            case PLUS:
+                // with a number on either side, it can only be an addition
+                if (expr.leftNumeric || expr.rightNumeric) return arithmetic(expr);
+                break;
+        }
+
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL: return !isEqual(left, right);
+            case EQUAL_EQUAL: return isEqual(left, right);
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double)left + (double)right;
@@ -83,12 +98,6 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 }
 
                 throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left / (double)right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double)left * (double)right;
         }
 
         // Unreachable.
@@ -97,35 +106,157 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        // a method called right away doesn't need a bound method made for it
+        if (expr.callee instanceof Expr.Get) {
+            return invoke(expr, (Expr.Get)expr.callee);
+        }
+
         // Typically, this expression is just an identifier that looks up the function by its name,
         // but it could be anything.
         Object callee = evaluate(expr.callee);
+        return call(expr, callee);
+    }
+
+    /**
+     * the fast path for "object.method(arguments)"
+     * @param expr
+     * @param get
+     * @return
+     */
+    private Object invoke(Expr.Call expr, Expr.Get get) {
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name,
+                    "Only instances have properties.");
+        }
+
+        LoxInstance instance = (LoxInstance)object;
+        LoxFunction method = instance.getMethod(get.name, get.cache);
+        if (method == null) {
+            // a field, which may hold anything callable
+            return call(expr, instance.get(get.name, get.cache));
+        }
+
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                checkArity(expr, method, 0);
+                return method.invoke0(this, instance);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                checkArity(expr, method, 1);
+                return method.invoke1(this, instance, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                checkArity(expr, method, 2);
+                return method.invoke2(this, instance, a, b);
+            }
+            default: {
+                Object[] values = evaluateArguments(expr);
+                checkArity(expr, method, values.length);
+                return method.invoke(this, instance, values);
+            }
+        }
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    /**
+     * calls the callee with the call expression's arguments
+     * @param expr
+     * @param callee
+     * @return
+     */
+    private Object call(Expr.Call expr, Object callee) {
+        // up to two arguments are passed as they are, without an array
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                return callable(expr, callee, 0).call0(this);
+            case 1: {
+                Object a = evaluate(arguments.get(0));
+                return callable(expr, callee, 1).call1(this, a);
+            }
+            case 2: {
+                Object a = evaluate(arguments.get(0));
+                Object b = evaluate(arguments.get(1));
+                return callable(expr, callee, 2).call2(this, a, b);
+            }
+            default: {
+                Object[] values = evaluateArguments(expr);
+                return callable(expr, callee, values.length).call(this, values);
+            }
         }
+    }
 
+    /**
+     * checks that the callee can be called with the arguments, once they are evaluated
+     * @param expr
+     * @param callee
+     * @param argCount
+     * @return the callee
+     */
+    private LoxCallable callable(Expr.Call expr, Object callee, int argCount) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren,
                     "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
-        if (arguments.size() != function.arity()) {
+        checkArity(expr, function, argCount);
+        return function;
+    }
+
+    /**
+     * everything a call does up to calling the callee
+     * @param expr
+     * @return
+     */
+    private TailCall tailCall(Expr.Call expr) {
+        if (!(expr.callee instanceof Expr.Get)) {
+            Object callee = evaluate(expr.callee);
+            return TailCall.of(callee, evaluateArguments(expr), expr.paren);
+        }
+
+        Expr.Get get = (Expr.Get)expr.callee;
+        Object object = evaluate(get.object);
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(get.name,
+                    "Only instances have properties.");
+        }
+
+        LoxInstance instance = (LoxInstance)object;
+        LoxFunction method = instance.getMethod(get.name, get.cache);
+        if (method == null) {
+            Object callee = instance.get(get.name, get.cache);
+            return TailCall.of(callee, evaluateArguments(expr), expr.paren);
+        }
+
+        return TailCall.method(method, instance, evaluateArguments(expr), expr.paren);
+    }
+
+    private Object[] evaluateArguments(Expr.Call expr) {
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = evaluate(expr.arguments.get(i));
+        }
+
+        return arguments;
+    }
+
+    private void checkArity(Expr.Call expr, LoxCallable function, int argCount) {
+        if (argCount != function.arity()) {
             throw new RuntimeError(expr.paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    argCount + ".");
         }
-
-        return function.call(this, arguments);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof LoxInstance) {
-            return ((LoxInstance) object).get(expr.name);
+            return ((LoxInstance) object).get(expr.name, expr.cache);
         }
 
         throw new RuntimeError(expr.name,
@@ -166,7 +297,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        ((LoxInstance)object).set(expr.name, value, expr.cache);
         return value;
     }
 
@@ -174,18 +305,15 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     public Object visitSuperExpr(Expr.Super expr) {
         // look up the surrounding class’s superclass by
         // looking up “super” in the proper environment.
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass)environment.getAt(
-                distance, "super");
-        // the "this" instance is always one level nearer than "super"
-        LoxInstance object = (LoxInstance)environment.getAt(
-                distance - 1, "this");
+        LoxClass superclass = (LoxClass)lookUpVariable(expr.location);
+        // the Resolver has resolved "this" on its own
+        LoxInstance object = (LoxInstance)evaluate(expr.receiver);
 
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        LoxFunction method = superclass.findMethod(expr.method.lexeme());
 
         if (method == null) {
             throw new RuntimeError(expr.method,
-                    "Undefined property '" + expr.method.lexeme + "'.");
+                    "Undefined property '" + expr.method.lexeme() + "'.");
         }
 
         return method.bind(object);
@@ -193,21 +321,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        // same as the variable expression, but with a fixed name "this"
-        return lookUpVariable(expr.keyword, expr);
+        // same as a local variable expression, but with a fixed name "this"
+        return lookUpVariable(expr.location);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-
         switch (expr.operator.type) {
             case BANG:
-                return !isTruthy(right);
+                return !evaluateCondition(expr.right);
             case MINUS:
-                // avoid a runtime error when the operand isn’t a number
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                return negate(expr);
         }
 
         // Unreachable.
@@ -216,69 +340,91 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        if (expr.location != null) {
+            return lookUpVariable(expr.location);
+        } else { // because we resolve only local variables
+            return expr.global.get(expr.name);
+        }
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.location != null) {
+            assignVariable(expr.location, value);
         } else {
-            globals.assign(expr.name, value);
+            expr.global.assign(expr.name, value);
         }
         return value;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Boolean visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        // return null to fit the Void return type
-        return null;
+        return false;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Boolean visitFunctionStmt(Stmt.Function stmt) {
+        if (environment == null) {
+            globals.define(stmt.name.lexeme(), new LoxFunction(stmt, Upvalue.capture(stmt.upvalues, environment), false));
+            return false;
+        }
+
+        // the name must exist before the closure is made, so a
+        // function that calls itself can capture it.
+        int slot = environment.define(null);
+        environment.initialize(slot, new LoxFunction(stmt, Upvalue.capture(stmt.upvalues, environment), false));
+        return false;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Boolean visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println((stringify(value)));
-        return null;
+        return false;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
+    public Boolean visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            // the call is left to the trampoline in LoxFunction
+            returnValue = tailCall((Expr.Call)stmt.value);
+        } else {
+            returnValue = stmt.value != null ? evaluate(stmt.value) : null;
+        }
 
-        throw new Return(value);
+        return true;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Boolean visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         } // if the variable has not an initializer, it would be nil (Java null)
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.name, value);
+        return false;
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Boolean visitBlockStmt(Stmt.Block stmt) {
+        // the Resolver gave no scope to a block that declares nothing,
+        // so it simply runs in the current environment
+        if (stmt.slotCount == 0) {
+            for (Stmt statement : stmt.statements) {
+                if (execute(statement)) return true;
+            }
+            return false;
+        }
+
+        return executeBlock(stmt.statements, new Environment(environment,
+                stmt.slotCount, stmt.captured));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Boolean visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -289,62 +435,177 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        // like functions, the methods may capture the class's name
+        int slot = environment != null ? environment.define(null) : -1;
 
         if (stmt.superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1, SUPER_CAPTURED);
+            environment.define(superclass); // "super"
         }
 
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             LoxFunction function
-                    = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+                    = new LoxFunction(method, Upvalue.capture(method.upvalues, environment), method.name.lexeme().equals("init"));
+            methods.put(method.name.lexeme(), function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme,
+        LoxClass klass = new LoxClass(stmt.name.lexeme(),
                 (LoxClass)superclass, methods);
 
         if (superclass != null) {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
-        return null;
+        if (environment == null) {
+            globals.define(stmt.name.lexeme(), klass);
+        } else {
+            environment.initialize(slot, klass);
+        }
+        return false;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
-        if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+    public Boolean visitIfStmt(Stmt.If stmt) {
+        if (evaluateCondition(stmt.condition)) {
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return false;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Boolean visitWhileStmt(Stmt.While stmt) {
+        // when no closure captures the variables of the loop body,
+        // every iteration can run in the same environment
+        if (stmt.body instanceof Stmt.Block) {
+            Stmt.Block body = (Stmt.Block)stmt.body;
+            if (body.slotCount > 0 && body.captured == null) {
+                Environment iteration = new Environment(environment,
+                        body.slotCount, null);
+                while (evaluateCondition(stmt.condition)) {
+                    iteration.reset();
+                    if (executeBlock(body.statements, iteration)) return true;
+                }
+                return false;
+            }
+        }
+
         // just uses the corresponding Java feature
-        while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+        while (evaluateCondition(stmt.condition)) {
+            if (execute(stmt.body)) return true;
         }
-        return null;
+        return false;
+    }
+
+    @Override
+    public Boolean visitForStmt(Stmt.For stmt) {
+        if (stmt.slotCount == 0) {
+            if (stmt.initializer != null) execute(stmt.initializer);
+            return loop(stmt);
+        }
+
+        // the loop's variable, and the invariants after it, live
+        // in an environment made once for the whole loop
+        Environment previous = this.environment;
+        try {
+            this.environment = new Environment(previous, stmt.slotCount, stmt.captured);
+            execute(stmt.initializer);
+            if (stmt.hoisted != null && hoist(stmt.invariants)) return loop(stmt.hoisted);
+            return loop(stmt);
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    /**
+     * runs the loop until its condition is false, a missing condition is always true
+     * @param loop
+     * @return true if a return statement ran
+     */
+    private boolean loop(Stmt.For loop) {
+        Expr condition = loop.condition;
+        Expr increment = loop.increment;
+
+        // like in a while loop, a body whose variables no closure
+        // captures runs every iteration in the same environment
+        if (loop.body instanceof Stmt.Block) {
+            Stmt.Block body = (Stmt.Block)loop.body;
+            if (body.slotCount > 0 && body.captured == null) {
+                Environment iteration = new Environment(environment,
+                        body.slotCount, null);
+                while (condition == null || evaluateCondition(condition)) {
+                    iteration.reset();
+                    if (executeBlock(body.statements, iteration)) return true;
+                    if (increment != null) evaluate(increment);
+                }
+                return false;
+            }
+        }
+
+        while (condition == null || evaluateCondition(condition)) {
+            if (execute(loop.body)) return true;
+            if (increment != null) evaluate(increment);
+        }
+        return false;
     }
 
     /**
-     * make use of the access to each variable’s resolved location
+     * evaluates the loop's invariants into the slots after its variable
+     * @param invariants
+     * @return false if one of them fails, the loop then runs as written and fails where it would
+     */
+    private boolean hoist(List<Expr> invariants) {
+        try {
+            for (Expr invariant : invariants) {
+                environment.define(evaluate(invariant));
+            }
+            return true;
+        } catch (RuntimeError error) {
+            return false;
+        }
+    }
+
+    /**
+     * defines a variable in the current scope, which is
+     * the global one when running top-level code
      * @param name
-     * @param expr
+     * @param value
+     */
+    private void define(Token name, Object value) {
+        if (environment == null) {
+            globals.define(name.lexeme(), value);
+        } else {
+            environment.define(value);
+        }
+    }
+
+    /**
+     * reads a local variable from where the Resolver found it
+     * @param location
      * @return
      */
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
-        } else { // because we resolve only local variables
-            return globals.get(name);
+    private Object lookUpVariable(Location location) {
+        if (location.upvalue) return environment.upvalues[location.slot].value;
+
+        Object value = environment.getAt(location.depth, location.slot);
+        if (location.boxed) return ((Upvalue)value).value;
+        return value;
+    }
+
+    /**
+     * like lookUpVariable() but for assignment
+     * @param location
+     * @param value
+     */
+    private void assignVariable(Location location, Object value) {
+        if (location.upvalue) {
+            environment.upvalues[location.slot].value = value;
+        } else if (location.boxed) {
+            ((Upvalue)environment.getAt(location.depth, location.slot)).value = value;
+        } else {
+            environment.assignAt(location.depth, location.slot, value);
         }
     }
 
@@ -360,18 +621,10 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     /**
      * sends the statement back into the interpreter’s visitor implementation
      * @param statement
+     * @return true if a return statement ran, its value is in returnValue
      */
-    private void execute(Stmt statement) {
-        statement.accept(this);
-    }
-
-    /**
-     * resolves the depth of the scope of a local variable
-     * @param expr
-     * @param depth
-     */
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private boolean execute(Stmt statement) {
+        return statement.accept(this);
     }
 
     /**
@@ -379,7 +632,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * @param object
      * @return
      */
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
@@ -393,7 +646,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * @param b
      * @return
      */
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
@@ -410,9 +663,127 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
-        if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operands must be numbers.");
+    /**
+     * evaluates an expression the Resolver marked as numeric without boxing its value
+     * @param expr
+     * @return
+     */
+    private double evaluateDouble(Expr expr) {
+        if (expr instanceof Expr.Binary) return arithmetic((Expr.Binary)expr);
+        if (expr instanceof Expr.Unary) return negate((Expr.Unary)expr);
+        if (expr instanceof Expr.Grouping) {
+            return evaluateDouble(((Expr.Grouping)expr).expression);
+        }
+
+        // the only other numeric expression is a number literal
+        return (double)((Expr.Literal)expr).value;
+    }
+
+    /**
+     * evaluates an expression only for its truthiness, comparisons and
+     * negations then never box their result
+     * @param expr
+     * @return
+     */
+    private boolean evaluateCondition(Expr expr) {
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            switch (binary.operator.type) {
+                case GREATER:
+                case GREATER_EQUAL:
+                case LESS:
+                case LESS_EQUAL:
+                    return compare(binary);
+                case BANG_EQUAL:
+                    return !isEqual(evaluate(binary.left), evaluate(binary.right));
+                case EQUAL_EQUAL:
+                    return isEqual(evaluate(binary.left), evaluate(binary.right));
+            }
+        } else if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            if (unary.operator.type == TokenType.BANG) {
+                return !evaluateCondition(unary.right);
+            }
+        } else if (expr instanceof Expr.Logical) {
+            // as a condition, only the truthiness of the chosen operand matters
+            Expr.Logical logical = (Expr.Logical)expr;
+            if (logical.operator.type == TokenType.OR) {
+                return evaluateCondition(logical.left) || evaluateCondition(logical.right);
+            }
+            return evaluateCondition(logical.left) && evaluateCondition(logical.right);
+        }
+
+        return isTruthy(evaluate(expr));
+    }
+
+    private double arithmetic(Expr.Binary expr) {
+        double left = leftOperand(expr);
+        double right = rightOperand(expr);
+
+        switch (expr.operator.type) {
+            case MINUS: return left - right;
+            case PLUS: return left + right;
+            case SLASH: return left / right;
+            case STAR: return left * right;
+        }
+
+        // Unreachable.
+        return 0;
+    }
+
+    private boolean compare(Expr.Binary expr) {
+        double left = leftOperand(expr);
+        double right = rightOperand(expr);
+
+        switch (expr.operator.type) {
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+        }
+
+        // Unreachable.
+        return false;
+    }
+
+    private double negate(Expr.Unary expr) {
+        if (expr.rightNumeric) return -evaluateDouble(expr.right);
+
+        Object right = evaluate(expr.right);
+        // avoid a runtime error when the operand isn’t a number
+        checkNumberOperand(expr.operator, right);
+        return -(double)right;
+    }
+
+    /**
+     * the left operand of an operator that needs numbers
+     * @param expr
+     * @return
+     */
+    private double leftOperand(Expr.Binary expr) {
+        if (expr.leftNumeric) return evaluateDouble(expr.left);
+
+        Object left = evaluate(expr.left);
+        if (left instanceof Double) return (double)left;
+
+        // both operands are evaluated before the type error, like any other binary expression
+        evaluate(expr.right);
+        throw numberOperandsError(expr.operator);
+    }
+
+    private double rightOperand(Expr.Binary expr) {
+        if (expr.rightNumeric) return evaluateDouble(expr.right);
+
+        Object right = evaluate(expr.right);
+        if (right instanceof Double) return (double)right;
+        throw numberOperandsError(expr.operator);
+    }
+
+    private RuntimeError numberOperandsError(Token operator) {
+        if (operator.type == TokenType.PLUS) {
+            return new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+        return new RuntimeError(operator, "Operands must be numbers.");
     }
 
     /**
@@ -420,7 +791,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
      * @param object
      * @return
      */
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -434,13 +805,29 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return object.toString();
     }
 
+    /**
+     * runs the body of a function in the environment of the call,
+     * an engine that runs the body its own way overrides this
+     * @param declaration
+     * @param environment
+     * @return the returned value, or null if the body just ends
+     */
+    Object executeFunction(Stmt.Function declaration, Environment environment) {
+        if (!executeBlock(declaration.body, environment)) return null;
+
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
     /**
      * executes a list of statements in the context of a given environment.
      * @param statements
      * @param environment
+     * @return true if a return statement ran
      */
-    void executeBlock(List<Stmt> statements,
-                      Environment environment) {
+    boolean executeBlock(List<Stmt> statements,
+                         Environment environment) {
         // preserves the previous environment
         Environment previous = this.environment;
         try {
@@ -448,8 +835,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                if (execute(statement)) return true;
             }
+            return false;
         } finally {
             // restores the previous environment
             this.environment = previous;
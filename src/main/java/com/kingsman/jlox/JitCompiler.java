@@ -0,0 +1,1209 @@
+package com.kingsman.jlox;
+
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.kingsman.jlox.jit.ClassFile;
+import com.kingsman.jlox.jit.Code;
+import com.kingsman.jlox.jit.Label;
+
+import static com.kingsman.jlox.jit.Opcodes.*;
+
+/**
+ * Compiles the bodies of hot functions into JVM classes, so HotSpot
+ * optimizes the Lox code itself instead of the interpreter running it.
+ *
+ * Each body becomes a hidden class in this package, whose code calls the
+ * interpreter's package-private classes directly. Locals are JVM locals,
+ * a return statement is a JVM return, and locals that only ever hold
+ * numbers are unboxed doubles. Anything more than a few instructions,
+ * like a call or a type check, goes through {@link JitRuntime}.
+ *
+ * A function that declares a class is not compiled, it keeps running
+ * in the interpreter.
+ */
+class JitCompiler {
+    // how many times one closure is called before its function gets compiled
+    static final int THRESHOLD = 100;
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String BOOLEAN = "java/lang/Boolean";
+    private static final String DOUBLE = "java/lang/Double";
+    private static final String COMPILED = "com/kingsman/jlox/CompiledFunction";
+    private static final String RUNTIME = "com/kingsman/jlox/JitRuntime";
+    private static final String INTERPRETER = "com/kingsman/jlox/Interpreter";
+    private static final String UPVALUE = "com/kingsman/jlox/Upvalue";
+    private static final String INSTANCE = "com/kingsman/jlox/LoxInstance";
+    private static final String FUNCTION = "com/kingsman/jlox/LoxFunction";
+    private static final String CELL = "com/kingsman/jlox/Globals$Cell";
+    private static final String TOKEN = "com/kingsman/jlox/Token";
+    private static final String CACHE = "com/kingsman/jlox/InlineCache";
+    private static final String DECLARATION = "com/kingsman/jlox/Stmt$Function";
+
+    private static final String INVOKE_DESCRIPTOR = invokeDescriptor("[L" + OBJECT + ";");
+
+    // the JVM locals of the compiled method's own parameters
+    private static final int THIS = 0;
+    private static final int INTERPRETER_LOCAL = 1;
+    private static final int UPVALUES_LOCAL = 2;
+    private static final int RECEIVER_LOCAL = 3;
+    private static final int ARGUMENTS_LOCAL = 4;
+
+    // the most arguments a call passes without an argument array
+    private static final int MAX_SPREAD = 2;
+
+    // functions that were found not to be compilable, so they aren't tried again
+    private final Set<Stmt.Function> failed =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+
+    /**
+     * compiles the function, once for all the closures made from it
+     * @param declaration
+     * @param isMethod whether the function gets an instance in its first slot
+     * @return the compiled function, or null if it can't be compiled
+     */
+    CompiledFunction compile(Stmt.Function declaration, boolean isMethod) {
+        if (declaration.compiled != null) return declaration.compiled;
+        if (failed.contains(declaration)) return null;
+
+        try {
+            FunctionCompiler compiler = new FunctionCompiler(declaration, isMethod);
+            byte[] bytes = compiler.compile();
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            declaration.compiled = (CompiledFunction)lookup.lookupClass()
+                    .getConstructor(Object[].class)
+                    .newInstance((Object)compiler.constants.toArray());
+            return declaration.compiled;
+        } catch (Unsupported | IllegalStateException | UncheckedIOException |
+                 ReflectiveOperationException | LinkageError error) {
+            // the interpreter keeps running it
+            failed.add(declaration);
+            return null;
+        }
+    }
+
+    /**
+     * the descriptor of CompiledFunction's entry points
+     * @param arguments the descriptors of the arguments after the receiver
+     */
+    private static String invokeDescriptor(String arguments) {
+        return "(L" + INTERPRETER + ";[L" + UPVALUE + ";L" + INSTANCE + ";" +
+                arguments + ")L" + OBJECT + ";";
+    }
+
+    /**
+     * the descriptors of count objects
+     */
+    private static String objects(int count) {
+        StringBuilder descriptor = new StringBuilder();
+        for (int i = 0; i < count; i++) descriptor.append("L" + OBJECT + ";");
+        return descriptor.toString();
+    }
+
+    /**
+     * thrown for code the compiler can't handle
+     */
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * a local variable of the compiled function
+     */
+    private static final class Variable {
+        // captured by an inner function, so the JVM local holds an Upvalue
+        final boolean boxed;
+        // every value the variable is given, null for a parameter
+        final List<Expr> values;
+        // only ever holds numbers, so the JVM local is a double
+        boolean numeric;
+        int local = -1;
+
+        Variable(boolean boxed, List<Expr> values) {
+            this.boxed = boxed;
+            this.values = values;
+            this.numeric = !boxed && values != null;
+        }
+    }
+
+    /**
+     * compiles one function body
+     */
+    private static final class FunctionCompiler
+            implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Stmt.Function declaration;
+        private final boolean isMethod;
+        private final ClassFile classFile;
+        private Code code;
+
+        // what the compiled code needs that the class file can't hold,
+        // kept in an array the class gets when it is instantiated
+        final List<Object> constants = new ArrayList<>();
+        private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+
+        // what the Resolver's slots refer to, found before compiling
+        private final Map<Object, Variable> variables = new IdentityHashMap<>();
+        private final List<Variable> parameters = new ArrayList<>();
+        // the variables each inner function captures from this one, null for
+        // an upvalue it takes from this function's own upvalues
+        private final Map<Stmt.Function, Variable[]> captures = new IdentityHashMap<>();
+
+        FunctionCompiler(Stmt.Function declaration, boolean isMethod) {
+            this.declaration = declaration;
+            this.isMethod = isMethod;
+            this.classFile = new ClassFile("com/kingsman/jlox/CompiledFunction$Body", OBJECT);
+        }
+
+        byte[] compile() {
+            new Analyzer().analyze();
+
+            classFile.addInterface(COMPILED);
+            classFile.addField(ClassFile.ACC_PRIVATE | ClassFile.ACC_FINAL,
+                    "constants", "[L" + OBJECT + ";");
+
+            code = new Code(classFile, 2);
+            code.load(ALOAD, THIS);
+            code.invoke(INVOKESPECIAL, OBJECT, "<init>", "()V");
+            code.load(ALOAD, THIS);
+            code.load(ALOAD, 1);
+            code.field(PUTFIELD, classFile.name(), "constants", "[L" + OBJECT + ";");
+            code.op(RETURN, 0);
+            classFile.addMethod(ClassFile.ACC_PUBLIC, "<init>", "([L" + OBJECT + ";)V", code);
+
+            // with few parameters the body goes in the entry point for its arity,
+            // which gets them as JVM arguments, and invoke() unpacks the array into it
+            int arity = declaration.params.size();
+            boolean spread = arity <= MAX_SPREAD;
+            code = new Code(classFile, ARGUMENTS_LOCAL + (spread ? arity : 1));
+            int index = 0;
+            if (isMethod) {
+                code.load(ALOAD, RECEIVER_LOCAL);
+                define(parameters.get(index++));
+            }
+            for (int i = 0; i < arity; i++) {
+                if (spread) {
+                    code.load(ALOAD, ARGUMENTS_LOCAL + i);
+                } else {
+                    code.load(ALOAD, ARGUMENTS_LOCAL);
+                    code.pushInt(i);
+                    code.op(AALOAD, -1);
+                }
+                define(parameters.get(index++));
+            }
+
+            compile(declaration.body);
+
+            // a body that ends without a return statement gives nil
+            code.op(ACONST_NULL, 1);
+            code.op(ARETURN, -1);
+            if (!spread) {
+                classFile.addMethod(ClassFile.ACC_PUBLIC, "invoke", INVOKE_DESCRIPTOR, code);
+                return classFile.toByteArray();
+            }
+
+            String descriptor = invokeDescriptor(objects(arity));
+            classFile.addMethod(ClassFile.ACC_PUBLIC, "invoke" + arity, descriptor, code);
+
+            code = new Code(classFile, ARGUMENTS_LOCAL + 1);
+            code.load(ALOAD, THIS);
+            code.load(ALOAD, INTERPRETER_LOCAL);
+            code.load(ALOAD, UPVALUES_LOCAL);
+            code.load(ALOAD, RECEIVER_LOCAL);
+            for (int i = 0; i < arity; i++) {
+                code.load(ALOAD, ARGUMENTS_LOCAL);
+                code.pushInt(i);
+                code.op(AALOAD, -1);
+            }
+            code.invoke(INVOKEINTERFACE, COMPILED, "invoke" + arity, descriptor);
+            code.op(ARETURN, -1);
+            classFile.addMethod(ClassFile.ACC_PUBLIC, "invoke", INVOKE_DESCRIPTOR, code);
+
+            return classFile.toByteArray();
+        }
+
+        private void compile(List<Stmt> statements) {
+            for (Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        /**
+         * compiles an expression that leaves its value on the stack as an object
+         */
+        private void compile(Expr expr) {
+            if (isNumeric(expr)) {
+                compileDouble(expr);
+                box();
+                return;
+            }
+
+            expr.accept(this);
+        }
+
+        /**
+         * compiles an expression that isNumeric() says gives a number, leaving
+         * the unboxed double on the stack
+         */
+        private void compileDouble(Expr expr) {
+            if (expr instanceof Expr.Literal) {
+                code.pushDouble((double)((Expr.Literal)expr).value);
+            } else if (expr instanceof Expr.Grouping) {
+                compileDouble(((Expr.Grouping)expr).expression);
+            } else if (expr instanceof Expr.Variable) {
+                code.load(DLOAD, variables.get(expr).local);
+            } else if (expr instanceof Expr.Assign) {
+                compileDouble(((Expr.Assign)expr).value);
+                code.op(DUP2, 2);
+                code.store(DSTORE, variables.get(expr).local);
+            } else if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary)expr;
+                if (isNumeric(unary.right)) {
+                    compileDouble(unary.right);
+                    code.op(DNEG, 0);
+                } else {
+                    unary.right.accept(this);
+                    constant(unary.operator, TOKEN);
+                    runtime("negate", "(L" + OBJECT + ";L" + TOKEN + ";)D");
+                }
+            } else {
+                arithmetic((Expr.Binary)expr);
+            }
+        }
+
+        private void arithmetic(Expr.Binary expr) {
+            if (isNumeric(expr.left)) {
+                compileDouble(expr.left);
+                rightNumber(expr);
+                switch (expr.operator.type) {
+                    case MINUS: code.op(DSUB, -2); break;
+                    case PLUS: code.op(DADD, -2); break;
+                    case SLASH: code.op(DDIV, -2); break;
+                    case STAR: code.op(DMUL, -2); break;
+                }
+                return;
+            }
+
+            // the left operand is only checked after the right one is evaluated
+            compile(expr.left);
+            compile(expr.right);
+            constant(expr.operator, TOKEN);
+            String descriptor = "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)D";
+            switch (expr.operator.type) {
+                case MINUS: runtime("subtract", descriptor); break;
+                case PLUS: runtime("addNumbers", descriptor); break;
+                case SLASH: runtime("divide", descriptor); break;
+                case STAR: runtime("multiply", descriptor); break;
+            }
+        }
+
+        /**
+         * the right operand of an operator whose left operand is a number
+         */
+        private void rightNumber(Expr.Binary expr) {
+            if (isNumeric(expr.right)) {
+                compileDouble(expr.right);
+            } else {
+                expr.right.accept(this);
+                constant(expr.operator, TOKEN);
+                runtime("number", "(L" + OBJECT + ";L" + TOKEN + ";)D");
+            }
+        }
+
+        /**
+         * compiles an expression for its truthiness only, jumping to the
+         * label if the truthiness is the given one
+         */
+        private void jump(Expr expr, Label target, boolean when) {
+            if (expr instanceof Expr.Grouping) {
+                jump(((Expr.Grouping)expr).expression, target, when);
+                return;
+            }
+
+            if (expr instanceof Expr.Literal) {
+                if (Interpreter.isTruthy(((Expr.Literal)expr).value) == when) {
+                    code.jump(GOTO, target);
+                }
+                return;
+            }
+
+            if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary)expr;
+                if (unary.operator.type == TokenType.BANG) {
+                    jump(unary.right, target, !when);
+                    return;
+                }
+            }
+
+            if (expr instanceof Expr.Logical) {
+                Expr.Logical logical = (Expr.Logical)expr;
+                // "or" is done once the left operand is truthy, "and" once it is falsey
+                boolean shortCircuit = logical.operator.type == TokenType.OR;
+                if (when == shortCircuit) {
+                    jump(logical.left, target, when);
+                    jump(logical.right, target, when);
+                } else {
+                    Label skip = new Label();
+                    jump(logical.left, skip, shortCircuit);
+                    jump(logical.right, target, when);
+                    code.place(skip);
+                }
+                return;
+            }
+
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                switch (binary.operator.type) {
+                    case GREATER:
+                    case GREATER_EQUAL:
+                    case LESS:
+                    case LESS_EQUAL:
+                        compare(binary, target, when);
+                        return;
+                    case BANG_EQUAL:
+                        equal(binary);
+                        code.jump(when ? IFEQ : IFNE, target);
+                        return;
+                    case EQUAL_EQUAL:
+                        equal(binary);
+                        code.jump(when ? IFNE : IFEQ, target);
+                        return;
+                }
+            }
+
+            compile(expr);
+            code.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(L" + OBJECT + ";)Z");
+            code.jump(when ? IFNE : IFEQ, target);
+        }
+
+        private void compare(Expr.Binary expr, Label target, boolean when) {
+            if (isNumeric(expr.left)) {
+                compileDouble(expr.left);
+                rightNumber(expr);
+
+                // a comparison with NaN is false, whichever way it goes
+                switch (expr.operator.type) {
+                    case GREATER:
+                        code.op(DCMPL, -3);
+                        code.jump(when ? IFGT : IFLE, target);
+                        break;
+                    case GREATER_EQUAL:
+                        code.op(DCMPL, -3);
+                        code.jump(when ? IFGE : IFLT, target);
+                        break;
+                    case LESS:
+                        code.op(DCMPG, -3);
+                        code.jump(when ? IFLT : IFGE, target);
+                        break;
+                    case LESS_EQUAL:
+                        code.op(DCMPG, -3);
+                        code.jump(when ? IFLE : IFGT, target);
+                        break;
+                }
+                return;
+            }
+
+            compile(expr.left);
+            compile(expr.right);
+            constant(expr.operator, TOKEN);
+            String descriptor = "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)Z";
+            switch (expr.operator.type) {
+                case GREATER: runtime("greater", descriptor); break;
+                case GREATER_EQUAL: runtime("greaterEqual", descriptor); break;
+                case LESS: runtime("less", descriptor); break;
+                case LESS_EQUAL: runtime("lessEqual", descriptor); break;
+            }
+            code.jump(when ? IFNE : IFEQ, target);
+        }
+
+        /**
+         * leaves 1 on the stack if the operands are equal, 0 if not
+         */
+        private void equal(Expr.Binary expr) {
+            if (isNumeric(expr.left) && isNumeric(expr.right)) {
+                compileDouble(expr.left);
+                compileDouble(expr.right);
+                runtime("equal", "(DD)Z");
+                return;
+            }
+
+            compile(expr.left);
+            compile(expr.right);
+            code.invoke(INVOKESTATIC, INTERPRETER, "isEqual",
+                    "(L" + OBJECT + ";L" + OBJECT + ";)Z");
+        }
+
+        /**
+         * compiles a comparison or negation into a Boolean
+         */
+        private void compileBoolean(Expr expr) {
+            Label isFalse = new Label();
+            Label end = new Label();
+            jump(expr, isFalse, false);
+            code.field(GETSTATIC, BOOLEAN, "TRUE", "L" + BOOLEAN + ";");
+            code.jump(GOTO, end);
+            code.place(isFalse);
+            code.field(GETSTATIC, BOOLEAN, "FALSE", "L" + BOOLEAN + ";");
+            code.place(end);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            Location location = expr.location;
+            if (location == null) {
+                constant(expr.global, CELL);
+                constant(expr.name, TOKEN);
+                compile(expr.value);
+                code.op(DUP_X2, 1);
+                code.invoke(INVOKEVIRTUAL, CELL, "assign",
+                        "(L" + TOKEN + ";L" + OBJECT + ";)V");
+            } else if (location.upvalue) {
+                upvalue(location.slot);
+                compile(expr.value);
+                code.op(DUP_X1, 1);
+                code.field(PUTFIELD, UPVALUE, "value", "L" + OBJECT + ";");
+            } else {
+                Variable variable = variables.get(expr);
+                if (variable.boxed) {
+                    code.load(ALOAD, variable.local);
+                    compile(expr.value);
+                    code.op(DUP_X1, 1);
+                    code.field(PUTFIELD, UPVALUE, "value", "L" + OBJECT + ";");
+                } else {
+                    compile(expr.value);
+                    code.op(DUP, 1);
+                    code.store(ASTORE, variable.local);
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            switch (expr.operator.type) {
+                case PLUS:
+                    // not known to be a number, or compile() would have done it
+                    compile(expr.left);
+                    compile(expr.right);
+                    constant(expr.operator, TOKEN);
+                    runtime("add", "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";");
+                    break;
+                default:
+                    compileBoolean(expr);
+                    break;
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            call(expr, false);
+            return null;
+        }
+
+        /**
+         * compiles a call, or the TailCall a return statement leaves to the trampoline
+         * @param expr
+         * @param tail whether the call is in tail position
+         */
+        private void call(Expr.Call expr, boolean tail) {
+            // a call with few arguments passes them to the JitRuntime
+            // method for its arity, a TailCall holds them in an array anyway
+            int argCount = expr.arguments.size();
+            boolean spread = !tail && argCount <= MAX_SPREAD;
+            String call = tail ? "tailCall" : spread ? "call" + argCount : "call";
+            String invoke = tail ? "tailInvoke" : spread ? "invoke" + argCount : "invoke";
+            String arguments = spread ? objects(argCount) : "[L" + OBJECT + ";";
+
+            if (expr.callee instanceof Expr.Get) {
+                // the method is looked up before the arguments are evaluated, it is
+                // called with the instance, or the field's value is called without one
+                Expr.Get get = (Expr.Get)expr.callee;
+                Label field = new Label();
+                Label evaluate = new Label();
+
+                compile(get.object);
+                constant(get.name, TOKEN);
+                runtime("instance", "(L" + OBJECT + ";L" + TOKEN + ";)L" + INSTANCE + ";");
+                code.op(DUP, 1);
+                constant(get.name, TOKEN);
+                constant(get.cache, CACHE);
+                code.invoke(INVOKEVIRTUAL, INSTANCE, "getMethod",
+                        "(L" + TOKEN + ";L" + CACHE + ";)L" + FUNCTION + ";");
+                code.op(DUP, 1);
+                code.jump(IFNULL, field);
+                code.op(SWAP, 0);
+                code.jump(GOTO, evaluate);
+
+                code.place(field);
+                code.op(POP, -1);
+                constant(get.name, TOKEN);
+                constant(get.cache, CACHE);
+                code.invoke(INVOKEVIRTUAL, INSTANCE, "get",
+                        "(L" + TOKEN + ";L" + CACHE + ";)L" + OBJECT + ";");
+                code.op(ACONST_NULL, 1);
+
+                code.place(evaluate);
+                arguments(expr.arguments, spread);
+                constant(expr.paren, TOKEN);
+                code.load(ALOAD, INTERPRETER_LOCAL);
+                runtime(invoke, "(L" + OBJECT + ";L" + INSTANCE + ";" + arguments +
+                        "L" + TOKEN + ";L" + INTERPRETER + ";)L" + OBJECT + ";");
+                return;
+            }
+
+            compile(expr.callee);
+            arguments(expr.arguments, spread);
+            constant(expr.paren, TOKEN);
+            code.load(ALOAD, INTERPRETER_LOCAL);
+            runtime(call, "(L" + OBJECT + ";" + arguments + "L" + TOKEN +
+                    ";L" + INTERPRETER + ";)L" + OBJECT + ";");
+        }
+
+        /**
+         * leaves the arguments on the stack, each on its own or in an array
+         */
+        private void arguments(List<Expr> arguments, boolean spread) {
+            if (spread) {
+                for (Expr argument : arguments) compile(argument);
+                return;
+            }
+
+
+            code.pushInt(arguments.size());
+            code.type(ANEWARRAY, OBJECT);
+            for (int i = 0; i < arguments.size(); i++) {
+                code.op(DUP, 1);
+                code.pushInt(i);
+                compile(arguments.get(i));
+                code.op(AASTORE, -3);
+            }
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            compile(expr.object);
+            constant(expr.name, TOKEN);
+            constant(expr.cache, CACHE);
+            runtime("get", "(L" + OBJECT + ";L" + TOKEN + ";L" + CACHE + ";)L" + OBJECT + ";");
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            compile(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            // numbers are compiled by compileDouble()
+            if (expr.value == null) {
+                code.op(ACONST_NULL, 1);
+            } else if (expr.value instanceof Boolean) {
+                code.field(GETSTATIC, BOOLEAN, (boolean)expr.value ? "TRUE" : "FALSE",
+                        "L" + BOOLEAN + ";");
+            } else {
+                code.pushString((String)expr.value);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            // the operand that decides is the value
+            Label end = new Label();
+            compile(expr.left);
+            code.op(DUP, 1);
+            code.invoke(INVOKESTATIC, INTERPRETER, "isTruthy", "(L" + OBJECT + ";)Z");
+            code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end);
+            code.op(POP, -1);
+            compile(expr.right);
+            code.place(end);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            compile(expr.object);
+            constant(expr.name, TOKEN);
+            runtime("fields", "(L" + OBJECT + ";L" + TOKEN + ";)L" + INSTANCE + ";");
+            compile(expr.value);
+            constant(expr.name, TOKEN);
+            constant(expr.cache, CACHE);
+            runtime("set", "(L" + INSTANCE + ";L" + OBJECT + ";L" + TOKEN +
+                    ";L" + CACHE + ";)L" + OBJECT + ";");
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            read(expr.location, expr);
+            compile(expr.receiver);
+            constant(expr.method, TOKEN);
+            runtime("superMethod", "(L" + OBJECT + ";L" + OBJECT + ";L" + TOKEN + ";)L" + OBJECT + ";");
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            read(expr.location, expr);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            // a negation is numeric, so only "!" is left
+            compileBoolean(expr);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            if (expr.location == null) {
+                constant(expr.global, CELL);
+                constant(expr.name, TOKEN);
+                code.invoke(INVOKEVIRTUAL, CELL, "get", "(L" + TOKEN + ";)L" + OBJECT + ";");
+            } else {
+                read(expr.location, expr);
+            }
+            return null;
+        }
+
+        /**
+         * reads a local variable as an object
+         * @param location
+         * @param expr the expression the variable was found for
+         */
+        private void read(Location location, Object expr) {
+            if (location.upvalue) {
+                upvalue(location.slot);
+                code.field(GETFIELD, UPVALUE, "value", "L" + OBJECT + ";");
+                return;
+            }
+
+            Variable variable = variables.get(expr);
+            code.load(ALOAD, variable.local);
+            if (variable.boxed) {
+                code.field(GETFIELD, UPVALUE, "value", "L" + OBJECT + ";");
+            }
+        }
+
+        /**
+         * pushes one of the closure's upvalues
+         */
+        private void upvalue(int index) {
+            code.load(ALOAD, UPVALUES_LOCAL);
+            code.pushInt(index);
+            code.op(AALOAD, -1);
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            // the variables of every scope are JVM locals of their own
+            compile(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            // the Analyzer has already given up on it
+            throw new Unsupported();
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            discard(stmt.expression);
+            return null;
+        }
+
+        /**
+         * compiles an expression whose value isn't needed
+         */
+        private void discard(Expr expr) {
+            if (expr instanceof Expr.Assign && variables.containsKey(expr)) {
+                // an assignment to a local, whose value isn't needed afterwards
+                Variable variable = variables.get(expr);
+                if (variable.numeric) {
+                    compileDouble(((Expr.Assign)expr).value);
+                    code.store(DSTORE, variable.local);
+                    return;
+                }
+                if (!variable.boxed) {
+                    compile(((Expr.Assign)expr).value);
+                    code.store(ASTORE, variable.local);
+                    return;
+                }
+            }
+
+            if (isNumeric(expr)) {
+                compileDouble(expr);
+                code.op(POP2, -2);
+            } else {
+                compile(expr);
+                code.op(POP, -1);
+            }
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            // compiled as written, HotSpot hoists the invariants of the compiled loop itself
+            if (stmt.initializer != null) stmt.initializer.accept(this);
+
+            Label condition = new Label();
+            Label end = new Label();
+            code.place(condition);
+            if (stmt.condition != null) jump(stmt.condition, end, false);
+            stmt.body.accept(this);
+            if (stmt.increment != null) discard(stmt.increment);
+            code.jump(GOTO, condition);
+            code.place(end);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            Variable variable = variables.get(stmt);
+            variable.local = code.newLocal(false);
+            // the name exists before the closure, which may capture it
+            if (variable.boxed) {
+                code.op(ACONST_NULL, 1);
+                newUpvalue();
+                code.store(ASTORE, variable.local);
+            }
+
+            code.type(NEW, FUNCTION);
+            code.op(DUP, 1);
+            constant(stmt, DECLARATION);
+            Variable[] captured = captures.get(stmt);
+            code.pushInt(captured.length);
+            code.type(ANEWARRAY, UPVALUE);
+            for (int i = 0; i < captured.length; i++) {
+                code.op(DUP, 1);
+                code.pushInt(i);
+                if (captured[i] != null) {
+                    code.load(ALOAD, captured[i].local);
+                } else {
+                    upvalue(stmt.upvalues[i].index);
+                }
+                code.op(AASTORE, -3);
+            }
+            code.op(ICONST_0, 1);
+            code.invoke(INVOKESPECIAL, FUNCTION, "<init>",
+                    "(L" + DECLARATION + ";[L" + UPVALUE + ";Z)V");
+
+            if (variable.boxed) {
+                code.load(ALOAD, variable.local);
+                code.op(SWAP, 0);
+                code.field(PUTFIELD, UPVALUE, "value", "L" + OBJECT + ";");
+            } else {
+                code.store(ASTORE, variable.local);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            Label elseBranch = new Label();
+            jump(stmt.condition, elseBranch, false);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch == null) {
+                code.place(elseBranch);
+                return null;
+            }
+
+            Label end = new Label();
+            code.jump(GOTO, end);
+            code.place(elseBranch);
+            stmt.elseBranch.accept(this);
+            code.place(end);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            compile(stmt.expression);
+            runtime("print", "(L" + OBJECT + ";)V");
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            if (stmt.tailCall) {
+                call((Expr.Call)stmt.value, true);
+            } else if (stmt.value != null) {
+                compile(stmt.value);
+            } else {
+                code.op(ACONST_NULL, 1);
+            }
+            code.op(ARETURN, -1);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            Variable variable = variables.get(stmt);
+            if (variable.numeric) {
+                variable.local = code.newLocal(true);
+                compileDouble(stmt.initializer);
+                code.store(DSTORE, variable.local);
+                return null;
+            }
+
+            variable.local = code.newLocal(false);
+            if (stmt.initializer != null) {
+                compile(stmt.initializer);
+            } else {
+                code.op(ACONST_NULL, 1);
+            }
+            define(variable);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            Label condition = new Label();
+            Label end = new Label();
+            code.place(condition);
+            jump(stmt.condition, end, false);
+            stmt.body.accept(this);
+            code.jump(GOTO, condition);
+            code.place(end);
+            return null;
+        }
+
+        /**
+         * stores the object on top of the stack in a new variable
+         */
+        private void define(Variable variable) {
+            if (variable.local < 0) variable.local = code.newLocal(false);
+            if (variable.boxed) newUpvalue();
+            code.store(ASTORE, variable.local);
+        }
+
+        /**
+         * replaces the object on top of the stack with an Upvalue holding it
+         */
+        private void newUpvalue() {
+            code.type(NEW, UPVALUE);
+            code.op(DUP_X1, 1);
+            code.op(SWAP, 0);
+            code.invoke(INVOKESPECIAL, UPVALUE, "<init>", "(L" + OBJECT + ";)V");
+        }
+
+        private void box() {
+            code.invoke(INVOKESTATIC, DOUBLE, "valueOf", "(D)L" + DOUBLE + ";");
+        }
+
+        private void runtime(String name, String descriptor) {
+            code.invoke(INVOKESTATIC, RUNTIME, name, descriptor);
+        }
+
+        /**
+         * pushes a value from the constants array
+         * @param value
+         * @param type the internal name of its class
+         */
+        private void constant(Object value, String type) {
+            Integer index = constantIndices.get(value);
+            if (index == null) {
+                index = constants.size();
+                constants.add(value);
+                constantIndices.put(value, index);
+            }
+
+            code.load(ALOAD, THIS);
+            code.field(GETFIELD, classFile.name(), "constants", "[L" + OBJECT + ";");
+            code.pushInt(index);
+            code.op(AALOAD, -1);
+            code.type(CHECKCAST, type);
+        }
+
+        /**
+         * whether the expression always gives a number, when it doesn't fail
+         */
+        private boolean isNumeric(Expr expr) {
+            if (expr instanceof Expr.Literal) return ((Expr.Literal)expr).value instanceof Double;
+            if (expr instanceof Expr.Grouping) return isNumeric(((Expr.Grouping)expr).expression);
+            if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator.type == TokenType.MINUS;
+            if (expr instanceof Expr.Variable || expr instanceof Expr.Assign) {
+                Variable variable = variables.get(expr);
+                return variable != null && variable.numeric;
+            }
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary)expr;
+                switch (binary.operator.type) {
+                    case MINUS:
+                    case SLASH:
+                    case STAR:
+                        return true;
+                    case PLUS:
+                        // with a number on either side, it can only be an addition
+                        return isNumeric(binary.left) || isNumeric(binary.right);
+                }
+            }
+
+            return false;
+        }
+
+        /**
+         * finds the variable each local reference refers to, following the
+         * Resolver's scopes, and works out which variables are numeric
+         */
+        private final class Analyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+            private final List<List<Variable>> scopes = new ArrayList<>();
+            private final List<boolean[]> captured = new ArrayList<>();
+            private final List<Variable> declared = new ArrayList<>();
+
+            void analyze() {
+                beginScope(declaration.captured);
+                if (isMethod) parameters.add(declare(null));
+                for (int i = 0; i < declaration.params.size(); i++) {
+                    parameters.add(declare(null));
+                }
+                analyze(declaration.body);
+
+                // a variable stops being numeric when one of its values isn't,
+                // which may make others stop being numeric too
+                boolean changed = true;
+                while (changed) {
+                    changed = false;
+                    for (Variable variable : declared) {
+                        if (!variable.numeric) continue;
+                        for (Expr value : variable.values) {
+                            if (!isNumeric(value)) {
+                                variable.numeric = false;
+                                changed = true;
+                                break;
+                            }
+                        }
+                    }
+                }
+            }
+
+            private void analyze(List<Stmt> statements) {
+                for (Stmt statement : statements) {
+                    statement.accept(this);
+                }
+            }
+
+            private void analyze(Expr expr) {
+                expr.accept(this);
+            }
+
+            private void beginScope(boolean[] captured) {
+                scopes.add(new ArrayList<>());
+                this.captured.add(captured);
+            }
+
+            private void endScope() {
+                scopes.remove(scopes.size() - 1);
+                captured.remove(captured.size() - 1);
+            }
+
+            /**
+             * declares the next variable of the innermost scope
+             * @param values the values it is given, null if nothing is known about them
+             */
+            private Variable declare(List<Expr> values) {
+                List<Variable> scope = scopes.get(scopes.size() - 1);
+                boolean[] boxed = captured.get(captured.size() - 1);
+                Variable variable = new Variable(boxed != null && boxed[scope.size()], values);
+                scope.add(variable);
+                if (values != null) declared.add(variable);
+                return variable;
+            }
+
+            private Variable lookUp(int depth, int slot) {
+                return scopes.get(scopes.size() - 1 - depth).get(slot);
+            }
+
+            /**
+             * records the variable a local reference refers to
+             */
+            private void resolve(Object expr, Location location) {
+                if (location == null || location.upvalue) return;
+                variables.put(expr, lookUp(location.depth, location.slot));
+            }
+
+            @Override
+            public Void visitAssignExpr(Expr.Assign expr) {
+                analyze(expr.value);
+                resolve(expr, expr.location);
+                Variable variable = variables.get(expr);
+                if (variable != null && variable.values != null) variable.values.add(expr.value);
+                return null;
+            }
+
+            @Override
+            public Void visitBinaryExpr(Expr.Binary expr) {
+                analyze(expr.left);
+                analyze(expr.right);
+                return null;
+            }
+
+            @Override
+            public Void visitCallExpr(Expr.Call expr) {
+                analyze(expr.callee);
+                for (Expr argument : expr.arguments) {
+                    analyze(argument);
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitGetExpr(Expr.Get expr) {
+                analyze(expr.object);
+                return null;
+            }
+
+            @Override
+            public Void visitGroupingExpr(Expr.Grouping expr) {
+                analyze(expr.expression);
+                return null;
+            }
+
+            @Override
+            public Void visitLiteralExpr(Expr.Literal expr) {
+                return null;
+            }
+
+            @Override
+            public Void visitLogicalExpr(Expr.Logical expr) {
+                analyze(expr.left);
+                analyze(expr.right);
+                return null;
+            }
+
+            @Override
+            public Void visitSetExpr(Expr.Set expr) {
+                analyze(expr.object);
+                analyze(expr.value);
+                return null;
+            }
+
+            @Override
+            public Void visitSuperExpr(Expr.Super expr) {
+                resolve(expr, expr.location);
+                analyze(expr.receiver);
+                return null;
+            }
+
+            @Override
+            public Void visitThisExpr(Expr.This expr) {
+                resolve(expr, expr.location);
+                return null;
+            }
+
+            @Override
+            public Void visitUnaryExpr(Expr.Unary expr) {
+                analyze(expr.right);
+                return null;
+            }
+
+            @Override
+            public Void visitVariableExpr(Expr.Variable expr) {
+                resolve(expr, expr.location);
+                return null;
+            }
+
+            @Override
+            public Void visitBlockStmt(Stmt.Block stmt) {
+                if (stmt.slotCount == 0) {
+                    analyze(stmt.statements);
+                    return null;
+                }
+
+                beginScope(stmt.captured);
+                analyze(stmt.statements);
+                endScope();
+                return null;
+            }
+
+            @Override
+            public Void visitClassStmt(Stmt.Class stmt) {
+                throw new Unsupported();
+            }
+
+            @Override
+            public Void visitExpressionStmt(Stmt.Expression stmt) {
+                analyze(stmt.expression);
+                return null;
+            }
+
+            @Override
+            public Void visitForStmt(Stmt.For stmt) {
+                if (stmt.slotCount > 0) beginScope(stmt.captured);
+                if (stmt.initializer != null) stmt.initializer.accept(this);
+                if (stmt.condition != null) analyze(stmt.condition);
+                if (stmt.increment != null) analyze(stmt.increment);
+                stmt.body.accept(this);
+                if (stmt.slotCount > 0) endScope();
+                return null;
+            }
+
+            @Override
+            public Void visitFunctionStmt(Stmt.Function stmt) {
+                variables.put(stmt, declare(null));
+
+                // the body is compiled on its own, only what it captures matters here
+                Variable[] sources = new Variable[stmt.upvalues.length];
+                for (int i = 0; i < sources.length; i++) {
+                    Upvalue.Source source = stmt.upvalues[i];
+                    if (source.isLocal) sources[i] = lookUp(source.depth, source.index);
+                }
+                captures.put(stmt, sources);
+                return null;
+            }
+
+            @Override
+            public Void visitIfStmt(Stmt.If stmt) {
+                analyze(stmt.condition);
+                stmt.thenBranch.accept(this);
+                if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+                return null;
+            }
+
+            @Override
+            public Void visitPrintStmt(Stmt.Print stmt) {
+                analyze(stmt.expression);
+                return null;
+            }
+
+            @Override
+            public Void visitReturnStmt(Stmt.Return stmt) {
+                if (stmt.value != null) analyze(stmt.value);
+                return null;
+            }
+
+            @Override
+            public Void visitVarStmt(Stmt.Var stmt) {
+                if (stmt.initializer != null) analyze(stmt.initializer);
+
+                // without an initializer the variable starts out nil
+                List<Expr> values = null;
+                if (stmt.initializer != null) {
+                    values = new ArrayList<>();
+                    values.add(stmt.initializer);
+                }
+                variables.put(stmt, declare(values));
+                return null;
+            }
+
+            @Override
+            public Void visitWhileStmt(Stmt.While stmt) {
+                analyze(stmt.condition);
+                stmt.body.accept(this);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.kingsman.jlox;
+
+/**
+ * What the code of compiled functions calls for everything that is more
+ * than a few JVM instructions, mostly the type checks of the operators
+ * and the calls, with the same errors as the interpreter.
+ */
+final class JitRuntime {
+    private JitRuntime() {}
+
+    /**
+     * the operand of an operator that needs numbers, whose other operand is already one
+     * @param operand
+     * @param operator
+     * @return
+     */
+    static double number(Object operand, Token operator) {
+        if (operand instanceof Double) return (double)operand;
+        throw numberOperandsError(operator);
+    }
+
+    static double addNumbers(Object left, Object right, Token operator) {
+        return number(left, operator) + number(right, operator);
+    }
+
+    static double subtract(Object left, Object right, Token operator) {
+        return number(left, operator) - number(right, operator);
+    }
+
+    static double multiply(Object left, Object right, Token operator) {
+        return number(left, operator) * number(right, operator);
+    }
+
+    static double divide(Object left, Object right, Token operator) {
+        return number(left, operator) / number(right, operator);
+    }
+
+    static boolean greater(Object left, Object right, Token operator) {
+        return number(left, operator) > number(right, operator);
+    }
+
+    static boolean greaterEqual(Object left, Object right, Token operator) {
+        return number(left, operator) >= number(right, operator);
+    }
+
+    static boolean less(Object left, Object right, Token operator) {
+        return number(left, operator) < number(right, operator);
+    }
+
+    static boolean lessEqual(Object left, Object right, Token operator) {
+        return number(left, operator) <= number(right, operator);
+    }
+
+    /**
+     * "+" where neither operand is known to be a number
+     */
+    static Object add(Object left, Object right, Token operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double)left + (double)right;
+        }
+
+        if (left instanceof String && right instanceof String) {
+            return (String)left + (String)right;
+        }
+
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+    }
+
+    static double negate(Object operand, Token operator) {
+        if (operand instanceof Double) return -(double)operand;
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    /**
+     * "==" on two numbers, the same as Interpreter.isEqual() on them
+     */
+    static boolean equal(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+
+    static Object call(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        return callable(callee, arguments.length, paren).call(interpreter, arguments);
+    }
+
+    // call() for the arities that don't need an argument array
+
+    static Object call0(Object callee, Token paren, Interpreter interpreter) {
+        return callable(callee, 0, paren).call0(interpreter);
+    }
+
+    static Object call1(Object callee, Object a, Token paren, Interpreter interpreter) {
+        return callable(callee, 1, paren).call1(interpreter, a);
+    }
+
+    static Object call2(Object callee, Object a, Object b, Token paren, Interpreter interpreter) {
+        return callable(callee, 2, paren).call2(interpreter, a, b);
+    }
+
+    /**
+     * the second half of "object.method(arguments)", after the method was looked up
+     * @param callee the method, or the value of the field
+     * @param receiver the instance the method is called on, null for a field
+     * @param arguments
+     * @param paren
+     * @param interpreter
+     * @return
+     */
+    static Object invoke(Object callee, LoxInstance receiver, Object[] arguments,
+                         Token paren, Interpreter interpreter) {
+        if (receiver == null) return call(callee, arguments, paren, interpreter);
+
+        LoxFunction method = (LoxFunction)callee;
+        checkArity(method, arguments.length, paren);
+        return method.invoke(interpreter, receiver, arguments);
+    }
+
+    // invoke() for the arities that don't need an argument array
+
+    static Object invoke0(Object callee, LoxInstance receiver, Token paren,
+                          Interpreter interpreter) {
+        if (receiver == null) return call0(callee, paren, interpreter);
+
+        LoxFunction method = (LoxFunction)callee;
+        checkArity(method, 0, paren);
+        return method.invoke0(interpreter, receiver);
+    }
+
+    static Object invoke1(Object callee, LoxInstance receiver, Object a, Token paren,
+                          Interpreter interpreter) {
+        if (receiver == null) return call1(callee, a, paren, interpreter);
+
+        LoxFunction method = (LoxFunction)callee;
+        checkArity(method, 1, paren);
+        return method.invoke1(interpreter, receiver, a);
+    }
+
+    static Object invoke2(Object callee, LoxInstance receiver, Object a, Object b,
+                          Token paren, Interpreter interpreter) {
+        if (receiver == null) return call2(callee, a, b, paren, interpreter);
+
+        LoxFunction method = (LoxFunction)callee;
+        checkArity(method, 2, paren);
+        return method.invoke2(interpreter, receiver, a, b);
+    }
+
+    /**
+     * "return callee(arguments)", the call is left to the trampoline in LoxFunction
+     * @return the TailCall
+     */
+    static Object tailCall(Object callee, Object[] arguments, Token paren, Interpreter interpreter) {
+        return TailCall.of(callee, arguments, paren);
+    }
+
+    /**
+     * "return object.method(arguments)", the same as invoke() up to the call
+     * @return the TailCall
+     */
+    static Object tailInvoke(Object callee, LoxInstance receiver, Object[] arguments,
+                             Token paren, Interpreter interpreter) {
+        if (receiver == null) return TailCall.of(callee, arguments, paren);
+        return TailCall.method((LoxFunction)callee, receiver, arguments, paren);
+    }
+
+    /**
+     * checks that the object whose property is read is an instance
+     */
+    static LoxInstance instance(Object object, Token name) {
+        if (object instanceof LoxInstance) return (LoxInstance)object;
+        throw new RuntimeError(name, "Only instances have properties.");
+    }
+
+    static Object get(Object object, Token name, InlineCache cache) {
+        return instance(object, name).get(name, cache);
+    }
+
+    /**
+     * checks that the object whose property is assigned is an instance,
+     * before the value is evaluated
+     */
+    static LoxInstance fields(Object object, Token name) {
+        if (object instanceof LoxInstance) return (LoxInstance)object;
+        throw new RuntimeError(name, "Only instances have fields.");
+    }
+
+    static Object set(LoxInstance instance, Object value, Token name, InlineCache cache) {
+        instance.set(name, value, cache);
+        return value;
+    }
+
+    static Object superMethod(Object superclass, Object receiver, Token method) {
+        LoxFunction function = ((LoxClass)superclass).findMethod(method.lexeme());
+        if (function == null) {
+            throw new RuntimeError(method,
+                    "Undefined property '" + method.lexeme() + "'.");
+        }
+
+        return function.bind((LoxInstance)receiver);
+    }
+
+    /**
+     * checks that the callee can be called with the arguments, once they are evaluated
+     */
+    private static LoxCallable callable(Object callee, int argCount, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren,
+                    "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(function, argCount, paren);
+        return function;
+    }
+
+    private static void checkArity(LoxCallable function, int argCount, Token paren) {
+        if (argCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    argCount + ".");
+        }
+    }
+
+    private static RuntimeError numberOperandsError(Token operator) {
+        if (operator.type == TokenType.PLUS) {
+            return new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+        return new RuntimeError(operator, "Operands must be numbers.");
+    }
+}
@@ -0,0 +1,25 @@
+package com.kingsman.jlox;
+
+/**
+ * Where the Resolver found a local variable.
+ *
+ * Stored on the expressions that read or assign the variable,
+ * so the interpreter can go straight to it.
+ */
+final class Location {
+    // how many environments out the variable lives
+    final int depth;
+    // the variable's slot in that environment, or the index of the upvalue
+    final int slot;
+    // the variable is captured by an inner function, so its slot holds an Upvalue
+    final boolean boxed;
+    // the variable belongs to an enclosing function, reached through the closure
+    final boolean upvalue;
+
+    Location(int depth, int slot, boolean boxed, boolean upvalue) {
+        this.depth = depth;
+        this.slot = slot;
+        this.boxed = boxed;
+        this.upvalue = upvalue;
+    }
+}
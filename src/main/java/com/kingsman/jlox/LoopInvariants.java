@@ -0,0 +1,592 @@
+package com.kingsman.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Moves the expressions of a for loop that give the same value on every
+ * iteration out of it, for the {@link Optimizer}.
+ *
+ * An expression is invariant when it only applies operators to literals and
+ * to variables the loop doesn't assign. Variables that aren't plain locals,
+ * globals and captured ones, also count as assigned when the loop makes a
+ * call, since the callee may assign them.
+ *
+ * The invariants are evaluated once, into the slots of the loop's scope after
+ * its variable, and the loop gets a copy that reads them from there,
+ * Stmt.For.hoisted. The engines evaluate them before the first iteration,
+ * whether or not the loop would have, which is safe because operators have no
+ * effects. If one of them fails, the engine runs the loop as written instead,
+ * so the error is reported where it happens.
+ */
+final class LoopInvariants implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    private final Stmt.For loop;
+    // the first slot after the loop's variable
+    private final int base;
+    private final List<Expr> invariants = new ArrayList<>();
+
+    // what the loop assigns, locals are keyed by scope level and slot
+    private final Set<Long> assignedLocals = new HashSet<>();
+    private final Set<Integer> assignedUpvalues = new HashSet<>();
+    private final Set<Globals.Cell> assignedGlobals = new HashSet<>();
+    private boolean calls = false;
+
+    // how many scopes in from the loop's own scope the code being looked at is
+    private int level = 0;
+
+    private LoopInvariants(Stmt.For loop) {
+        this.loop = loop;
+        this.base = loop.slotCount;
+    }
+
+    /**
+     * hoists the loop's invariants, only a loop that declares its variable
+     * has a scope to keep them in. the loop itself is left as it is.
+     * @param loop
+     * @return a copy of the loop with its invariants and hoisted version,
+     * or the loop if there is nothing to hoist or it was hoisted already
+     */
+    static Stmt.For hoist(Stmt.For loop) {
+        if (loop.slotCount == 0 || loop.hoisted != null) return loop;
+
+        LoopInvariants hoister = new LoopInvariants(loop);
+        new Assignments(hoister).find(loop);
+
+        Expr condition = hoister.rewrite(loop.condition);
+        Expr increment = hoister.rewrite(loop.increment);
+        Stmt body = hoister.rewrite(loop.body);
+        if (hoister.invariants.isEmpty()) return loop;
+
+        Stmt.For result = new Stmt.For(loop.initializer, loop.condition, loop.increment, loop.body);
+        result.slotCount = hoister.base + hoister.invariants.size();
+        if (loop.captured != null) {
+            result.captured = Arrays.copyOf(loop.captured, result.slotCount);
+        }
+        result.invariants = hoister.invariants;
+        result.hoisted = new Stmt.For(null, condition, increment, body);
+        return result;
+    }
+
+    /**
+     * the invariant, or a copy of the expression with its invariant parts read from their slots
+     */
+    private Expr rewrite(Expr expr) {
+        if (expr == null) return null;
+        if (isWorthHoisting(expr) && isInvariant(expr)) {
+            invariants.add(relocate(expr));
+            Expr.Variable slot = new Expr.Variable(
+                    new Token(TokenType.IDENTIFIER, "(invariant)", operator(expr)));
+            slot.location = new Location(level, base + invariants.size() - 1, false, false);
+            return slot;
+        }
+        return expr.accept(this);
+    }
+
+    private Stmt rewrite(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * only an operator saves work, reading a variable or a literal is as fast as reading the slot
+     */
+    private static boolean isWorthHoisting(Expr expr) {
+        return expr instanceof Expr.Binary || expr instanceof Expr.Unary ||
+                expr instanceof Expr.Logical;
+    }
+
+    private boolean isInvariant(Expr expr) {
+        if (expr instanceof Expr.Literal) return true;
+        if (expr instanceof Expr.Grouping) return isInvariant(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Unary) return isInvariant(((Expr.Unary)expr).right);
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            return isInvariant(binary.left) && isInvariant(binary.right);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return isInvariant(logical.left) && isInvariant(logical.right);
+        }
+        if (expr instanceof Expr.This) return true;
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            Location location = variable.location;
+            if (location == null) return !calls && !assignedGlobals.contains(variable.global);
+            if (location.upvalue) return !calls && !assignedUpvalues.contains(location.slot);
+
+            // a variable declared in the loop body is a new one on every iteration
+            int declared = level - location.depth;
+            if (declared > 0) return false;
+            return !assignedLocals.contains(key(declared, location.slot)) &&
+                    !(location.boxed && calls);
+        }
+
+        return false;
+    }
+
+    private static long key(int level, int slot) {
+        return ((long)level << 32) | slot;
+    }
+
+    /**
+     * copies an invariant so it can be evaluated in the loop's own scope
+     */
+    private Expr relocate(Expr expr) {
+        if (expr instanceof Expr.Grouping) return relocate(((Expr.Grouping)expr).expression);
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary)expr;
+            Expr.Unary result = new Expr.Unary(unary.operator, relocate(unary.right));
+            result.rightNumeric = unary.rightNumeric;
+            return result;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary)expr;
+            Expr.Binary result = new Expr.Binary(relocate(binary.left),
+                    binary.operator, relocate(binary.right));
+            result.leftNumeric = binary.leftNumeric;
+            result.rightNumeric = binary.rightNumeric;
+            return result;
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical)expr;
+            return new Expr.Logical(relocate(logical.left), logical.operator,
+                    relocate(logical.right));
+        }
+        if (expr instanceof Expr.This) {
+            Expr.This result = new Expr.This(((Expr.This)expr).keyword);
+            result.location = relocate(((Expr.This)expr).location);
+            return result;
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable)expr;
+            Expr.Variable result = new Expr.Variable(variable.name);
+            result.global = variable.global;
+            result.location = relocate(variable.location);
+            return result;
+        }
+
+        // a literal
+        return expr;
+    }
+
+    private Location relocate(Location location) {
+        if (location == null || location.upvalue) return location;
+        return new Location(location.depth - level, location.slot, location.boxed, false);
+    }
+
+    /**
+     * the operator of an invariant, the slot it is read from is on its line
+     */
+    private static Token operator(Expr expr) {
+        if (expr instanceof Expr.Binary) return ((Expr.Binary)expr).operator;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary)expr).operator;
+        return ((Expr.Logical)expr).operator;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign result = new Expr.Assign(expr.name, value);
+        result.global = expr.global;
+        result.location = expr.location;
+        return result;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+
+        // a slot is read like any variable, the engines can't assume it holds a number
+        Expr.Binary result = new Expr.Binary(left, expr.operator, right);
+        result.leftNumeric = Resolver.isNumeric(left);
+        result.rightNumeric = Resolver.isNumeric(right);
+        return result;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr rewritten = rewrite(argument);
+            if (rewritten != argument) changed = true;
+            arguments.add(rewritten);
+        }
+
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = rewrite(expr.object);
+        if (object == expr.object) return expr;
+
+        Expr.Get result = new Expr.Get(object, expr.name);
+        result.cache = expr.cache;
+        return result;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+
+        Expr.Set result = new Expr.Set(object, expr.name, value);
+        result.cache = expr.cache;
+        return result;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.right);
+        if (right == expr.right) return expr;
+
+        Expr.Unary result = new Expr.Unary(expr.operator, right);
+        result.rightNumeric = Resolver.isNumeric(right);
+        return result;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.slotCount > 0) level++;
+        List<Stmt> statements = new ArrayList<>(stmt.statements.size());
+        boolean changed = false;
+        for (Stmt statement : stmt.statements) {
+            Stmt rewritten = rewrite(statement);
+            if (rewritten != statement) changed = true;
+            statements.add(rewritten);
+        }
+        if (stmt.slotCount > 0) level--;
+
+        if (!changed) return stmt;
+        Stmt.Block result = new Stmt.Block(statements);
+        result.slotCount = stmt.slotCount;
+        result.captured = stmt.captured;
+        return result;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        // the methods run in other calls
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        // an inner loop already has its own invariants, those
+        // that don't change in this loop either move further out
+        if (stmt.slotCount > 0) level++;
+        Stmt initializer = stmt.initializer != null ? rewrite(stmt.initializer) : null;
+        Expr condition = stmt.condition;
+        Expr increment = stmt.increment;
+        Stmt body = stmt.body;
+
+        List<Expr> innerInvariants = null;
+        Stmt.For hoisted = null;
+        boolean changed = initializer != stmt.initializer;
+        if (stmt.hoisted == null) {
+            condition = rewrite(stmt.condition);
+            increment = rewrite(stmt.increment);
+            body = rewrite(stmt.body);
+            changed |= condition != stmt.condition || increment != stmt.increment ||
+                    body != stmt.body;
+        } else {
+            // only the hoisted version reads this loop's invariants, the loop as
+            // written runs when one of its own fails and evaluates everything itself
+            innerInvariants = new ArrayList<>(stmt.invariants.size());
+            for (Expr invariant : stmt.invariants) {
+                Expr rewritten = rewrite(invariant);
+                if (rewritten != invariant) changed = true;
+                innerInvariants.add(rewritten);
+            }
+
+            Stmt.For inner = stmt.hoisted;
+            hoisted = new Stmt.For(null, rewrite(inner.condition),
+                    rewrite(inner.increment), rewrite(inner.body));
+            changed |= hoisted.condition != inner.condition ||
+                    hoisted.increment != inner.increment || hoisted.body != inner.body;
+        }
+        if (stmt.slotCount > 0) level--;
+
+        if (!changed) return stmt;
+        Stmt.For result = new Stmt.For(initializer, condition, increment, body);
+        result.slotCount = stmt.slotCount;
+        result.captured = stmt.captured;
+        result.invariants = innerInvariants;
+        result.hoisted = hoisted;
+        return result;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        // the body runs in another call
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt thenBranch = rewrite(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch != null ? rewrite(stmt.elseBranch) : null;
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+                elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = rewrite(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.tailCall = stmt.tailCall;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = rewrite(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    /**
+     * records everything a loop assigns, and whether it makes calls
+     */
+    private static final class Assignments implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final LoopInvariants hoister;
+        private int level = 0;
+
+        Assignments(LoopInvariants hoister) {
+            this.hoister = hoister;
+        }
+
+        void find(Stmt.For loop) {
+            find(loop.condition);
+            find(loop.increment);
+            loop.body.accept(this);
+        }
+
+        private void find(Expr expr) {
+            if (expr != null) expr.accept(this);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            find(expr.value);
+            Location location = expr.location;
+            if (location == null) {
+                hoister.assignedGlobals.add(expr.global);
+            } else if (location.upvalue) {
+                hoister.assignedUpvalues.add(location.slot);
+            } else {
+                hoister.assignedLocals.add(key(level - location.depth, location.slot));
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            find(expr.left);
+            find(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            hoister.calls = true;
+            find(expr.callee);
+            for (Expr argument : expr.arguments) find(argument);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            find(expr.object);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            find(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            find(expr.left);
+            find(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            find(expr.object);
+            find(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            find(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            if (stmt.slotCount > 0) level++;
+            for (Stmt statement : stmt.statements) statement.accept(this);
+            if (stmt.slotCount > 0) level--;
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            // the superclass is read, the methods only run when called
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            find(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            if (stmt.slotCount > 0) level++;
+            if (stmt.initializer != null) stmt.initializer.accept(this);
+            find(stmt);
+            if (stmt.slotCount > 0) level--;
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            // what the body assigns only changes when it is called
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            find(stmt.condition);
+            stmt.thenBranch.accept(this);
+            if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            find(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            find(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            // declared in the loop, so it is never invariant
+            find(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            find(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+    }
+}
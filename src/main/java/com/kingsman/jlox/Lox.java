@@ -3,27 +3,148 @@ package com.kingsman.jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.kingsman.jlox.vm.Prototype;
+import com.kingsman.jlox.vm.VM;
+import com.kingsman.jlox.vm.VmError;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
+    private static Interpreter interpreter = new Interpreter();
+    // set when the script runs on the bytecode VM instead of an interpreter
+    private static VM vm = null;
+    // compile hot functions to JVM bytecode, for the interpreters
+    private static boolean jit = false;
+    // rewrite the tree with the Optimizer before running it
+    private static boolean optimize = true;
+    // print how many rewrites the Optimizer applied
+    private static boolean reportRewrites = false;
+    // print how fast the scanner went through the source
+    private static boolean reportScan = false;
+    // scan the script out of a memory mapping while parsing it, rather than reading it whole
+    private static boolean stream = false;
+    // parse the top-level declarations of a script on the common ForkJoinPool,
+    // which needs all of its tokens, so it does nothing with --stream
+    private static boolean parallelParse = false;
+    // keep the resolved tree of a script in a .loxc file next to it, and
+    // run from that file while the script is unchanged. the tree is saved
+    // before the Optimizer runs, so every run optimizes it again.
+    // the script is read whole to hash it, so --stream does nothing with it
+    private static boolean cache = false;
+    // where run() saves the resolved tree of the script, null for no cache
+    private static Path cacheFile = null;
+    private static byte[] cacheHash = null;
+    // the results each pure function keeps with --memoize
+    private static final int DEFAULT_MEMO_SIZE = 1024;
+    // how many results each pure function keeps, 0 for no memoization.
+    // off unless asked for, the VM never memoizes, so it does nothing there
+    private static int memoSize = 0;
+    // print the hit rates of the pure functions' caches
+    private static boolean reportMemos = false;
+    // the caches of the script's pure functions
+    private static final List<Memo> memos = new ArrayList<>();
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        // options come before the script
+        int first = 0;
+        while (first < args.length && args[first].startsWith("--")) {
+            if (!option(args[first])) {
+                usage();
+            }
+            first++;
+        }
+        if (jit) interpreter.jit = new JitCompiler();
+
+        if (args.length - first > 1) {
+            usage();
+        } else if (args.length - first == 1) {
+            runFile(args[first]);
         } else{
             runPrompt();
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|specializing|closure|vm] [--jit]" +
+                " [--no-optimize] [--optimize-report] [--stream] [--parallel-parse] [--cache] [--scan-report] [--memoize] [--no-memoize] [--memo-size=N]" +
+                " [--memo-report] [script]");
+        System.exit(64);
+    }
+
+    /**
+     * applies a command line option
+     *
+     * @param option
+     * @return false if the option is unknown
+     */
+    private static boolean option(String option) {
+        if (option.startsWith("--memo-size=")) {
+            try {
+                memoSize = Integer.parseInt(option.substring("--memo-size=".length()));
+            } catch (NumberFormatException error) {
+                return false;
+            }
+            return memoSize >= 0;
+        }
+
+        switch (option) {
+            case "--engine=tree":
+                interpreter = new Interpreter();
+                return true;
+            case "--engine=specializing":
+                interpreter = new SpecializingInterpreter();
+                return true;
+            case "--engine=closure":
+                interpreter = new ClosureInterpreter();
+                return true;
+            case "--engine=vm":
+                vm = new VM();
+                return true;
+            case "--jit":
+                jit = true;
+                return true;
+            case "--no-optimize":
+                optimize = false;
+                return true;
+            case "--optimize-report":
+                reportRewrites = true;
+                return true;
+            case "--stream":
+                stream = true;
+                return true;
+            case "--parallel-parse":
+                parallelParse = true;
+                return true;
+            case "--cache":
+                cache = true;
+                return true;
+            case "--scan-report":
+                reportScan = true;
+                return true;
+            case "--memoize":
+                memoSize = DEFAULT_MEMO_SIZE;
+                return true;
+            case "--no-memoize":
+                memoSize = 0;
+                return true;
+            case "--memo-report":
+                reportMemos = true;
+                return true;
+        }
+
+        return false;
+    }
+
     /**
      * Run the source code from the command line file
      *
@@ -31,8 +152,32 @@ public class Lox {
      * @throws IOException
      */
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        if (cache) {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            cacheFile = ScriptCache.pathOf(Paths.get(path));
+            cacheHash = ScriptCache.hash(bytes);
+            List<Stmt> statements = ScriptCache.load(cacheFile, cacheHash, interpreter);
+            if (statements != null) {
+                interpret(statements, true);
+            } else {
+                // saved by execute() once the script is resolved without errors
+                run(new String(bytes, Charset.defaultCharset()), true);
+            }
+        } else if (stream) {
+            try (Reader reader = new MappedReader(Paths.get(path), Charset.defaultCharset())) {
+                run(reader);
+            } catch (UncheckedIOException error) {
+                throw error.getCause();
+            }
+        } else {
+            byte[] bytes = Files.readAllBytes(Paths.get(path));
+            run(new String(bytes, Charset.defaultCharset()), true);
+        }
+        if (reportMemos) {
+            for (Memo memo : memos) {
+                System.err.println("Memo " + memo + ".");
+            }
+        }
 
         // Indicate an error in the exit code.
         if (hadError) System.exit(65);
@@ -52,7 +197,7 @@ public class Lox {
             System.out.print("> ");
             String line = reader.readLine();
             if (line == null) break;
-            run(line);
+            run(line, false);
 
             // If the user makes a mistake, it shouldn’t kill their entire session.
             hadError = false;
@@ -61,13 +206,52 @@ public class Lox {
         }
     }
 
-    private static void run(String source) {
+    /**
+     * @param source
+     * @param whole whether the source is the whole script, rather than a line at the prompt
+     */
+    private static void run(String source, boolean whole) {
+        long scanStart = System.nanoTime();
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
-        // For now, just print the tokens.
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
+        if (reportScan) {
+            double seconds = (System.nanoTime() - scanStart) / 1e9;
+            System.err.printf("Scanner: %d tokens, %.1f MB/s.%n",
+                    tokens.size(), source.length() / 1e6 / seconds);
+        }
+        if (parallelParse) {
+            execute(ParallelParser.parse(tokens, ForkJoinPool.commonPool()), whole);
+        } else {
+            Parser parser = new Parser(tokens.iterator());
+            execute(parser.parse(), whole);
+        }
+    }
 
+    /**
+     * Run a whole script, scanning it while it is parsed, so that neither
+     * its text nor its tokens are ever held all at once
+     *
+     * @param reader
+     */
+    private static void run(Reader reader) {
+        long scanStart = System.nanoTime();
+        Scanner scanner = new Scanner(reader);
+        List<Stmt> statements = new Parser(scanner).parse();
+        if (reportScan) {
+            // the scanner's time can't be told apart from the parser's here
+            double seconds = (System.nanoTime() - scanStart) / 1e9;
+            System.err.printf("Scanner: %.1f MB/s, parsing included.%n",
+                    scanner.scanned() / 1e6 / seconds);
+        }
+
+        execute(statements, true);
+    }
+
+    /**
+     * @param statements
+     * @param whole whether the statements are the whole script, rather than a line at the prompt
+     */
+    private static void execute(List<Stmt> statements, boolean whole) {
         // Stop if there was a syntax error.
         if (hadError) return;
 
@@ -78,6 +262,49 @@ public class Lox {
         // Stop if there was a resolution error.
         if (hadError) return;
 
+        // saved before the Optimizer rewrites it, which runs again on every load
+        if (cacheFile != null && whole) ScriptCache.save(cacheFile, cacheHash, statements);
+
+        interpret(statements, whole);
+    }
+
+    /**
+     * runs resolved statements
+     *
+     * @param statements
+     * @param whole whether the statements are the whole script, rather than a line at the prompt
+     */
+    private static void interpret(List<Stmt> statements, boolean whole) {
+        // the tree is rewritten once it is resolved, every engine runs the result
+        if (optimize) {
+            Optimizer optimizer = new Optimizer();
+            int rewrites = optimizer.optimize(statements);
+            if (reportRewrites) {
+                System.err.println("Optimizer: " + rewrites + " rewrites, " +
+                        optimizer.groupings + " groupings removed.");
+            }
+        }
+
+        // only the whole script shows which globals never change, the VM runs every call
+        if (whole && memoSize > 0 && vm == null) {
+            for (Stmt.Function function : Purity.memoizable(statements)) {
+                function.memo = new Memo(function.name.lexeme(), memoSize);
+                memos.add(function.memo);
+            }
+        }
+
+        if (vm != null) {
+            Prototype script = new BytecodeCompiler(vm).compile(statements);
+            if (hadError) return;
+
+            try {
+                vm.interpret(script);
+            } catch (VmError error) {
+                runtimeError(error.getMessage(), error.line);
+            }
+            return;
+        }
+
         interpreter.interpret(statements);
     }
 
@@ -114,9 +341,9 @@ public class Lox {
      */
     static void error(Token token, String message) {
         if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
+            report(token.line(), " at end", message);
         } else {
-            report(token.line, " at '" + token.lexeme + "'", message);
+            report(token.line(), " at '" + token.lexeme() + "'", message);
         }
     }
 
@@ -126,8 +353,11 @@ public class Lox {
      * @param error
      */
     static void runtimeError(RuntimeError error) {
-        System.err.println(error.getMessage() +
-                "\n[line " + error.token.line + "]");
+        runtimeError(error.getMessage(), error.token.line());
+    }
+
+    private static void runtimeError(String message, int line) {
+        System.err.println(message + "\n[line " + line + "]");
         hadRuntimeError = true;
     }
 }
@@ -1,12 +1,27 @@
 package com.kingsman.jlox;
 
-import java.util.List;
-
 /**
  * Any Lox object that can be called like a function must implement this interface
+ *
+ * Callers check the number of arguments against arity() before calling. Calls
+ * with up to two arguments go through call0(), call1() and call2(), which take
+ * the arguments as they are, a callable that overrides them gets called
+ * without an argument array being made.
  */
 public interface LoxCallable {
     // The number of arguments the function expects
     int arity();
-    Object call(Interpreter interpreter, List<Object> arguments);
+    Object call(Interpreter interpreter, Object[] arguments);
+
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, new Object[0]);
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, new Object[] { a });
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, new Object[] { a, b });
+    }
 }
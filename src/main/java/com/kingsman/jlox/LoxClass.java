@@ -1,6 +1,6 @@
 package com.kingsman.jlox;
 
-import java.util.List;
+import java.util.IdentityHashMap;
 import java.util.Map;
 
 /**
@@ -11,12 +11,30 @@ import java.util.Map;
 class LoxClass implements LoxCallable {
     final String name;
     final LoxClass superclass;
-    final Map<String, LoxFunction> methods;
+    // the class's own methods together with every inherited one that it doesn't
+    // override, so looking a method up never walks the superclass chain.
+    // built once here and never changed afterwards. keyed by the interned method names.
+    private final Map<String, LoxFunction> methods;
+    // "init" is looked up on every instantiation, so keep it at hand
+    private final LoxFunction initializer;
+    private final int arity;
+    // the shape every new instance starts with, the class's
+    // instances share the shapes they move on to from it.
+    final Shape emptyShape = new Shape();
 
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         this.name = name;
         this.superclass = superclass;
-        this.methods = methods;
+
+        Map<String, LoxFunction> flattened = new IdentityHashMap<>();
+        if (superclass != null) flattened.putAll(superclass.methods);
+        flattened.putAll(methods);
+        this.methods = flattened;
+
+        this.initializer = flattened.get("init");
+        // If there is an initializer, that method’s arity determines how
+        // many arguments you must pass when you call the class itself.
+        this.arity = initializer == null ? 0 : initializer.arity();
     }
 
     @Override
@@ -26,34 +44,43 @@ class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        // If there is an initializer, that method’s arity determines how
-        // many arguments you must pass when you call the class itself.
-        LoxFunction initializer = findMethod("init");
-        if (initializer == null) return 0;
-        return initializer.arity();
+        return arity;
     }
 
     @Override
-    public Object call(Interpreter interpreter,
-                       List<Object> arguments) {
+    public Object call(Interpreter interpreter, Object[] arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            // bind and invoke it just like a normal method call.
-            initializer.bind(instance).call(interpreter, arguments);
+            // invoke it just like a normal method call.
+            initializer.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
 
-    public LoxFunction findMethod(String lexeme) {
-        if (methods.containsKey(lexeme)) {
-            return methods.get(lexeme);
-        }
+    @Override
+    public Object call0(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        if (initializer != null) initializer.invoke0(interpreter, instance);
+        return instance;
+    }
 
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        // a class without an initializer takes no arguments, so it has one
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke1(interpreter, instance, a);
+        return instance;
+    }
 
-        return null;
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        LoxInstance instance = new LoxInstance(this);
+        initializer.invoke2(interpreter, instance, a, b);
+        return instance;
+    }
+
+    public LoxFunction findMethod(String lexeme) {
+        // inherited methods are already in the table
+        return methods.get(lexeme);
     }
 }
\ No newline at end of file
@@ -1,18 +1,29 @@
 package com.kingsman.jlox;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
     private final Stmt.Function declaration;
-    // holds on to the surrounding variables where the function is declared.
+    // holds on to the surrounding variables the function captures.
     // use to implement local function scope.
-    private final Environment closure;
+    private final Upvalue[] upvalues;
     private final boolean isInitializer;
+    // the instance a method is bound to, null for anything that is not a bound method
+    private final LoxInstance receiver;
+    // calls so far, the function gets compiled when they reach JitCompiler.THRESHOLD
+    private int calls = 0;
 
-    LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+    LoxFunction(Stmt.Function declaration, Upvalue[] upvalues, boolean isInitializer) {
+        this(declaration, upvalues, isInitializer, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Upvalue[] upvalues,
+                        boolean isInitializer, LoxInstance receiver) {
         this.declaration = declaration;
-        this.closure = closure;
+        this.upvalues = upvalues;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
     @Override
@@ -21,48 +32,227 @@ public class LoxFunction implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter interpreter,
-                       List<Object> arguments) {
-        // This creates an environment chain that goes from the function’s body out
-        // through the environments where the function is declared, all the way out
-        // to the global scope.
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                    arguments.get(i));
+    public Object call(Interpreter interpreter, Object[] arguments) {
+        return invoke(interpreter, receiver, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter) {
+        return invoke0(interpreter, receiver);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Object a) {
+        return invoke1(interpreter, receiver, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Object a, Object b) {
+        return invoke2(interpreter, receiver, a, b);
+    }
+
+    /**
+     * calls the method on the given instance without binding it first
+     * @param interpreter
+     * @param receiver
+     * @param arguments
+     * @return
+     */
+    Object invoke(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        if (declaration.memo != null) return memoized(interpreter, receiver, arguments);
+        Object value = run(interpreter, receiver, arguments);
+        return value instanceof TailCall ? trampoline(interpreter, (TailCall)value) : value;
+    }
+
+    // the same as invoke() for the arities that don't need an argument array
+
+    Object invoke0(Interpreter interpreter, LoxInstance receiver) {
+        if (declaration.memo != null) return memoized(interpreter, receiver, new Object[0]);
+        CompiledFunction compiled = compiled(interpreter, receiver);
+        Object value;
+        if (compiled != null) {
+            value = compiled.invoke0(interpreter, upvalues, receiver);
+        } else {
+            value = interpreter.executeFunction(declaration, frame(receiver));
         }
+        if (isInitializer) return receiver;
+        return value instanceof TailCall ? trampoline(interpreter, (TailCall)value) : value;
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            // If the function is an initializer, return the instance.
-            if (isInitializer) return closure.getAt(0, "this");
+    Object invoke1(Interpreter interpreter, LoxInstance receiver, Object a) {
+        if (declaration.memo != null) return memoized(interpreter, receiver, new Object[] { a });
+        CompiledFunction compiled = compiled(interpreter, receiver);
+        Object value;
+        if (compiled != null) {
+            value = compiled.invoke1(interpreter, upvalues, receiver, a);
+        } else {
+            Environment environment = frame(receiver);
+            environment.define(a);
+            value = interpreter.executeFunction(declaration, environment);
+        }
+        if (isInitializer) return receiver;
+        return value instanceof TailCall ? trampoline(interpreter, (TailCall)value) : value;
+    }
 
-            return returnValue.value;
+    Object invoke2(Interpreter interpreter, LoxInstance receiver, Object a, Object b) {
+        if (declaration.memo != null) {
+            return memoized(interpreter, receiver, new Object[] { a, b });
+        }
+        CompiledFunction compiled = compiled(interpreter, receiver);
+        Object value;
+        if (compiled != null) {
+            value = compiled.invoke2(interpreter, upvalues, receiver, a, b);
+        } else {
+            Environment environment = frame(receiver);
+            environment.define(a);
+            environment.define(b);
+            value = interpreter.executeFunction(declaration, environment);
         }
+        if (isInitializer) return receiver;
+        return value instanceof TailCall ? trampoline(interpreter, (TailCall)value) : value;
+    }
 
-        if (isInitializer) return closure.getAt(0, "this");
+    /**
+     * calls a pure function, or gets the result of an earlier call with the same arguments
+     */
+    private Object memoized(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        Memo memo = declaration.memo;
+        Object key = Memo.key(arguments);
+        if (key != null) {
+            Object result = memo.get(key);
+            if (result != Memo.MISSING) return result;
+        }
 
-        // If it doesn't catch anything, that means the function doesn't
-        // explicitly return a value, we implicitly return nil.
-        return null;
+        Object value = run(interpreter, receiver, arguments);
+        if (value instanceof TailCall) value = trampoline(interpreter, (TailCall)value);
+        if (key != null) memo.put(key, value);
+        // too few calls were repeated, later calls skip the cache
+        if (memo.retired) declaration.memo = null;
+        return value;
+    }
+
+    /**
+     * a call in tail position is made here, once the
+     * frames of the function that returned it are gone.
+     * a memoized function is looked up in its cache like any other call,
+     * every call of the chain has the value of the last one.
+     * @param interpreter
+     * @param call what the body returned
+     * @return the value of the call
+     */
+    private static Object trampoline(Interpreter interpreter, TailCall call) {
+        // the caches of the memoized calls on the way, with their keys
+        List<Memo> memos = null;
+        List<Object> keys = null;
+
+        Object value;
+        while (true) {
+            if (!(call.callee instanceof LoxFunction)) {
+                value = call.callee.call(interpreter, call.arguments);
+                break;
+            }
+
+            LoxFunction function = (LoxFunction)call.callee;
+            Memo memo = function.declaration.memo;
+            if (memo != null) {
+                Object key = Memo.key(call.arguments);
+                if (key != null) {
+                    Object result = memo.get(key);
+                    if (result != Memo.MISSING) {
+                        value = result;
+                        break;
+                    }
+                    if (memos == null) {
+                        memos = new ArrayList<>();
+                        keys = new ArrayList<>();
+                    }
+                    memos.add(memo);
+                    keys.add(key);
+                }
+                if (memo.retired) function.declaration.memo = null;
+            }
+
+            LoxInstance instance = call.receiver != null ? call.receiver : function.receiver;
+            Object result = function.run(interpreter, instance, call.arguments);
+            if (!(result instanceof TailCall)) {
+                value = result;
+                break;
+            }
+            call = (TailCall)result;
+        }
+
+        // a chain of misses retires the cache before it gets long
+        if (memos != null) {
+            for (int i = 0; i < memos.size(); i++) {
+                memos.get(i).put(keys.get(i), value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * runs the body once
+     * @return the value of the call, or the call the body ended with
+     */
+    private Object run(Interpreter interpreter, LoxInstance receiver, Object[] arguments) {
+        CompiledFunction compiled = compiled(interpreter, receiver);
+        Object value;
+        if (compiled != null) {
+            value = compiled.invoke(interpreter, upvalues, receiver, arguments);
+        } else {
+            Environment environment = frame(receiver);
+            for (Object argument : arguments) {
+                environment.define(argument);
+            }
+            value = interpreter.executeFunction(declaration, environment);
+        }
+
+        // If the function is an initializer, return the instance.
+        if (isInitializer) return receiver;
+
+        // a body that ends without a return statement gives nil
+        return value;
+    }
+
+    /**
+     * the compiled body, compiling it once the closure has been called often enough
+     * @return null while the interpreter runs the body
+     */
+    private CompiledFunction compiled(Interpreter interpreter, LoxInstance receiver) {
+        CompiledFunction compiled = declaration.compiled;
+        if (compiled == null && interpreter.jit != null &&
+                ++calls == JitCompiler.THRESHOLD) {
+            compiled = interpreter.jit.compile(declaration, receiver != null);
+        }
+        return compiled;
+    }
+
+    /**
+     * creates the function's own environment, the arguments are defined in it
+     * by the caller. Variables of the functions around it are reached
+     * through the captured upvalues.
+     */
+    private Environment frame(LoxInstance receiver) {
+        Environment environment = new Environment(upvalues,
+                declaration.slotCount, declaration.captured);
+        // methods are only ever called with an instance, which goes in the first slot
+        if (receiver != null) environment.define(receiver);
+        return environment;
     }
 
     @Override
     public String toString() {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + declaration.name.lexeme() + ">";
     }
 
     /**
-     * create a new environment nestled inside the method’s original closure.
-     * when the method is called, that will become the parent of the method body’s environment.
+     * create a copy of the method that remembers the instance.
+     * when the method is called, the instance goes in the first slot of its environment.
      * @param loxInstance
      * @return
      */
     public LoxFunction bind(LoxInstance loxInstance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", loxInstance);
-        return new LoxFunction(declaration, environment,
-                isInitializer);
+        return new LoxFunction(declaration, upvalues,
+                isInitializer, loxInstance);
     }
 }
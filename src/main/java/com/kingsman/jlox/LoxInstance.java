@@ -1,7 +1,6 @@
 package com.kingsman.jlox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Represents an instance of Lox class in runtime, stores state(fields).
@@ -9,11 +8,17 @@ import java.util.Map;
  * Every instance is an open collection of named values.
  */
 class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    // where each field is in the fields array, shared with the other
+    // instances of the class that got the same fields in the same order.
+    private Shape shape;
+    private Object[] fields = NO_FIELDS;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        this.shape = klass.emptyShape;
     }
 
     @Override
@@ -22,24 +27,95 @@ class LoxInstance {
     }
 
     /**
-     * get the value of a property from the instance
+     * get the value of a property from the instance,
+     * using what the access site cached for the instance's shape
      */
-    public Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+    public Object get(Token name, InlineCache cache) {
+        int entry = cache.lookup(shape);
+        if (entry >= 0) {
+            int index = cache.index(entry);
+            if (index >= 0) return fields[index];
+            return cache.method(entry).bind(this);
+        }
+
+        int index = shape.indexOf(name.lexeme());
+        if (index >= 0) {
+            cache.add(shape, index, null, null);
+            return fields[index];
         }
 
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
+        // the class's methods never change, so caching them by shape is safe
+        LoxFunction method = klass.findMethod(name.lexeme());
+        if (method != null) {
+            cache.add(shape, -1, method, null);
+            return method.bind(this);
+        }
 
         throw new RuntimeError(name,
-                "Undefined property '" + name.lexeme + "'.");
+                "Undefined property '" + name.lexeme() + "'.");
     }
 
     /**
-     * assign a new value to a property
+     * like get(), but for a property that is called right away,
+     * so a method doesn't need to be bound to the instance
+     *
+     * @return the method, or null if the property is a field
      */
-    public void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+    public LoxFunction getMethod(Token name, InlineCache cache) {
+        int entry = cache.lookup(shape);
+        // a field's entry has no method
+        if (entry >= 0) return cache.method(entry);
+
+        int index = shape.indexOf(name.lexeme());
+        if (index >= 0) {
+            cache.add(shape, index, null, null);
+            return null;
+        }
+
+        LoxFunction method = klass.findMethod(name.lexeme());
+        if (method != null) {
+            cache.add(shape, -1, method, null);
+            return method;
+        }
+
+        throw new RuntimeError(name,
+                "Undefined property '" + name.lexeme() + "'.");
+    }
+
+    /**
+     * assign a new value to a property,
+     * using what the access site cached for the instance's shape
+     */
+    public void set(Token name, Object value, InlineCache cache) {
+        int entry = cache.lookup(shape);
+        if (entry >= 0) {
+            Shape transition = cache.transition(entry);
+            if (transition != null) addField(transition);
+            fields[cache.index(entry)] = value;
+            return;
+        }
+
+        Shape before = shape;
+        int index = shape.indexOf(name.lexeme());
+        if (index >= 0) {
+            cache.add(before, index, null, null);
+        } else {
+            // a new field, move on to the shape that has it
+            addField(shape.withField(name.lexeme()));
+            index = shape.size() - 1;
+            cache.add(before, index, null, shape);
+        }
+
+        fields[index] = value;
+    }
+
+    /**
+     * move to a shape with one more field, making room for it
+     */
+    private void addField(Shape next) {
+        shape = next;
+        if (shape.size() > fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,103 @@
+package com.kingsman.jlox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through a memory mapping of it, decoding the bytes as they are read.
+ *
+ * Only a window of the file is mapped at a time, so a file of any size takes the
+ * same address space, and its bytes never get copied to the heap as a whole.
+ * They are decoded from a small heap buffer, the decoders only take their fast
+ * path over bytes in an array.
+ */
+final class MappedReader extends Reader {
+    private static final long WINDOW = 64L << 20;
+    private static final int CHUNK = 64 << 10;
+
+    // the most bytes mapped at a time
+    private final long windowSize;
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final long size;
+    private ByteBuffer window;
+    // the bytes taken from the window that aren't decoded yet, ready to be read
+    private final ByteBuffer bytes = ByteBuffer.allocate(CHUNK);
+    // the offset in the file of the window's first byte
+    private long windowStart;
+    private boolean flushed = false;
+
+    MappedReader(Path path, Charset charset) throws IOException {
+        this(path, charset, WINDOW);
+    }
+
+    /**
+     * @param path
+     * @param charset
+     * @param windowSize the most bytes mapped at a time
+     * @throws IOException
+     */
+    MappedReader(Path path, Charset charset, long windowSize) throws IOException {
+        this.windowSize = windowSize;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        // the same as new String(bytes, charset) does with bytes it can't decode
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(0);
+        bytes.flip();
+    }
+
+    private void map(long from) throws IOException {
+        windowStart = from;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(windowSize, size - from));
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+
+        CharBuffer out = CharBuffer.wrap(chars, offset, length);
+        while (out.position() == offset) {
+            if (flushed) return -1;
+
+            if (!window.hasRemaining() && windowStart + window.limit() < size) {
+                map(windowStart + window.limit());
+            }
+            // the bytes of a character split by the end of a window stay in the buffer
+            bytes.compact();
+            int count = Math.min(bytes.remaining(), window.remaining());
+            window.get(bytes.array(), bytes.position(), count);
+            bytes.position(bytes.position() + count);
+            bytes.flip();
+
+            boolean last = windowStart + window.position() == size;
+            CoderResult result = decoder.decode(bytes, out, last);
+            if (result.isError()) result.throwException();
+            if (out.position() > offset) break;
+
+            if (last) {
+                decoder.flush(out);
+                flushed = true;
+            }
+        }
+
+        return out.position() - offset;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,113 @@
+package com.kingsman.jlox;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The results of a pure function's calls, by the arguments they were made with.
+ *
+ * Only calls whose arguments are all numbers, strings, booleans or nil are
+ * looked up, and only results of those kinds are kept, anything else could be
+ * changed or told apart by identity. The cache holds at most a fixed number of
+ * results, the one used least recently is evicted to make room.
+ *
+ * Looking calls up costs more than most functions take to run, so a function
+ * whose calls are rarely repeated stops being memoized. Its hit rate is judged
+ * over windows of calls, and once one window has fewer than a tenth of hits the
+ * cache is retired for good.
+ */
+final class Memo {
+    // what get() returns for arguments that have no result yet
+    static final Object MISSING = new Object();
+    // the keys of a call without arguments and of a nil argument
+    private static final Object NO_ARGUMENTS = new Object();
+    private static final Object NIL = new Object();
+    // short, so a cache that doesn't pay is retired before the JVM
+    // compiles the lookups into the callers of every function
+    private static final int WINDOW = 256;
+
+    final String name;
+    private final Map<Object, Object> results;
+    long hits = 0;
+    long misses = 0;
+    long evictions = 0;
+    // the calls and hits of the current window
+    private int windowCalls = 0;
+    private int windowHits = 0;
+    // set once the hit rate was too low, the function is called as it is from then on
+    boolean retired = false;
+
+    Memo(String name, int capacity) {
+        this.name = name;
+        // in access order, so the eldest entry is the least recently used one
+        this.results = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if (size() <= capacity) return false;
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @param arguments
+     * @return the key the call's result is kept under, or null if the call can't be memoized
+     */
+    static Object key(Object[] arguments) {
+        for (Object argument : arguments) {
+            if (!isPrimitive(argument)) return null;
+        }
+
+        switch (arguments.length) {
+            case 0: return NO_ARGUMENTS;
+            case 1: return arguments[0] != null ? arguments[0] : NIL;
+            default: return Arrays.asList(arguments);
+        }
+    }
+
+    /**
+     * @param key
+     * @return the result, or MISSING
+     */
+    Object get(Object key) {
+        Object result = results.getOrDefault(key, MISSING);
+        if (result == MISSING) {
+            misses++;
+        } else {
+            hits++;
+            windowHits++;
+        }
+
+        if (++windowCalls == WINDOW) {
+            if (windowHits * 10 < WINDOW) {
+                retired = true;
+                results.clear();
+            }
+            windowCalls = 0;
+            windowHits = 0;
+        }
+        return result;
+    }
+
+    void put(Object key, Object result) {
+        if (!retired && isPrimitive(result)) results.put(key, result);
+    }
+
+    /**
+     * a value that is the same as any other equal one, so a call may get it from another call
+     */
+    private static boolean isPrimitive(Object value) {
+        return value == null || value instanceof Double ||
+                value instanceof String || value instanceof Boolean;
+    }
+
+    @Override
+    public String toString() {
+        long calls = hits + misses;
+        double rate = calls == 0 ? 0.0 : 100.0 * hits / calls;
+        return String.format("%s: %d hits, %d misses, %d evictions (%.1f%% hit rate)%s",
+                name, hits, misses, evictions, rate, retired ? ", retired" : "");
+    }
+}
@@ -0,0 +1,1512 @@
+package com.kingsman.jlox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The executable tree the {@link SpecializingInterpreter} runs.
+ *
+ * Each node is built once from an Expr or Stmt, with everything the Resolver
+ * worked out already decided: which slot a variable is in, which operator a
+ * binary expression applies, which global cell to use. Nodes whose behavior
+ * depends on the types of their operands start out uninitialized, and on their
+ * first run replace themselves in their parent with a version specialized for
+ * the types they saw. When a specialized node later meets operands it doesn't
+ * handle, it replaces itself with the generic version, which handles everything
+ * and never changes again.
+ */
+abstract class Node {
+    // the node holding this one, rewriting goes through it
+    Node parent;
+
+    /**
+     * makes this node the parent of a child
+     */
+    <T extends Node> T adopt(T child) {
+        if (child != null) child.parent = this;
+        return child;
+    }
+
+    /**
+     * puts another node in this one's place in the tree
+     * @param replacement
+     * @return the replacement
+     */
+    <T extends Node> T replace(T replacement) {
+        parent.replaceChild(this, replacement);
+        replacement.parent = parent;
+        return replacement;
+    }
+
+    /**
+     * swaps one of this node's children for its replacement,
+     * every node with expression children has to support it
+     */
+    void replaceChild(Node child, Node replacement) {
+        throw new IllegalStateException("Node has no children to replace.");
+    }
+
+    /**
+     * thrown by a node that was asked for a double but produced something else
+     */
+    static final class UnexpectedResultException extends Exception {
+        final Object result;
+
+        UnexpectedResultException(Object result) {
+            // thrown only while a node deoptimizes, a stack trace is never needed
+            super(null, null, false, false);
+            this.result = result;
+        }
+    }
+
+    /**
+     * a node that produces a value
+     */
+    abstract static class ExprNode extends Node {
+        abstract Object execute(Environment environment);
+
+        /**
+         * evaluates the node for a number, so a numeric parent doesn't box it
+         * @throws UnexpectedResultException if the value is not a number
+         */
+        double executeDouble(Environment environment) throws UnexpectedResultException {
+            Object value = execute(environment);
+            if (value instanceof Double) return (double)value;
+            throw new UnexpectedResultException(value);
+        }
+
+        /**
+         * evaluates the node only for its truthiness
+         */
+        boolean executeCondition(Environment environment) {
+            return Interpreter.isTruthy(execute(environment));
+        }
+    }
+
+    /**
+     * a node that is run for its effect
+     */
+    abstract static class StmtNode extends Node {
+        /**
+         * @return true if a return statement ran, its value is in Interpreter.returnValue
+         */
+        abstract boolean execute(Environment environment);
+    }
+
+    static ExprNode[] adoptAll(Node parent, ExprNode[] children) {
+        for (ExprNode child : children) parent.adopt(child);
+        return children;
+    }
+
+    static StmtNode[] adoptAll(Node parent, StmtNode[] children) {
+        for (StmtNode child : children) parent.adopt(child);
+        return children;
+    }
+
+    static void replaceIn(Node[] children, Node child, Node replacement) {
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] == child) children[i] = replacement;
+        }
+    }
+
+    // Values.
+
+    static final class Constant extends ExprNode {
+        private final Object value;
+
+        Constant(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value;
+        }
+    }
+
+    static final class NumberConstant extends ExprNode {
+        private final double value;
+
+        NumberConstant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return value;
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            return value;
+        }
+    }
+
+    // Variables, one kind of node for each place the Resolver can put a variable.
+
+    /**
+     * a variable of the innermost environment
+     */
+    static final class ReadSlot extends ExprNode {
+        private final int slot;
+
+        ReadSlot(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.slots[slot];
+        }
+    }
+
+    static final class ReadLocal extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        ReadLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.getAt(depth, slot);
+        }
+    }
+
+    static final class ReadBoxed extends ExprNode {
+        private final int depth;
+        private final int slot;
+
+        ReadBoxed(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return ((Upvalue)environment.getAt(depth, slot)).value;
+        }
+    }
+
+    static final class ReadUpvalue extends ExprNode {
+        private final int index;
+
+        ReadUpvalue(int index) {
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return environment.upvalues[index].value;
+        }
+    }
+
+    static final class ReadGlobal extends ExprNode {
+        private final Globals.Cell cell;
+        private final Token name;
+
+        ReadGlobal(Globals.Cell cell, Token name) {
+            this.cell = cell;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return cell.get(name);
+        }
+    }
+
+    /**
+     * base of the assignments, the value is the only child
+     */
+    abstract static class Write extends ExprNode {
+        ExprNode value;
+
+        Write(ExprNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (value == child) value = (ExprNode)replacement;
+        }
+    }
+
+    static final class WriteLocal extends Write {
+        private final int depth;
+        private final int slot;
+
+        WriteLocal(int depth, int slot, ExprNode value) {
+            super(value);
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            environment.assignAt(depth, slot, result);
+            return result;
+        }
+    }
+
+    static final class WriteBoxed extends Write {
+        private final int depth;
+        private final int slot;
+
+        WriteBoxed(int depth, int slot, ExprNode value) {
+            super(value);
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            ((Upvalue)environment.getAt(depth, slot)).value = result;
+            return result;
+        }
+    }
+
+    static final class WriteUpvalue extends Write {
+        private final int index;
+
+        WriteUpvalue(int index, ExprNode value) {
+            super(value);
+            this.index = index;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            environment.upvalues[index].value = result;
+            return result;
+        }
+    }
+
+    static final class WriteGlobal extends Write {
+        private final Globals.Cell cell;
+        private final Token name;
+
+        WriteGlobal(Globals.Cell cell, Token name, ExprNode value) {
+            super(value);
+            this.cell = cell;
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object result = value.execute(environment);
+            cell.assign(name, result);
+            return result;
+        }
+    }
+
+    // Operators.
+
+    abstract static class Binary extends ExprNode {
+        ExprNode left;
+        ExprNode right;
+        final Token operator;
+
+        Binary(ExprNode left, ExprNode right, Token operator) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+            this.operator = operator;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (left == child) left = (ExprNode)replacement;
+            if (right == child) right = (ExprNode)replacement;
+        }
+    }
+
+    /**
+     * an operator that only takes numbers, so there is nothing to specialize:
+     * the operands are always asked for unboxed doubles
+     */
+    abstract static class NumericBinary extends Binary {
+        NumericBinary(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        double leftOperand(Environment environment) {
+            try {
+                return left.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                // both operands are evaluated before the type error
+                right.execute(environment);
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+        }
+
+        double rightOperand(Environment environment) {
+            try {
+                return right.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw new RuntimeError(operator, "Operands must be numbers.");
+            }
+        }
+    }
+
+    abstract static class Arithmetic extends NumericBinary {
+        Arithmetic(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        final Object execute(Environment environment) {
+            return executeDouble(environment);
+        }
+
+        @Override
+        abstract double executeDouble(Environment environment);
+    }
+
+    static final class Subtract extends Arithmetic {
+        Subtract(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            return leftOperand(environment) - rightOperand(environment);
+        }
+    }
+
+    static final class Multiply extends Arithmetic {
+        Multiply(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            return leftOperand(environment) * rightOperand(environment);
+        }
+    }
+
+    static final class Divide extends Arithmetic {
+        Divide(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            return leftOperand(environment) / rightOperand(environment);
+        }
+    }
+
+    abstract static class Comparison extends NumericBinary {
+        Comparison(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        final Object execute(Environment environment) {
+            return executeCondition(environment);
+        }
+
+        @Override
+        abstract boolean executeCondition(Environment environment);
+    }
+
+    static final class Greater extends Comparison {
+        Greater(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return leftOperand(environment) > rightOperand(environment);
+        }
+    }
+
+    static final class GreaterEqual extends Comparison {
+        GreaterEqual(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return leftOperand(environment) >= rightOperand(environment);
+        }
+    }
+
+    static final class Less extends Comparison {
+        Less(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return leftOperand(environment) < rightOperand(environment);
+        }
+    }
+
+    static final class LessEqual extends Comparison {
+        LessEqual(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return leftOperand(environment) <= rightOperand(environment);
+        }
+    }
+
+    /**
+     * "+" adds numbers and concatenates strings, so it specializes
+     * on whichever it sees first
+     */
+    static final class UninitializedAdd extends Binary {
+        UninitializedAdd(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object a = left.execute(environment);
+            Object b = right.execute(environment);
+
+            if (a instanceof Double && b instanceof Double) {
+                return replace(new NumberAdd(left, right, operator)).apply(a, b);
+            }
+            if (a instanceof String && b instanceof String) {
+                return replace(new ConcatAdd(left, right, operator)).apply(a, b);
+            }
+            return replace(new GenericAdd(left, right, operator)).apply(a, b);
+        }
+    }
+
+    static final class GenericAdd extends Binary {
+        GenericAdd(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return apply(left.execute(environment), right.execute(environment));
+        }
+
+        Object apply(Object a, Object b) {
+            if (a instanceof Double && b instanceof Double) {
+                return (double)a + (double)b;
+            }
+
+            if (a instanceof String && b instanceof String) {
+                return (String)a + (String)b;
+            }
+
+            throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
+        }
+    }
+
+    static final class NumberAdd extends Binary {
+        NumberAdd(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            try {
+                return executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Environment environment) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw new UnexpectedResultException(deoptimize(e.result, right.execute(environment)));
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw new UnexpectedResultException(deoptimize(a, e.result));
+            }
+
+            return a + b;
+        }
+
+        Object apply(Object a, Object b) {
+            return (double)a + (double)b;
+        }
+
+        /**
+         * an operand was not a number after all, fall back to the generic
+         * addition for good and let it finish this one
+         */
+        private Object deoptimize(Object a, Object b) {
+            return replace(new GenericAdd(left, right, operator)).apply(a, b);
+        }
+    }
+
+    static final class ConcatAdd extends Binary {
+        ConcatAdd(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object a = left.execute(environment);
+            Object b = right.execute(environment);
+            if (a instanceof String && b instanceof String) {
+                return (String)a + (String)b;
+            }
+
+            return replace(new GenericAdd(left, right, operator)).apply(a, b);
+        }
+
+        Object apply(Object a, Object b) {
+            return (String)a + (String)b;
+        }
+    }
+
+    /**
+     * "==" and "!=" accept anything, but comparing two numbers is common
+     * enough to do without boxing them
+     */
+    static final class UninitializedEqual extends Binary {
+        private final boolean negated;
+
+        UninitializedEqual(ExprNode left, ExprNode right, Token operator, boolean negated) {
+            super(left, right, operator);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeCondition(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            Object a = left.execute(environment);
+            Object b = right.execute(environment);
+
+            if (a instanceof Double && b instanceof Double) {
+                replace(new NumberEqual(left, right, operator, negated));
+            } else {
+                replace(new GenericEqual(left, right, operator, negated));
+            }
+            return Interpreter.isEqual(a, b) != negated;
+        }
+    }
+
+    static final class GenericEqual extends Binary {
+        private final boolean negated;
+
+        GenericEqual(ExprNode left, ExprNode right, Token operator, boolean negated) {
+            super(left, right, operator);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeCondition(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            Object a = left.execute(environment);
+            Object b = right.execute(environment);
+            return Interpreter.isEqual(a, b) != negated;
+        }
+    }
+
+    static final class NumberEqual extends Binary {
+        private final boolean negated;
+
+        NumberEqual(ExprNode left, ExprNode right, Token operator, boolean negated) {
+            super(left, right, operator);
+            this.negated = negated;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeCondition(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            double a;
+            try {
+                a = left.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return deoptimize(e.result, right.execute(environment));
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                return deoptimize(a, e.result);
+            }
+
+            // the same equality as Double.equals(), which the generic version uses
+            return (Double.doubleToLongBits(a) == Double.doubleToLongBits(b)) != negated;
+        }
+
+        private boolean deoptimize(Object a, Object b) {
+            replace(new GenericEqual(left, right, operator, negated));
+            return Interpreter.isEqual(a, b) != negated;
+        }
+    }
+
+    static final class Negate extends ExprNode {
+        ExprNode right;
+        private final Token operator;
+
+        Negate(ExprNode right, Token operator) {
+            this.right = adopt(right);
+            this.operator = operator;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeDouble(environment);
+        }
+
+        @Override
+        double executeDouble(Environment environment) {
+            try {
+                return -right.executeDouble(environment);
+            } catch (UnexpectedResultException e) {
+                throw new RuntimeError(operator, "Operand must be a number.");
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (right == child) right = (ExprNode)replacement;
+        }
+    }
+
+    static final class Not extends ExprNode {
+        ExprNode right;
+
+        Not(ExprNode right) {
+            this.right = adopt(right);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            return executeCondition(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return !right.executeCondition(environment);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (right == child) right = (ExprNode)replacement;
+        }
+    }
+
+    static final class And extends Binary {
+        And(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = left.execute(environment);
+            if (!Interpreter.isTruthy(value)) return value;
+            return right.execute(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return left.executeCondition(environment) && right.executeCondition(environment);
+        }
+    }
+
+    static final class Or extends Binary {
+        Or(ExprNode left, ExprNode right, Token operator) {
+            super(left, right, operator);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = left.execute(environment);
+            if (Interpreter.isTruthy(value)) return value;
+            return right.execute(environment);
+        }
+
+        @Override
+        boolean executeCondition(Environment environment) {
+            return left.executeCondition(environment) || right.executeCondition(environment);
+        }
+    }
+
+    // Calls and properties.
+
+    /**
+     * a call, which a return statement can also leave to the trampoline
+     */
+    abstract static class CallNode extends ExprNode {
+        /**
+         * does everything the call does up to calling the callee
+         */
+        abstract TailCall tailCall(Environment environment);
+    }
+
+    /**
+     * a call of whatever the callee evaluates to. There is a subclass for each
+     * arity the callables have an entry point for, so a call with few arguments
+     * doesn't make an array, and one for any other number of arguments.
+     */
+    abstract static class Call extends CallNode {
+        ExprNode callee;
+        final ExprNode[] arguments;
+        final Token paren;
+        final Interpreter interpreter;
+
+        Call(ExprNode callee, ExprNode[] arguments, Token paren, Interpreter interpreter) {
+            this.callee = adopt(callee);
+            this.arguments = adoptAll(this, arguments);
+            this.paren = paren;
+            this.interpreter = interpreter;
+        }
+
+        static Call of(ExprNode callee, ExprNode[] arguments, Token paren, Interpreter interpreter) {
+            switch (arguments.length) {
+                case 0: return new Call0(callee, arguments, paren, interpreter);
+                case 1: return new Call1(callee, arguments, paren, interpreter);
+                case 2: return new Call2(callee, arguments, paren, interpreter);
+                default: return new CallN(callee, arguments, paren, interpreter);
+            }
+        }
+
+        @Override
+        TailCall tailCall(Environment environment) {
+            Object function = callee.execute(environment);
+            return TailCall.of(function, evaluate(arguments, environment), paren);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (callee == child) callee = (ExprNode)replacement;
+            replaceIn(arguments, child, replacement);
+        }
+    }
+
+    static final class Call0 extends Call {
+        Call0(ExprNode callee, ExprNode[] arguments, Token paren, Interpreter interpreter) {
+            super(callee, arguments, paren, interpreter);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object function = callee.execute(environment);
+            return callable(function, 0, paren).call0(interpreter);
+        }
+    }
+
+    static final class Call1 extends Call {
+        Call1(ExprNode callee, ExprNode[] arguments, Token paren, Interpreter interpreter) {
+            super(callee, arguments, paren, interpreter);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object function = callee.execute(environment);
+            Object a = arguments[0].execute(environment);
+            return callable(function, 1, paren).call1(interpreter, a);
+        }
+    }
+
+    static final class Call2 extends Call {
+        Call2(ExprNode callee, ExprNode[] arguments, Token paren, Interpreter interpreter) {
+            super(callee, arguments, paren, interpreter);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object function = callee.execute(environment);
+            Object a = arguments[0].execute(environment);
+            Object b = arguments[1].execute(environment);
+            return callable(function, 2, paren).call2(interpreter, a, b);
+        }
+    }
+
+    static final class CallN extends Call {
+        CallN(ExprNode callee, ExprNode[] arguments, Token paren, Interpreter interpreter) {
+            super(callee, arguments, paren, interpreter);
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object function = callee.execute(environment);
+            Object[] values = evaluate(arguments, environment);
+            return callable(function, values.length, paren).call(interpreter, values);
+        }
+    }
+
+    /**
+     * "object.method(arguments)", which calls the method without binding it
+     */
+    static final class Invoke extends CallNode {
+        ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+        private final ExprNode[] arguments;
+        private final Token paren;
+        private final Interpreter interpreter;
+
+        Invoke(ExprNode object, Token name, InlineCache cache,
+               ExprNode[] arguments, Token paren, Interpreter interpreter) {
+            this.object = adopt(object);
+            this.name = name;
+            this.cache = cache;
+            this.arguments = adoptAll(this, arguments);
+            this.paren = paren;
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = object.execute(environment);
+            if (!(value instanceof LoxInstance)) {
+                throw new RuntimeError(name,
+                        "Only instances have properties.");
+            }
+
+            LoxInstance instance = (LoxInstance)value;
+            LoxFunction method = instance.getMethod(name, cache);
+            if (method == null) {
+                // a field, which may hold anything callable
+                Object callee = instance.get(name, cache);
+                Object[] values = evaluate(arguments, environment);
+                return callable(callee, values.length, paren).call(interpreter, values);
+            }
+
+            switch (arguments.length) {
+                case 0:
+                    checkArity(paren, method, 0);
+                    return method.invoke0(interpreter, instance);
+                case 1: {
+                    Object a = arguments[0].execute(environment);
+                    checkArity(paren, method, 1);
+                    return method.invoke1(interpreter, instance, a);
+                }
+                case 2: {
+                    Object a = arguments[0].execute(environment);
+                    Object b = arguments[1].execute(environment);
+                    checkArity(paren, method, 2);
+                    return method.invoke2(interpreter, instance, a, b);
+                }
+                default: {
+                    Object[] values = evaluate(arguments, environment);
+                    checkArity(paren, method, values.length);
+                    return method.invoke(interpreter, instance, values);
+                }
+            }
+        }
+
+        @Override
+        TailCall tailCall(Environment environment) {
+            Object value = object.execute(environment);
+            if (!(value instanceof LoxInstance)) {
+                throw new RuntimeError(name,
+                        "Only instances have properties.");
+            }
+
+            LoxInstance instance = (LoxInstance)value;
+            LoxFunction method = instance.getMethod(name, cache);
+            if (method == null) {
+                Object callee = instance.get(name, cache);
+                return TailCall.of(callee, evaluate(arguments, environment), paren);
+            }
+
+            return TailCall.method(method, instance, evaluate(arguments, environment), paren);
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (object == child) object = (ExprNode)replacement;
+            replaceIn(arguments, child, replacement);
+        }
+    }
+
+    static Object[] evaluate(ExprNode[] arguments, Environment environment) {
+        Object[] values = new Object[arguments.length];
+        for (int i = 0; i < arguments.length; i++) {
+            values[i] = arguments[i].execute(environment);
+        }
+
+        return values;
+    }
+
+    /**
+     * checks that the callee can be called with the arguments, once they are evaluated
+     */
+    static LoxCallable callable(Object callee, int argCount, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren,
+                    "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(paren, function, argCount);
+        return function;
+    }
+
+    static void checkArity(Token paren, LoxCallable function, int argCount) {
+        if (argCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    argCount + ".");
+        }
+    }
+
+    static final class Get extends ExprNode {
+        ExprNode object;
+        private final Token name;
+        private final InlineCache cache;
+
+        Get(ExprNode object, Token name, InlineCache cache) {
+            this.object = adopt(object);
+            this.name = name;
+            this.cache = cache;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object value = object.execute(environment);
+            if (value instanceof LoxInstance) {
+                return ((LoxInstance)value).get(name, cache);
+            }
+
+            throw new RuntimeError(name,
+                    "Only instances have properties.");
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (object == child) object = (ExprNode)replacement;
+        }
+    }
+
+    static final class Set extends ExprNode {
+        ExprNode object;
+        ExprNode value;
+        private final Token name;
+        private final InlineCache cache;
+
+        Set(ExprNode object, ExprNode value, Token name, InlineCache cache) {
+            this.object = adopt(object);
+            this.value = adopt(value);
+            this.name = name;
+            this.cache = cache;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            Object instance = object.execute(environment);
+            if (!(instance instanceof LoxInstance)) {
+                throw new RuntimeError(name,
+                        "Only instances have fields.");
+            }
+
+            Object result = value.execute(environment);
+            ((LoxInstance)instance).set(name, result, cache);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (object == child) object = (ExprNode)replacement;
+            if (value == child) value = (ExprNode)replacement;
+        }
+    }
+
+    static final class Super extends ExprNode {
+        private final ExprNode superclass;
+        private final ExprNode receiver;
+        private final Token method;
+
+        Super(ExprNode superclass, ExprNode receiver, Token method) {
+            this.superclass = adopt(superclass);
+            this.receiver = adopt(receiver);
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Environment environment) {
+            LoxClass klass = (LoxClass)superclass.execute(environment);
+            LoxInstance object = (LoxInstance)receiver.execute(environment);
+
+            LoxFunction function = klass.findMethod(method.lexeme());
+            if (function == null) {
+                throw new RuntimeError(method,
+                        "Undefined property '" + method.lexeme() + "'.");
+            }
+
+            return function.bind(object);
+        }
+    }
+
+    // Statements.
+
+    static final class Expression extends StmtNode {
+        ExprNode expression;
+
+        Expression(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            expression.execute(environment);
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (expression == child) expression = (ExprNode)replacement;
+        }
+    }
+
+    static final class Print extends StmtNode {
+        ExprNode expression;
+
+        Print(ExprNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            System.out.println(Interpreter.stringify(expression.execute(environment)));
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (expression == child) expression = (ExprNode)replacement;
+        }
+    }
+
+    static final class ReturnValue extends StmtNode {
+        ExprNode value;
+        private final Interpreter interpreter;
+
+        ReturnValue(ExprNode value, Interpreter interpreter) {
+            this.value = adopt(value);
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            interpreter.returnValue = value != null ? value.execute(environment) : null;
+            return true;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (value == child) value = (ExprNode)replacement;
+        }
+    }
+
+    /**
+     * "return f(...)", the call is made by the trampoline in LoxFunction
+     */
+    static final class ReturnCall extends StmtNode {
+        CallNode call;
+        private final Interpreter interpreter;
+
+        ReturnCall(CallNode call, Interpreter interpreter) {
+            this.call = adopt(call);
+            this.interpreter = interpreter;
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            interpreter.returnValue = call.tailCall(environment);
+            return true;
+        }
+    }
+
+    /**
+     * a variable declared in a local scope, it takes the next slot
+     */
+    static final class DefineLocal extends StmtNode {
+        ExprNode initializer;
+
+        DefineLocal(ExprNode initializer) {
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            environment.define(initializer != null ? initializer.execute(environment) : null);
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (initializer == child) initializer = (ExprNode)replacement;
+        }
+    }
+
+    static final class DefineGlobal extends StmtNode {
+        private final Globals.Cell cell;
+        ExprNode initializer;
+
+        DefineGlobal(Globals.Cell cell, ExprNode initializer) {
+            this.cell = cell;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            cell.value = initializer != null ? initializer.execute(environment) : null;
+            cell.defined = true;
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (initializer == child) initializer = (ExprNode)replacement;
+        }
+    }
+
+    /**
+     * declares a function, in the global cell if there is one,
+     * in the next slot of the environment otherwise
+     */
+    static final class DefineFunction extends StmtNode {
+        private final Stmt.Function declaration;
+        private final Globals.Cell cell;
+
+        DefineFunction(Stmt.Function declaration, Globals.Cell cell) {
+            this.declaration = declaration;
+            this.cell = cell;
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            if (cell != null) {
+                cell.value = new LoxFunction(declaration,
+                        Upvalue.capture(declaration.upvalues, environment), false);
+                cell.defined = true;
+                return false;
+            }
+
+            // the name must exist before the closure is made, so a
+            // function that calls itself can capture it.
+            int slot = environment.define(null);
+            environment.initialize(slot, new LoxFunction(declaration,
+                    Upvalue.capture(declaration.upvalues, environment), false));
+            return false;
+        }
+    }
+
+    static final class DefineClass extends StmtNode {
+        // the environment "super" lives in only ever holds that one, captured, variable
+        private static final boolean[] SUPER_CAPTURED = { true };
+
+        private final Stmt.Class declaration;
+        private final ExprNode superclass;
+        private final Globals.Cell cell;
+
+        DefineClass(Stmt.Class declaration, ExprNode superclass, Globals.Cell cell) {
+            this.declaration = declaration;
+            this.superclass = adopt(superclass);
+            this.cell = cell;
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            Object klass = null;
+            if (superclass != null) {
+                klass = superclass.execute(environment);
+                if (!(klass instanceof LoxClass)) {
+                    throw new RuntimeError(declaration.superclass.name,
+                            "Superclass must be a class.");
+                }
+            }
+
+            // like functions, the methods may capture the class's name
+            int slot = cell == null ? environment.define(null) : -1;
+
+            Environment methods = environment;
+            if (superclass != null) {
+                methods = new Environment(environment, 1, SUPER_CAPTURED);
+                methods.define(klass); // "super"
+            }
+
+            Map<String, LoxFunction> table = new HashMap<>();
+            for (Stmt.Function method : declaration.methods) {
+                table.put(method.name.lexeme(), new LoxFunction(method,
+                        Upvalue.capture(method.upvalues, methods),
+                        method.name.lexeme().equals("init")));
+            }
+
+            LoxClass result = new LoxClass(declaration.name.lexeme(), (LoxClass)klass, table);
+            if (cell != null) {
+                cell.value = result;
+                cell.defined = true;
+            } else {
+                environment.initialize(slot, result);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * statements run one after the other in the current environment
+     */
+    static final class Sequence extends StmtNode {
+        private final StmtNode[] statements;
+
+        Sequence(StmtNode[] statements) {
+            this.statements = adoptAll(this, statements);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            for (StmtNode statement : statements) {
+                if (statement.execute(environment)) return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * a block that declares variables, it runs in an environment of its own
+     */
+    static final class Block extends StmtNode {
+        private final StmtNode[] statements;
+        private final int slotCount;
+        private final boolean[] captured;
+
+        Block(StmtNode[] statements, int slotCount, boolean[] captured) {
+            this.statements = adoptAll(this, statements);
+            this.slotCount = slotCount;
+            this.captured = captured;
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            Environment inner = new Environment(environment, slotCount, captured);
+            for (StmtNode statement : statements) {
+                if (statement.execute(inner)) return true;
+            }
+            return false;
+        }
+    }
+
+    static final class If extends StmtNode {
+        ExprNode condition;
+        private final StmtNode thenBranch;
+        private final StmtNode elseBranch;
+
+        If(ExprNode condition, StmtNode thenBranch, StmtNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            if (condition.executeCondition(environment)) {
+                return thenBranch.execute(environment);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(environment);
+            }
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (condition == child) condition = (ExprNode)replacement;
+        }
+    }
+
+    static final class While extends StmtNode {
+        ExprNode condition;
+        private final StmtNode body;
+
+        While(ExprNode condition, StmtNode body) {
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            while (condition.executeCondition(environment)) {
+                if (body.execute(environment)) return true;
+            }
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (condition == child) condition = (ExprNode)replacement;
+        }
+    }
+
+    /**
+     * a loop whose body declares variables that no closure captures,
+     * every iteration runs in the same environment
+     */
+    static final class WhileReusing extends StmtNode {
+        ExprNode condition;
+        private final StmtNode[] statements;
+        private final int slotCount;
+
+        WhileReusing(ExprNode condition, StmtNode[] statements, int slotCount) {
+            this.condition = adopt(condition);
+            this.statements = adoptAll(this, statements);
+            this.slotCount = slotCount;
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            Environment iteration = new Environment(environment, slotCount, null);
+            while (condition.executeCondition(environment)) {
+                iteration.reset();
+                for (StmtNode statement : statements) {
+                    if (statement.execute(iteration)) return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (condition == child) condition = (ExprNode)replacement;
+        }
+    }
+
+    /**
+     * a for loop, in an environment of its own when it declares a variable
+     */
+    static final class For extends StmtNode {
+        private final StmtNode initializer;
+        private final int slotCount;
+        private final boolean[] captured;
+        // evaluated into the slots after the loop's variable, null if nothing is hoisted
+        private final ExprNode[] invariants;
+        private final StmtNode loop;
+        // the loop reading the invariants from their slots, null if nothing is hoisted
+        private final StmtNode hoisted;
+
+        For(StmtNode initializer, int slotCount, boolean[] captured,
+            ExprNode[] invariants, StmtNode loop, StmtNode hoisted) {
+            this.initializer = adopt(initializer);
+            this.slotCount = slotCount;
+            this.captured = captured;
+            this.invariants = invariants != null ? adoptAll(this, invariants) : null;
+            this.loop = adopt(loop);
+            this.hoisted = adopt(hoisted);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            Environment inner = slotCount > 0
+                    ? new Environment(environment, slotCount, captured) : environment;
+            if (initializer != null) initializer.execute(inner);
+            if (hoisted != null && hoist(inner)) return hoisted.execute(inner);
+            return loop.execute(inner);
+        }
+
+        /**
+         * @return false if an invariant fails, the loop then runs as written and fails where it would
+         */
+        private boolean hoist(Environment environment) {
+            try {
+                for (ExprNode invariant : invariants) {
+                    environment.define(invariant.execute(environment));
+                }
+                return true;
+            } catch (RuntimeError error) {
+                return false;
+            }
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            replaceIn(invariants, child, replacement);
+        }
+    }
+
+    /**
+     * the condition, body and increment of a for loop, a missing condition is always true
+     */
+    static final class Loop extends StmtNode {
+        ExprNode condition;
+        ExprNode increment;
+        private final StmtNode body;
+
+        Loop(ExprNode condition, ExprNode increment, StmtNode body) {
+            this.condition = adopt(condition);
+            this.increment = adopt(increment);
+            this.body = adopt(body);
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            while (condition == null || condition.executeCondition(environment)) {
+                if (body.execute(environment)) return true;
+                if (increment != null) increment.execute(environment);
+            }
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (condition == child) condition = (ExprNode)replacement;
+            if (increment == child) increment = (ExprNode)replacement;
+        }
+    }
+
+    /**
+     * a for loop whose body declares variables that no closure captures,
+     * every iteration runs in the same environment
+     */
+    static final class LoopReusing extends StmtNode {
+        ExprNode condition;
+        ExprNode increment;
+        private final StmtNode[] statements;
+        private final int slotCount;
+
+        LoopReusing(ExprNode condition, ExprNode increment, StmtNode[] statements, int slotCount) {
+            this.condition = adopt(condition);
+            this.increment = adopt(increment);
+            this.statements = adoptAll(this, statements);
+            this.slotCount = slotCount;
+        }
+
+        @Override
+        boolean execute(Environment environment) {
+            Environment iteration = new Environment(environment, slotCount, null);
+            while (condition == null || condition.executeCondition(environment)) {
+                iteration.reset();
+                for (StmtNode statement : statements) {
+                    if (statement.execute(iteration)) return true;
+                }
+                if (increment != null) increment.execute(environment);
+            }
+            return false;
+        }
+
+        @Override
+        void replaceChild(Node child, Node replacement) {
+            if (condition == child) condition = (ExprNode)replacement;
+            if (increment == child) increment = (ExprNode)replacement;
+        }
+    }
+}
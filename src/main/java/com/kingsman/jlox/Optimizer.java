@@ -0,0 +1,437 @@
+package com.kingsman.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites the resolved tree before it runs: folds constant expressions,
+ * drops branches whose condition is a constant, removes groupings and
+ * simplifies arithmetic that can't change the value.
+ *
+ * A rewrite never hides a runtime error, operations on constants that would
+ * fail are left for the interpreter to report. Nodes that change are
+ * replaced by new ones that get the Resolver's fields of the old ones, function
+ * declarations and classes included. The tree it is given is never changed, so
+ * a tree the IncrementalParser keeps can be optimized again for every run.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // how many rewrites were applied so far, not counting removed groupings
+    private int rewrites = 0;
+    // how many groupings were removed, the parser makes one for every pair of
+    // parentheses so that says nothing about how much the tree was simplified
+    int groupings = 0;
+
+    /**
+     * optimizes the statements, replacing those that change in the list
+     * @param statements
+     * @return the number of folds, dropped branches and simplifications applied
+     */
+    int optimize(List<Stmt> statements) {
+        replace(statements, optimizeAll(statements));
+        return rewrites;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    /**
+     * @return the optimized statement, or null if it does nothing
+     */
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    /**
+     * @return the same list if none of the statements changed
+     */
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt optimized = optimize(statement);
+            if (optimized != statement) changed = true;
+            if (optimized != null) result.add(optimized);
+        }
+
+        return changed ? result : statements;
+    }
+
+    private static void replace(List<Stmt> statements, List<Stmt> optimized) {
+        if (optimized == statements) return;
+        statements.clear();
+        statements.addAll(optimized);
+    }
+
+    /**
+     * a statement that must stay a statement, like the body of a loop
+     */
+    private Stmt optimizeBody(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        return optimized != null ? optimized : new Stmt.Block(new ArrayList<>());
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign result = new Expr.Assign(expr.name, value);
+        result.global = expr.global;
+        result.location = expr.location;
+        return result;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        Expr folded = fold(expr.operator, left, right);
+        if (folded != null) {
+            rewrites++;
+            return folded;
+        }
+
+        Expr simplified = simplify(expr.operator, left, right);
+        if (simplified != null) {
+            rewrites++;
+            return simplified;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return binary(left, expr.operator, right);
+    }
+
+    /**
+     * computes an operator whose operands are both constants
+     * @return the literal, or null if the operands are not constants or the operator would fail
+     */
+    private static Expr fold(Token operator, Expr left, Expr right) {
+        if (!(left instanceof Expr.Literal) || !(right instanceof Expr.Literal)) return null;
+        Object a = ((Expr.Literal)left).value;
+        Object b = ((Expr.Literal)right).value;
+
+        switch (operator.type) {
+            case EQUAL_EQUAL: return new Expr.Literal(Interpreter.isEqual(a, b));
+            case BANG_EQUAL: return new Expr.Literal(!Interpreter.isEqual(a, b));
+            case PLUS:
+                if (a instanceof String && b instanceof String) {
+                    return new Expr.Literal((String)a + (String)b);
+                }
+                break;
+        }
+
+        if (!(a instanceof Double) || !(b instanceof Double)) return null;
+        double x = (double)a;
+        double y = (double)b;
+        switch (operator.type) {
+            case PLUS: return new Expr.Literal(x + y);
+            case MINUS: return new Expr.Literal(x - y);
+            case STAR: return new Expr.Literal(x * y);
+            case SLASH: return new Expr.Literal(x / y);
+            case GREATER: return new Expr.Literal(x > y);
+            case GREATER_EQUAL: return new Expr.Literal(x >= y);
+            case LESS: return new Expr.Literal(x < y);
+            case LESS_EQUAL: return new Expr.Literal(x <= y);
+        }
+
+        return null;
+    }
+
+    /**
+     * drops a constant that leaves a number as it is, "x * 1", "1 * x", "x / 1" and "x - 0",
+     * when the other operand can only be a number, so the type check isn't lost
+     * @return the simplified expression, or null
+     */
+    private static Expr simplify(Token operator, Expr left, Expr right) {
+        switch (operator.type) {
+            case STAR:
+                if (isConstant(right, 1.0) && Resolver.isNumeric(left)) return left;
+                if (isConstant(left, 1.0) && Resolver.isNumeric(right)) return right;
+                break;
+            case SLASH:
+                if (isConstant(right, 1.0) && Resolver.isNumeric(left)) return left;
+                break;
+            case MINUS:
+                // only +0, -0 - -0 is +0 rather than -0
+                if (isConstant(right, 0.0) && Resolver.isNumeric(left)) return left;
+                break;
+        }
+
+        return null;
+    }
+
+    private static boolean isConstant(Expr expr, double value) {
+        if (!(expr instanceof Expr.Literal)) return false;
+        Object constant = ((Expr.Literal)expr).value;
+        // compares the bits, which tells 0 and -0 apart
+        return constant instanceof Double &&
+                Double.doubleToLongBits((double)constant) == Double.doubleToLongBits(value);
+    }
+
+    private static Expr.Binary binary(Expr left, Token operator, Expr right) {
+        Expr.Binary result = new Expr.Binary(left, operator, right);
+        result.leftNumeric = Resolver.isNumeric(left);
+        result.rightNumeric = Resolver.isNumeric(right);
+        return result;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            if (optimized != argument) changed = true;
+            arguments.add(optimized);
+        }
+
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+
+        Expr.Get result = new Expr.Get(object, expr.name);
+        result.cache = expr.cache;
+        return result;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // the tree already has the grouping's shape
+        groupings++;
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // a constant on the left decides which operand is the result
+        if (left instanceof Expr.Literal) {
+            rewrites++;
+            boolean truthy = Interpreter.isTruthy(((Expr.Literal)left).value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+
+        Expr.Set result = new Expr.Set(object, expr.name, value);
+        result.cache = expr.cache;
+        return result;
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal)right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                rewrites++;
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (value instanceof Double) {
+                rewrites++;
+                return new Expr.Literal(-(double)value);
+            }
+        }
+
+        // "-(-x)" when x can only be a number
+        if (expr.operator.type == TokenType.MINUS && right instanceof Expr.Unary) {
+            Expr.Unary inner = (Expr.Unary)right;
+            if (inner.operator.type == TokenType.MINUS && Resolver.isNumeric(inner.right)) {
+                rewrites++;
+                return inner.right;
+            }
+        }
+
+        if (right == expr.right) return expr;
+        Expr.Unary result = new Expr.Unary(expr.operator, right);
+        result.rightNumeric = Resolver.isNumeric(right);
+        return result;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+
+        Stmt.Block result = new Stmt.Block(statements);
+        result.slotCount = stmt.slotCount;
+        result.captured = stmt.captured;
+        return result;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function optimized = (Stmt.Function)visitFunctionStmt(method);
+            if (optimized != method) changed = true;
+            methods.add(optimized);
+        }
+
+        if (!changed) return stmt;
+        return new Stmt.Class(stmt.name, stmt.superclass, methods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // a constant computed for nothing
+        if (expression instanceof Expr.Literal) {
+            rewrites++;
+            return null;
+        }
+
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitForStmt(Stmt.For stmt) {
+        // a loop with hoisted invariants is already optimized, rewriting it
+        // again would hoist from the hoisted version
+        if (stmt.hoisted != null) return stmt;
+
+        // the loop stays even when its condition is false, the initializer still runs
+        Stmt initializer = stmt.initializer != null ? optimize(stmt.initializer) : null;
+        Expr condition = stmt.condition != null ? optimize(stmt.condition) : null;
+        if (condition instanceof Expr.Literal &&
+                Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+            rewrites++;
+            condition = null;
+        }
+        Expr increment = stmt.increment != null ? optimize(stmt.increment) : null;
+        if (increment instanceof Expr.Literal) {
+            rewrites++;
+            increment = null;
+        }
+        Stmt body = optimizeBody(stmt.body);
+
+        Stmt.For result = stmt;
+        if (initializer != stmt.initializer || condition != stmt.condition ||
+                increment != stmt.increment || body != stmt.body) {
+            result = new Stmt.For(initializer, condition, increment, body);
+            result.slotCount = stmt.slotCount;
+            result.captured = stmt.captured;
+        }
+
+        Stmt.For hoisted = LoopInvariants.hoist(result);
+        if (hoisted != result) rewrites += hoisted.invariants.size();
+        return hoisted;
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimizeAll(stmt.body);
+        if (body == stmt.body) return stmt;
+
+        // a copy, the declaration stays as it was for anything else holding it
+        Stmt.Function result = new Stmt.Function(stmt.name, stmt.params, body);
+        result.slotCount = stmt.slotCount;
+        result.captured = stmt.captured;
+        result.upvalues = stmt.upvalues;
+        return result;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) {
+            rewrites++;
+            if (Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+                return optimize(stmt.thenBranch);
+            }
+            return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        }
+
+        Stmt thenBranch = optimizeBody(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+                elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        Stmt.Return result = new Stmt.Return(stmt.keyword, value);
+        result.tailCall = stmt.tailCall;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal &&
+                !Interpreter.isTruthy(((Expr.Literal)condition).value)) {
+            rewrites++;
+            return null;
+        }
+
+        Stmt body = optimizeBody(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+}
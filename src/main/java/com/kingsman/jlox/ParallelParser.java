@@ -0,0 +1,138 @@
+package com.kingsman.jlox;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static com.kingsman.jlox.TokenType.*;
+
+/**
+ * Parses the top-level declarations of a long script on a ForkJoinPool.
+ *
+ * The tokens are cut into chunks in front of a "class", "fun" or "var" that is
+ * outside of any braces and parentheses. In a script without syntax errors such
+ * a token always starts a top-level declaration, so each chunk parses on its own
+ * to the statements the whole script would give for it.
+ *
+ * A syntax error breaks that: recovering from it may carry the parser across a
+ * cut. The chunks' parsers therefore don't report errors, and if any of them
+ * had one the whole script is parsed again in one piece, reporting the errors
+ * in the same order as ever.
+ */
+final class ParallelParser {
+    // a chunk takes at least this many tokens, fewer aren't worth a task
+    static final int MIN_CHUNK = 16 * 1024;
+    // chunks per thread, so that a thread that is done early can take another
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private ParallelParser() {}
+
+    /**
+     * @param tokens the whole script, ending with an EOF token
+     * @param pool
+     * @return the same statements Parser.parse() gives
+     */
+    static List<Stmt> parse(List<Token> tokens, ForkJoinPool pool) {
+        return parse(tokens, pool, MIN_CHUNK);
+    }
+
+    /**
+     * @param tokens the whole script, ending with an EOF token
+     * @param pool
+     * @param minChunk the fewest tokens a chunk takes
+     * @return the same statements Parser.parse() gives
+     */
+    static List<Stmt> parse(List<Token> tokens, ForkJoinPool pool, int minChunk) {
+        List<Integer> cuts = cuts(tokens, pool.getParallelism() * CHUNKS_PER_THREAD, minChunk);
+        if (cuts.size() <= 2) return new Parser(tokens.iterator()).parse();
+
+        List<ForkJoinTask<List<Stmt>>> tasks = new ArrayList<>();
+        for (int i = 0; i + 1 < cuts.size(); i++) {
+            Iterator<Token> chunk = chunk(tokens, cuts.get(i), cuts.get(i + 1));
+            tasks.add(pool.submit(() -> {
+                Parser parser = new Parser(chunk, false);
+                List<Stmt> statements = parser.parse();
+                // null tells that the script has to be parsed again
+                return parser.hadError ? null : statements;
+            }));
+        }
+
+        List<Stmt> statements = new ArrayList<>();
+        for (ForkJoinTask<List<Stmt>> task : tasks) {
+            List<Stmt> chunk = task.join();
+            if (chunk == null) {
+                // the chunks not parsed yet aren't needed any more
+                for (ForkJoinTask<List<Stmt>> other : tasks) {
+                    other.cancel(false);
+                }
+                return new Parser(tokens.iterator()).parse();
+            }
+            statements.addAll(chunk);
+        }
+
+        return statements;
+    }
+
+    /**
+     * @param tokens
+     * @param count the number of chunks wanted
+     * @param minChunk the fewest tokens a chunk takes
+     * @return the indices the chunks start at, followed by the index of the EOF token
+     */
+    static List<Integer> cuts(List<Token> tokens, int count, int minChunk) {
+        int size = Math.max(minChunk, tokens.size() / count);
+        List<Integer> cuts = new ArrayList<>();
+        cuts.add(0);
+
+        int depth = 0;
+        int end = tokens.size() - 1;
+        for (int i = 0; i < end; i++) {
+            switch (tokens.get(i).type) {
+                case LEFT_BRACE:
+                case LEFT_PAREN:
+                    depth++;
+                    break;
+                case RIGHT_BRACE:
+                case RIGHT_PAREN:
+                    depth--;
+                    break;
+                case CLASS:
+                case FUN:
+                case VAR:
+                    if (depth == 0 && i - cuts.get(cuts.size() - 1) >= size &&
+                            end - i >= size) {
+                        cuts.add(i);
+                    }
+                    break;
+            }
+        }
+
+        cuts.add(end);
+        return cuts;
+    }
+
+    /**
+     * the tokens from start up to end, followed by an EOF token
+     */
+    private static Iterator<Token> chunk(List<Token> tokens, int start, int end) {
+        return new Iterator<Token>() {
+            private int next = start;
+
+            @Override
+            public boolean hasNext() {
+                return next <= end;
+            }
+
+            @Override
+            public Token next() {
+                Token token = tokens.get(next);
+                if (next++ == end && token.type != EOF) {
+                    return new Token(EOF, "", token);
+                }
+                return token;
+            }
+        };
+    }
+}
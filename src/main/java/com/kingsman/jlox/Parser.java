@@ -1,7 +1,7 @@
 package com.kingsman.jlox;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
 
 import static com.kingsman.jlox.TokenType.*;
@@ -9,16 +9,32 @@ import static com.kingsman.jlox.TokenType.*;
 /**
  * Parses the tokens into an abstract syntax tree.
  * Using recursive descent technique.
+ *
+ * Tokens are pulled one at a time, the parser never looks further ahead than
+ * the current one, so a Scanner can hand them over as it scans them.
  */
 class Parser {
     // A runtime exception to signal a parsing error
     private static class ParseError extends RuntimeException {}
-    private final List<Token> tokens;
-    //  point to the next token eagerly waiting to be parsed
-    private int current = 0;
+    private final Iterator<Token> tokens;
+    //  the next token eagerly waiting to be parsed, and the one parsed last
+    private Token current;
+    private Token previous = null;
+    // whether errors go to Lox.error(), a parser that doesn't report them only notes them
+    private final boolean report;
+    boolean hadError = false;
 
-    Parser(List<Token> tokens) {
+    /**
+     * @param tokens ending with an EOF token
+     */
+    Parser(Iterator<Token> tokens) {
+        this(tokens, true);
+    }
+
+    Parser(Iterator<Token> tokens, boolean report) {
         this.tokens = tokens;
+        this.report = report;
+        this.current = tokens.next();
     }
 
     // parses a series of statements
@@ -116,7 +132,6 @@ class Parser {
     }
 
     // forStmt -> "for" "(" ( varDeclaration | exprStmt | ";" ) expression? ";" expression? ")" statement ;
-    // not use Interpreter.java's implementation, try to desugar it.
     private Stmt forStatement() {
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
 
@@ -142,25 +157,10 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after for clauses.");
         Stmt body = statement();
 
-        // the increment executes after the body in each iteration of the loop
-        if (increment != null) {
-            body = new Stmt.Block(
-                    Arrays.asList(
-                            body,
-                            new Stmt.Expression(increment)));
-        }
-
-        if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
-
-        // initializer executes before the loop starts,  runs once before the entire loop.
-        // do that by replacing the whole statement with a block that runs the initializer
-        // and then executes the loop.
-        if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
-        }
-
-        return body;
+        // kept as a loop of its own, rather than desugared into a while loop in
+        // blocks, so the interpreter runs it directly and can hoist what doesn't
+        // change from one iteration to the next
+        return new Stmt.For(initializer, condition, increment, body);
     }
 
     // whileStmt -> "while" "(" expression ")" statement ;
@@ -444,11 +444,11 @@ class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return current;
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     /**
@@ -458,7 +458,10 @@ class Parser {
      * @return
      */
     private Token advance() {
-        if (!isAtEnd()) current++;
+        if (!isAtEnd()) {
+            previous = current;
+            current = tokens.next();
+        }
         return previous();
     }
 
@@ -485,7 +488,8 @@ class Parser {
      * @return
      */
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        hadError = true;
+        if (report) Lox.error(token, message);
 
         return new ParseError();
     }
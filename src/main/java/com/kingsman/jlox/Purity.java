@@ -0,0 +1,336 @@
+package com.kingsman.jlox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the functions of a script whose calls give the same result for the
+ * same arguments and do nothing else, so they can be memoized.
+ *
+ * A function is pure when it doesn't print, assign a global or captured
+ * variable, touch instances, read a variable some other code may change, or
+ * call anything but pure functions. The only variables it may read outside its
+ * own locals are constant globals, declared once at the top of the script and
+ * never assigned, and the only functions it may call are the ones declared by
+ * those. Methods are never pure, they have "this".
+ *
+ * Only the pure functions that make calls or loop are worth memoizing, looking
+ * a call up costs more than a few operators on the arguments.
+ *
+ * Looks at the whole script at once, so it isn't used at the prompt, where
+ * later lines could still assign the globals.
+ */
+final class Purity implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    /**
+     * what one function does that decides whether it is pure
+     */
+    private static final class Body {
+        final Stmt.Function function;
+        boolean impure = false;
+        // it makes calls or loops, so it may take longer than looking the call up
+        boolean costly = false;
+        // the globals it reads and the ones it calls
+        final Set<String> reads = new HashSet<>();
+        final Set<String> callees = new HashSet<>();
+
+        Body(Stmt.Function function) {
+            this.function = function;
+        }
+    }
+
+    // how many top-level declarations each global has, and the ones that are functions
+    private final Map<String, Integer> declarations = new HashMap<>();
+    private final Map<String, Stmt.Function> globalFunctions = new HashMap<>();
+    private final Set<String> assigned = new HashSet<>();
+    private final List<Body> bodies = new ArrayList<>();
+    // the function being looked at, null for the top level of the script
+    private Body current = null;
+
+    private Purity() {}
+
+    /**
+     * @param statements the whole script
+     * @return the pure functions worth memoizing, in the order they are declared in
+     */
+    static List<Stmt.Function> memoizable(List<Stmt> statements) {
+        Purity purity = new Purity();
+        for (Stmt statement : statements) {
+            purity.declare(statement);
+        }
+        for (Stmt statement : statements) {
+            statement.accept(purity);
+        }
+        return purity.pure();
+    }
+
+    private void declare(Stmt statement) {
+        String name;
+        if (statement instanceof Stmt.Var) {
+            name = ((Stmt.Var)statement).name.lexeme();
+        } else if (statement instanceof Stmt.Class) {
+            name = ((Stmt.Class)statement).name.lexeme();
+        } else if (statement instanceof Stmt.Function) {
+            name = ((Stmt.Function)statement).name.lexeme();
+            globalFunctions.put(name, (Stmt.Function)statement);
+        } else {
+            return;
+        }
+
+        declarations.merge(name, 1, Integer::sum);
+    }
+
+    private boolean isConstant(String global) {
+        return declarations.getOrDefault(global, 0) == 1 && !assigned.contains(global);
+    }
+
+    /**
+     * drops the functions that call one that isn't pure, until none are left to drop
+     */
+    private List<Stmt.Function> pure() {
+        Set<Stmt.Function> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Body> candidates = new ArrayList<>();
+        for (Body body : bodies) {
+            if (body.impure || !readsConstants(body)) continue;
+            candidates.add(body);
+            pure.add(body.function);
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Body body : candidates) {
+                if (!pure.contains(body.function)) continue;
+                for (String callee : body.callees) {
+                    Stmt.Function function = isConstant(callee) ? globalFunctions.get(callee) : null;
+                    if (function == null || !pure.contains(function)) {
+                        pure.remove(body.function);
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+
+        List<Stmt.Function> result = new ArrayList<>();
+        for (Body body : candidates) {
+            if (body.costly && pure.contains(body.function)) result.add(body.function);
+        }
+        return result;
+    }
+
+    private boolean readsConstants(Body body) {
+        for (String global : body.reads) {
+            if (!isConstant(global)) return false;
+        }
+        return true;
+    }
+
+    private void impure() {
+        if (current != null) current.impure = true;
+    }
+
+    private void costly() {
+        if (current != null) current.costly = true;
+    }
+
+    private void look(Expr expr) {
+        if (expr != null) expr.accept(this);
+    }
+
+    private void look(Stmt stmt) {
+        if (stmt != null) stmt.accept(this);
+    }
+
+    private void function(Stmt.Function function, boolean isMethod) {
+        Body enclosing = current;
+        current = new Body(function);
+        if (isMethod) current.impure = true;
+        bodies.add(current);
+        for (Stmt statement : function.body) {
+            look(statement);
+        }
+        current = enclosing;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        look(expr.value);
+        if (expr.location == null) {
+            assigned.add(expr.name.lexeme());
+            impure();
+        } else if (expr.location.upvalue || expr.location.boxed) {
+            impure();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        look(expr.left);
+        look(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        costly();
+        if (expr.callee instanceof Expr.Variable && ((Expr.Variable)expr.callee).location == null) {
+            if (current != null) current.callees.add(((Expr.Variable)expr.callee).name.lexeme());
+        } else {
+            // a local or captured callee may be anything
+            impure();
+            look(expr.callee);
+        }
+
+        for (Expr argument : expr.arguments) {
+            look(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        impure();
+        look(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        look(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        look(expr.left);
+        look(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        impure();
+        look(expr.object);
+        look(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        impure();
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        impure();
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        look(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if (expr.location == null) {
+            if (current != null) current.reads.add(expr.name.lexeme());
+        } else if (expr.location.upvalue) {
+            // the enclosing function may change it
+            impure();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            look(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        // a class made by a call is a new object every time
+        impure();
+        look(stmt.superclass);
+        for (Stmt.Function method : stmt.methods) {
+            function(method, true);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        look(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        costly();
+        look(stmt.initializer);
+        look(stmt.condition);
+        look(stmt.increment);
+        look(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // declaring a function does nothing its caller can see, its
+        // body is looked at on its own
+        function(stmt, false);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        look(stmt.condition);
+        look(stmt.thenBranch);
+        look(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        impure();
+        look(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        look(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        look(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        costly();
+        look(stmt.condition);
+        look(stmt.body);
+        return null;
+    }
+}
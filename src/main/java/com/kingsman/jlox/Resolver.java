@@ -1,6 +1,8 @@
 package com.kingsman.jlox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
@@ -17,14 +19,20 @@ import java.util.Stack;
  */
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
-    // Each map represents a block scope, and maps variable names to whether they have been defined.
+    // Each map represents a block scope, and maps variable names to their slot in that scope.
     // The scope stack is only used for local block scopes, if we can’t find it in the stack of local
-    // scopes, we assume it must be global.
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    // scopes, we assume it must be global. Names are interned symbols, compared by identity.
+    private final Stack<Map<String, Local>> scopes = new Stack<>();
     // some operations to avoid run the return statement not in a function
     private FunctionType currentFunction = FunctionType.NONE;
     // some operations to avoid run the "this" keyword not in a class
     private ClassType currentClass = ClassType.NONE;
+    // the function whose body we are in, top-level code counts as one
+    // whose locals are those declared in top-level blocks
+    private FunctionFrame currentFrame = new FunctionFrame(null, 0);
+
+    // set once an error was reported
+    boolean hadError = false;
 
     Resolver(Interpreter interpreter) {
         this.interpreter = interpreter;
@@ -43,6 +51,56 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         SUBCLASS
     }
 
+    /**
+     * A local variable declared in some scope
+     */
+    private static class Local {
+        // index of the variable in its environment's slot array
+        final int slot;
+        // whether we have finished resolving the variable’s initializer
+        boolean defined = false;
+        // whether an inner function refers to the variable, which makes it boxed
+        boolean captured = false;
+        // references from the declaring function itself. they only get their
+        // Location when the scope ends, once we know if the variable is boxed.
+        final List<Reference> references = new ArrayList<>();
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+
+    /**
+     * An expression reading or assigning a local, and how many scopes out the local is
+     */
+    private static class Reference {
+        final Expr expr;
+        final int depth;
+
+        Reference(Expr expr, int depth) {
+            this.expr = expr;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * A function being resolved, and the variables of enclosing functions it captures
+     */
+    private static class FunctionFrame {
+        final FunctionFrame enclosing;
+        // index in the scope stack of the function's outermost scope
+        final int scopeBase;
+        // where the closure finds each of its upvalues when it is created
+        final List<Upvalue.Source> upvalues = new ArrayList<>();
+        // captured variables mapped to their index in upvalues
+        final Map<Local, Integer> captures = new HashMap<>();
+
+        FunctionFrame(FunctionFrame enclosing, int scopeBase) {
+            this.enclosing = enclosing;
+            this.scopeBase = scopeBase;
+        }
+    }
+
     /**
      * Resolves the variable references in the given list of statements
      *
@@ -56,9 +114,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        // a block that declares nothing gets no scope, and no environment at runtime.
+        // its slotCount stays 0, which tells the interpreter so.
+        if (!declaresVariables(stmt.statements)) {
+            resolve(stmt.statements);
+            return null;
+        }
+
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        Map<String, Local> scope = endScope();
+        // the interpreter sizes the block's environment with this
+        stmt.slotCount = scope.size();
+        stmt.captured = captured(scope);
         return null;
     }
 
@@ -71,8 +139,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         define(stmt.name);
 
         if (stmt.superclass != null &&
-                stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name,
+                stmt.name.lexeme().equals(stmt.superclass.name.lexeme())) {
+            error(stmt.superclass.name,
                     "A class can't inherit from itself.");
         }
 
@@ -82,26 +150,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         if (stmt.superclass != null) {
-            // create a new scope surrounding all the class's superclass methods
+            // create a new scope surrounding all the class's superclass methods.
+            // only methods use "super", so it is always captured and the
+            // interpreter always boxes it.
             beginScope();
-            scopes.peek().put("super", true);
+            defineImplicit("super");
         }
 
         // whenever a "this" expression is encountered (at least inside a method)
-        // it will resolve to a “local variable” defined in an implicit scope
-        // just outside the block for the method body.
-        beginScope();
-        scopes.peek().put("this", true);
-
+        // it will resolve to a “local variable” in the first slot of the method.
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.lexeme().equals("init")) {
                 declaration = FunctionType.INITIALIZER;
             }
 
             resolveFunction(method, declaration);
         }
-        endScope();
 
         if (stmt.superclass != null) endScope();
 
@@ -115,6 +180,25 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitForStmt(Stmt.For stmt) {
+        // like a block, the loop only gets a scope when it declares its variable
+        boolean declares = stmt.initializer instanceof Stmt.Var;
+        if (declares) beginScope();
+
+        if (stmt.initializer != null) resolve(stmt.initializer);
+        if (stmt.condition != null) resolve(stmt.condition);
+        if (stmt.increment != null) resolve(stmt.increment);
+        resolve(stmt.body);
+
+        if (declares) {
+            Map<String, Local> scope = endScope();
+            stmt.slotCount = scope.size();
+            stmt.captured = captured(scope);
+        }
+        return null;
+    }
+
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
         // define the name eagerly, before resolving the function’s body.
@@ -144,16 +228,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword,
+                error(stmt.keyword,
                         "Can't return a value from an initializer.");
             }
 
             resolve(stmt.value);
+
+            // nothing is left to do in the function once the call returns,
+            // so the call can take over the function's frame
+            stmt.tailCall = stmt.value instanceof Expr.Call &&
+                    currentFunction != FunctionType.NONE;
         }
 
         return null;
@@ -181,7 +270,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        if (!resolveLocal(expr, expr.name)) {
+            expr.global = interpreter.globals.cell(expr.name.lexeme());
+        }
         return null;
     }
 
@@ -189,6 +280,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        expr.leftNumeric = isNumeric(expr.left);
+        expr.rightNumeric = isNumeric(expr.right);
         return null;
     }
 
@@ -206,6 +299,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitGetExpr(Expr.Get expr) {
         resolve(expr.object);
+        // properties are looked up dynamically, the site only gets a cache
+        expr.cache = new InlineCache();
         return null;
     }
 
@@ -225,13 +320,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
-                scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
+                scopes.peek().containsKey(expr.name.lexeme()) &&
+                !scopes.peek().get(expr.name.lexeme()).defined) {
             // that means we have declared it but not yet defined it
-            Lox.error(expr.name,
+            error(expr.name,
                     "Can't read local variable in its own initializer.");
         }
 
-        resolveLocal(expr, expr.name);
+        if (!resolveLocal(expr, expr.name)) {
+            expr.global = interpreter.globals.cell(expr.name.lexeme());
+        }
         return null;
     }
 
@@ -246,29 +344,35 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitSetExpr(Expr.Set expr) {
         resolve(expr.value);
         resolve(expr.object);
+        expr.cache = new InlineCache();
         return null;
     }
 
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'super' in a class with no superclass.");
         }
 
         // resolve it exactly like any other local variable, because
         // superclass stored in a specific environment
         resolveLocal(expr, expr.keyword);
+
+        // the method is bound to "this", which is resolved on its own
+        // because the two are not in the same function's scopes.
+        expr.receiver = new Expr.This(new Token(TokenType.THIS, "this", expr.keyword));
+        resolve(expr.receiver);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword,
+            error(expr.keyword,
                     "Can't use 'this' outside of a class.");
             return null;
         }
@@ -282,6 +386,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
+        expr.rightNumeric = isNumeric(expr.right);
         return null;
     }
 
@@ -296,12 +401,48 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expr.accept(this);
     }
 
+    private void error(Token token, String message) {
+        hadError = true;
+        Lox.error(token, message);
+    }
+
     private void beginScope() {
-        scopes.push(new HashMap<String, Boolean>());
+        scopes.push(new IdentityHashMap<String, Local>());
     }
 
-    private void endScope() {
-        scopes.pop();
+    /**
+     * pops the innermost scope. now that it is known which of its variables are
+     * captured, the references to them get their Location.
+     *
+     * @return the popped scope
+     */
+    private Map<String, Local> endScope() {
+        Map<String, Local> scope = scopes.pop();
+        for (Local local : scope.values()) {
+            for (Reference reference : local.references) {
+                setLocation(reference.expr, new Location(reference.depth,
+                        local.slot, local.captured, false));
+            }
+        }
+
+        return scope;
+    }
+
+    /**
+     * marks which slots of the scope's environment hold a boxed variable
+     *
+     * @param scope
+     * @return null if nothing in the scope is captured
+     */
+    private boolean[] captured(Map<String, Local> scope) {
+        boolean[] captured = null;
+        for (Local local : scope.values()) {
+            if (!local.captured) continue;
+            if (captured == null) captured = new boolean[scope.size()];
+            captured[local.slot] = true;
+        }
+
+        return captured;
     }
 
     /**
@@ -313,26 +454,67 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void declare(Token name) {
         if (scopes.isEmpty()) return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name,
+        Map<String, Local> scope = scopes.peek();
+        if (scope.containsKey(name.lexeme())) {
+            error(name,
                     "Already a variable with this name in this scope.");
         }
 
-        // value associated with a key in the scope map represents
-        // whether we have finished resolving that variable’s initializer.
-        // so here is false.
-        scope.put(name.lexeme, false);
+        // slots are handed out in declaration order, which is also the
+        // order the interpreter defines the variables at runtime.
+        // the new local is not defined until its initializer is resolved.
+        scope.put(name.lexeme(), new Local(scope.size()));
     }
 
     /**
-     * set value to true to mark it as fully initialized and available for use
+     * mark the variable as fully initialized and available for use
      *
      * @param name
      */
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme()).defined = true;
+    }
+
+    /**
+     * declares and defines a variable the interpreter creates itself, like "this"
+     *
+     * @param name
+     */
+    private void defineImplicit(String name) {
+        Map<String, Local> scope = scopes.peek();
+        Local local = new Local(scope.size());
+        local.defined = true;
+        scope.put(name, local);
+    }
+
+    /**
+     * finds or adds the upvalue through which the function captures the local,
+     * which is declared in the scope at the given index of the scope stack.
+     * every function in between captures the variable too, to pass it on.
+     *
+     * @return index of the upvalue in the function's closure
+     */
+    private int resolveUpvalue(FunctionFrame frame, Local local, int scopeIndex) {
+        Integer index = frame.captures.get(local);
+        if (index != null) return index;
+
+        FunctionFrame enclosing = frame.enclosing;
+        Upvalue.Source source;
+        if (scopeIndex >= enclosing.scopeBase) {
+            // a local of the enclosing function, counted from the
+            // scope the function is declared in
+            local.captured = true;
+            source = new Upvalue.Source(true,
+                    frame.scopeBase - 1 - scopeIndex, local.slot);
+        } else {
+            source = new Upvalue.Source(false, 0,
+                    resolveUpvalue(enclosing, local, scopeIndex));
+        }
+
+        frame.upvalues.add(source);
+        frame.captures.put(local, frame.upvalues.size() - 1);
+        return frame.upvalues.size() - 1;
     }
 
     /**
@@ -341,17 +523,97 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
      *
      * @param expr
      * @param name
+     * @return false if the variable was not found, so it must be global
      */
-    private void resolveLocal(Expr expr, Token name) {
+    private boolean resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                // pass the expression and the distance from the
-                // innermost scope to where the variable was found.
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            Local local = scopes.get(i).get(name.lexeme());
+            if (local != null) {
+                if (i >= currentFrame.scopeBase) {
+                    // keep the expression and the distance from the innermost
+                    // scope to where the variable was found.
+                    local.references.add(
+                            new Reference(expr, scopes.size() - 1 - i));
+                } else {
+                    // declared in an enclosing function
+                    setLocation(expr, new Location(0,
+                            resolveUpvalue(currentFrame, local, i), false, true));
+                }
+                return true;
             }
         }
         // If not found. Assume it is global.
+        return false;
+    }
+
+    /**
+     * checks if the expression can only produce a number (or fail with a runtime error),
+     * the interpreter evaluates those without boxing the intermediate values
+     *
+     * @param expr
+     * @return
+     */
+    static boolean isNumeric(Expr expr) {
+        if (expr instanceof Expr.Literal) {
+            return ((Expr.Literal) expr).value instanceof Double;
+        }
+        if (expr instanceof Expr.Grouping) {
+            return isNumeric(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Unary) {
+            return ((Expr.Unary) expr).operator.type == TokenType.MINUS;
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            switch (binary.operator.type) {
+                case MINUS:
+                case SLASH:
+                case STAR:
+                    return true;
+                case PLUS:
+                    // with a number on either side, anything but an addition is an error
+                    return binary.leftNumeric || binary.rightNumeric;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * checks if any of the statements declares a variable in the scope they are in
+     *
+     * @param statements
+     * @return
+     */
+    private boolean declaresVariables(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Var ||
+                    statement instanceof Stmt.Function ||
+                    statement instanceof Stmt.Class) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * stores where a local variable lives on the expression
+     * that reads or assigns it
+     *
+     * @param expr
+     * @param location
+     */
+    private void setLocation(Expr expr, Location location) {
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).location = location;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign) expr).location = location;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This) expr).location = location;
+        } else if (expr instanceof Expr.Super) {
+            ((Expr.Super) expr).location = location;
+        }
     }
 
     /**
@@ -367,15 +629,26 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         // because we have local functions, we need to handle nested functions
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        currentFrame = new FunctionFrame(currentFrame, scopes.size());
 
         beginScope();
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            // the instance a method is bound to goes in its first slot
+            defineImplicit("this");
+        }
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
-        endScope();
-        // restore the field to its previous value
+        // parameters and the body's top-level declarations share one environment
+        Map<String, Local> scope = endScope();
+        function.slotCount = scope.size();
+        function.captured = captured(scope);
+        function.upvalues = currentFrame.upvalues.toArray(new Upvalue.Source[0]);
+
+        // restore the fields to their previous value
+        currentFrame = currentFrame.enclosing;
         currentFunction = enclosingFunction;
     }
 }
@@ -1,19 +1,58 @@
 package com.kingsman.jlox;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import static com.kingsman.jlox.TokenType.*;
 
-public class Scanner {
+/**
+ * Turns the source into tokens, one at a time as the parser asks for them.
+ *
+ * The characters go through a small buffer, filled either from a source held
+ * in memory or from a Reader. Tokens of an in-memory source refer to it by
+ * offset. A Reader's characters are gone once the buffer moves on, so its
+ * tokens keep their symbol, their fixed text or their literal instead. Either
+ * way the scanner holds on to no more of the source than the token it is in
+ * the middle of.
+ */
+public class Scanner implements Iterator<Token> {
+    // the size the buffer starts at, it only grows for a longer token
+    private static final int CHUNK = 8192;
+    // the source when it is in memory, null when it is read from the reader
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
+    private final Reader reader;
+    private char[] buffer;
+    // the number of characters in the buffer
+    private int limit = 0;
+    // the offset in the source of the buffer's first character
+    private long position = 0;
+    // start and current are indices into the buffer
     private int start = 0;
     private int current = 0;
-    private int line = 1;
+    private int line;
+    // given to the tokens, so the IncrementalParser can move their lines, or null
+    private final Token.Shift shift;
+    // whether errors go to Lox.error(), a scanner that doesn't report them only notes them
+    private final boolean report;
+    boolean hadError = false;
+    // the token the last scanToken() made, if it made one
+    private Token token;
+    private boolean done = false;
+    // the names seen so far, starting with the keywords
+    private final Symbols symbols = new Symbols(keywordSymbols);
     private static final Map<String, TokenType> keywords;
+    private static final Symbols keywordSymbols;
+    // the text of the tokens that always have the same one, for the tokens of a reader
+    private static final Map<TokenType, String> punctuation;
 
     static {
         keywords = new HashMap<>();
@@ -33,21 +72,116 @@ public class Scanner {
         keywords.put("true",   TRUE);
         keywords.put("var",    VAR);
         keywords.put("while",  WHILE);
+        keywordSymbols = new Symbols(keywords);
+
+        punctuation = new EnumMap<>(TokenType.class);
+        punctuation.put(LEFT_PAREN,    "(");
+        punctuation.put(RIGHT_PAREN,   ")");
+        punctuation.put(LEFT_BRACE,    "{");
+        punctuation.put(RIGHT_BRACE,   "}");
+        punctuation.put(COMMA,         ",");
+        punctuation.put(DOT,           ".");
+        punctuation.put(MINUS,         "-");
+        punctuation.put(PLUS,          "+");
+        punctuation.put(SEMICOLON,     ";");
+        punctuation.put(SLASH,         "/");
+        punctuation.put(STAR,          "*");
+        punctuation.put(BANG,          "!");
+        punctuation.put(BANG_EQUAL,    "!=");
+        punctuation.put(EQUAL,         "=");
+        punctuation.put(EQUAL_EQUAL,   "==");
+        punctuation.put(GREATER,       ">");
+        punctuation.put(GREATER_EQUAL, ">=");
+        punctuation.put(LESS,          "<");
+        punctuation.put(LESS_EQUAL,    "<=");
+    }
+
+    /**
+     * @param type
+     * @return the text every token of the type has, null for identifiers and literals
+     */
+    static String text(TokenType type) {
+        String text = punctuation.get(type);
+        if (text != null) return text;
+        for (Map.Entry<String, TokenType> keyword : keywords.entrySet()) {
+            if (keyword.getValue() == type) return keyword.getKey();
+        }
+
+        return null;
     }
 
     Scanner(String source) {
+        this(source, 1, true, null);
+    }
+
+    /**
+     * @param source
+     * @param line the line the source starts on
+     * @param report
+     * @param shift shared by all the tokens, null if they never move
+     */
+    Scanner(String source, int line, boolean report, Token.Shift shift) {
         this.source = source;
+        this.reader = null;
+        this.line = line;
+        this.shift = shift;
+        this.report = report;
+        // a short source needs no more than its own length
+        this.buffer = new char[Math.min(CHUNK, source.length() + 1)];
+    }
+
+    Scanner(Reader reader) {
+        this.source = null;
+        this.reader = reader;
+        this.line = 1;
+        this.shift = null;
+        this.report = true;
+        this.buffer = new char[CHUNK];
     }
 
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        List<Token> tokens = new ArrayList<>();
+        while (hasNext()) {
+            tokens.add(next());
+        }
+
+        return tokens;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !done;
+    }
+
+    /**
+     * scans the next token, the last one is EOF
+     *
+     * @return
+     */
+    @Override
+    public Token next() {
+        if (done) throw new NoSuchElementException();
+
+        token = null;
+        while (token == null) {
+            if (isAtEnd()) {
+                done = true;
+                return new Token(EOF, null, 0, 0, "", null, line, shift);
+            }
+
             // at the beginning of the next lexeme.
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        return token;
+    }
+
+    /**
+     * the number of characters scanned so far
+     */
+    long scanned() {
+        return position + current;
     }
 
     private void scanToken() {
@@ -124,12 +258,17 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    error("Unexpected character.");
                 }
                 break;
         }
     }
 
+    private void error(String message) {
+        hadError = true;
+        if (report) Lox.error(line, message);
+    }
+
     /**
      * infer the alpha token
      *
@@ -162,7 +301,7 @@ public class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            error("Unterminated string.");
             return;
         }
 
@@ -170,7 +309,7 @@ public class Scanner {
         advance();
 
         // Trim the surrounding quotes.
-        String value = source.substring(start + 1, current - 1);
+        String value = new String(buffer, start + 1, current - start - 2);
         addToken(STRING, value);
     }
 
@@ -180,8 +319,8 @@ public class Scanner {
      * @return
      */
     private char advance() {
-        current++;
-        return source.charAt(current - 1);
+        if (current >= limit) fill();
+        return buffer[current++];
     }
 
     /**
@@ -189,8 +328,46 @@ public class Scanner {
      *
      * @return
      */
-    private Boolean isAtEnd() {
-        return current >= source.length();
+    private boolean isAtEnd() {
+        return current >= limit && !fill();
+    }
+
+    /**
+     * reads more characters into the buffer, keeping the lexeme being scanned.
+     * the buffer is compacted first, so its indices move with it.
+     *
+     * @return false if the source has no more characters
+     */
+    private boolean fill() {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, limit - start);
+            position += start;
+            limit -= start;
+            current -= start;
+            start = 0;
+        }
+        if (limit == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+
+        int read;
+        if (source != null) {
+            // the characters left in the source, never more than fit
+            long offset = position + limit;
+            read = (int)Math.min(buffer.length - limit, source.length() - offset);
+            if (read <= 0) return false;
+            source.getChars((int)offset, (int)offset + read, buffer, limit);
+        } else {
+            try {
+                do {
+                    read = reader.read(buffer, limit, buffer.length - limit);
+                } while (read == 0);
+            } catch (IOException error) {
+                throw new UncheckedIOException(error);
+            }
+            if (read < 0) return false;
+        }
+
+        limit += read;
+        return true;
     }
 
     private void addToken(TokenType type) {
@@ -198,14 +375,21 @@ public class Scanner {
     }
 
     /**
-     * grabs the text of the current lexeme and creates a new token for it.
+     * creates a new token for the current lexeme, a token of an in-memory
+     * source only keeps where it is in the source.
      *
      * @param type
      * @param literal
      */
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        int length = current - start;
+        if (source != null) {
+            token = new Token(type, source, (int)(position + start), length, null, literal, line, shift);
+        } else if (type == NUMBER || type == STRING) {
+            token = new Token(type, literal, line);
+        } else {
+            token = new Token(type, punctuation.get(type), literal, line);
+        }
     }
 
     /**
@@ -217,7 +401,7 @@ public class Scanner {
      */
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (buffer[current] != expected) return false;
 
         current++;
         return true;
@@ -230,15 +414,17 @@ public class Scanner {
      */
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return buffer[current];
     }
 
     /**
      * further more
      */
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        while (current + 1 >= limit) {
+            if (!fill()) return '\0';
+        }
+        return buffer[current + 1];
     }
 
     /**
@@ -255,7 +441,9 @@ public class Scanner {
      * deals with number token
      */
     private void number() {
-        while (isDigit(peek())) advance();
+        // an integer is summed up digit by digit, which is exact below 2^53
+        double value = buffer[start] - '0';
+        while (isDigit(peek())) value = value * 10 + (advance() - '0');
 
         // Look for a fractional part.
         if (peek() == '.' && isDigit(peekNext())) {
@@ -263,9 +451,13 @@ public class Scanner {
             advance();
 
             while (isDigit(peek())) advance();
+            // the sum would round differently, so leave fractions to the library
+            value = Double.parseDouble(new String(buffer, start, current - start));
+        } else if (current - start > 15) {
+            value = Double.parseDouble(new String(buffer, start, current - start));
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, value);
     }
 
     /**
@@ -274,9 +466,12 @@ public class Scanner {
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = IDENTIFIER;
-        addToken(type);
+        Symbols.Symbol symbol = symbols.lookup(buffer, start, current);
+        if (source != null) {
+            token = new Token(symbol.type, source, (int)(position + start), current - start,
+                    symbol.name, null, line, shift);
+        } else {
+            token = new Token(symbol.type, symbol.name, null, line);
+        }
     }
 }
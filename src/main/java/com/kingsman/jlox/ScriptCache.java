@@ -0,0 +1,849 @@
+package com.kingsman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A script's resolved tree, kept in a .loxc file next to the script so that
+ * the next run can skip scanning, parsing and resolving it.
+ *
+ * The file starts with the SHA-256 of the script's bytes and is only used for a
+ * script with exactly that hash. It holds every name and string once, then the
+ * statements in prefix order, each node a tag byte followed by its fields and
+ * what the Resolver filled in: locations, slot counts, captured slots, upvalue
+ * sources and the flags of numeric operands and tail calls. A token is its
+ * type, the index of its name if it is an identifier, and its line as the
+ * difference to the previous token's.
+ *
+ * Global variables are looked up by name again when the tree is read, their
+ * cells belong to the interpreter the script runs on.
+ *
+ * The tree is saved as the Resolver left it, before the Optimizer rewrites it.
+ * A run from the cache optimizes it again, like a run that parsed the script,
+ * so the file is the same with or without --no-optimize and a change to the
+ * Optimizer never needs a new VERSION.
+ */
+final class ScriptCache {
+    private static final int MAGIC = 0x4c4f5843; // "LOXC"
+    // raised whenever the layout changes, files of another version are ignored
+    private static final int VERSION = 1;
+
+    private ScriptCache() {}
+
+    /**
+     * @param script
+     * @return the cache file of the script
+     */
+    static Path pathOf(Path script) {
+        return script.resolveSibling(script.getFileName() + "c");
+    }
+
+    /**
+     * @param source the script's bytes
+     * @return the hash its cache file has to start with
+     */
+    static byte[] hash(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch (NoSuchAlgorithmException error) {
+            // every Java platform has SHA-256
+            throw new IllegalStateException(error);
+        }
+    }
+
+    /**
+     * @param path
+     * @param hash
+     * @param interpreter the one the statements will run on, globals are found in it
+     * @return the resolved statements, or null if there is no usable cache file
+     */
+    static List<Stmt> load(Path path, byte[] hash, Interpreter interpreter) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(path);
+        } catch (IOException error) {
+            return null;
+        }
+
+        Decoder decoder = new Decoder(bytes, interpreter);
+        try {
+            if (decoder.int32() != MAGIC || decoder.int32() != VERSION) return null;
+            if (!Arrays.equals(decoder.bytes(hash.length), hash)) return null;
+            return decoder.script();
+        } catch (IOException | RuntimeException error) {
+            // a file cut short or written by something else, the script is parsed instead
+            return null;
+        }
+    }
+
+    /**
+     * writes the statements to the cache file, leaving it as it was if that fails
+     *
+     * @param path
+     * @param hash
+     * @param statements resolved, and not yet optimized
+     */
+    static void save(Path path, byte[] hash, List<Stmt> statements) {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        Encoder.int32(header, MAGIC);
+        Encoder.int32(header, VERSION);
+        header.writeBytes(hash);
+        byte[] tree = encode(statements);
+
+        Path temporary = null;
+        try {
+            // written aside and moved in, so a run never reads half a file
+            temporary = Files.createTempFile(path.toAbsolutePath().getParent(), ".loxc", null);
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                header.writeTo(out);
+                out.write(tree);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException error) {
+            // without the cache the next run only takes longer
+            if (temporary != null) {
+                try {
+                    Files.deleteIfExists(temporary);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * @param statements
+     * @return what follows the hash in a cache file, the names and strings and
+     * then the statements. Two trees that are the same give the same bytes.
+     */
+    static byte[] encode(List<Stmt> statements) {
+        Encoder encoder = new Encoder();
+        encoder.stmts(statements);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Encoder.varint(out, encoder.strings.size());
+        for (String string : encoder.strings) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            Encoder.varint(out, utf8.length);
+            out.writeBytes(utf8);
+        }
+        out.writeBytes(encoder.out.toByteArray());
+        return out.toByteArray();
+    }
+
+    // the tags of the nodes, 0 stands for a missing one
+    private static final int NONE = 0;
+
+    private static final int ASSIGN = 1;
+    private static final int BINARY = 2;
+    private static final int CALL = 3;
+    private static final int GET = 4;
+    private static final int GROUPING = 5;
+    private static final int LITERAL = 6;
+    private static final int LOGICAL = 7;
+    private static final int SET = 8;
+    private static final int SUPER = 9;
+    private static final int THIS = 10;
+    private static final int UNARY = 11;
+    private static final int VARIABLE = 12;
+
+    private static final int BLOCK = 1;
+    private static final int CLASS = 2;
+    private static final int EXPRESSION = 3;
+    private static final int FOR = 4;
+    private static final int FUNCTION = 5;
+    private static final int IF = 6;
+    private static final int PRINT = 7;
+    private static final int RETURN = 8;
+    private static final int VAR = 9;
+    private static final int WHILE = 10;
+
+    // the kinds of literal values
+    private static final int NIL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int NUMBER = 3;
+    private static final int STRING = 4;
+    // a number that is an int, written as a varint rather than as its eight bytes
+    private static final int INTEGER = 5;
+
+    private static final TokenType[] TYPES = TokenType.values();
+    // the lexemes of the types whose tokens all have the same one, by ordinal
+    private static final String[] TEXTS = new String[TYPES.length];
+
+    static {
+        for (TokenType type : TYPES) {
+            TEXTS[type.ordinal()] = Scanner.text(type);
+        }
+    }
+
+    // the bits of a location's first byte, 0 when there is no location
+    private static final int LOCAL = 1;
+    private static final int BOXED = 2;
+    private static final int UPVALUE = 4;
+
+    /**
+     * writes the tree, collecting the names and strings it uses
+     */
+    private static final class Encoder implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> indices = new HashMap<>();
+        private int line = 0;
+
+        static void int32(ByteArrayOutputStream out, int value) {
+            out.write(value >>> 24);
+            out.write(value >>> 16);
+            out.write(value >>> 8);
+            out.write(value);
+        }
+
+        // seven bits at a time, the lowest first, a negative number takes five bytes
+        static void varint(ByteArrayOutputStream out, int value) {
+            while ((value & ~0x7f) != 0) {
+                out.write((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        private void varint(int value) {
+            varint(out, value);
+        }
+
+        private void bool(boolean value) {
+            out.write(value ? 1 : 0);
+        }
+
+        private void string(String string) {
+            Integer index = indices.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                indices.put(string, index);
+            }
+            varint(index);
+        }
+
+        private void token(Token token) {
+            out.write(token.type.ordinal());
+            if (TEXTS[token.type.ordinal()] == null) string(token.lexeme());
+            // zigzag, so a line before the previous one is small too
+            int delta = token.line() - line;
+            varint((delta << 1) ^ (delta >> 31));
+            line = token.line();
+        }
+
+        private void tokens(List<Token> tokens) {
+            varint(tokens.size());
+            for (Token token : tokens) {
+                token(token);
+            }
+        }
+
+        private void location(Location location) {
+            if (location == null) {
+                out.write(NONE);
+                return;
+            }
+            out.write(LOCAL | (location.boxed ? BOXED : 0) | (location.upvalue ? UPVALUE : 0));
+            varint(location.depth);
+            varint(location.slot);
+        }
+
+        private void captured(boolean[] captured) {
+            if (captured == null) {
+                varint(0);
+                return;
+            }
+            varint(captured.length + 1);
+            for (boolean slot : captured) {
+                bool(slot);
+            }
+        }
+
+        private void expr(Expr expr) {
+            if (expr == null) {
+                out.write(NONE);
+            } else {
+                expr.accept(this);
+            }
+        }
+
+        private void exprs(List<Expr> exprs) {
+            varint(exprs.size());
+            for (Expr expr : exprs) {
+                expr(expr);
+            }
+        }
+
+        private void stmt(Stmt stmt) {
+            if (stmt == null) {
+                out.write(NONE);
+            } else {
+                stmt.accept(this);
+            }
+        }
+
+        void stmts(List<Stmt> stmts) {
+            varint(stmts.size());
+            for (Stmt stmt : stmts) {
+                stmt(stmt);
+            }
+        }
+
+        /**
+         * a function without its tag, as a class has nothing else among its methods
+         */
+        private void function(Stmt.Function stmt) {
+            token(stmt.name);
+            tokens(stmt.params);
+            stmts(stmt.body);
+            varint(stmt.slotCount);
+            captured(stmt.captured);
+            varint(stmt.upvalues.length);
+            for (Upvalue.Source source : stmt.upvalues) {
+                bool(source.isLocal);
+                varint(source.depth);
+                varint(source.index);
+            }
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            out.write(ASSIGN);
+            token(expr.name);
+            expr(expr.value);
+            location(expr.location);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            out.write(BINARY);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            bool(expr.leftNumeric);
+            bool(expr.rightNumeric);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            out.write(CALL);
+            expr(expr.callee);
+            token(expr.paren);
+            exprs(expr.arguments);
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            out.write(GET);
+            expr(expr.object);
+            token(expr.name);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            out.write(GROUPING);
+            expr(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            out.write(LITERAL);
+            Object value = expr.value;
+            if (value == null) {
+                out.write(NIL);
+            } else if (value instanceof Boolean) {
+                out.write((Boolean)value ? TRUE : FALSE);
+            } else if (value instanceof Double && isInt((Double)value)) {
+                out.write(INTEGER);
+                int number = (int)(double)(Double)value;
+                varint((number << 1) ^ (number >> 31));
+            } else if (value instanceof Double) {
+                out.write(NUMBER);
+                long bits = Double.doubleToRawLongBits((Double)value);
+                varint((int)(bits >>> 32));
+                varint((int)bits);
+            } else {
+                out.write(STRING);
+                string((String)value);
+            }
+            return null;
+        }
+
+        /**
+         * whether the number is an int, and turns back into the same double
+         */
+        private static boolean isInt(double value) {
+            // -0.0 prints differently from 0
+            return value == (int)value && Double.doubleToRawLongBits(value) != Double.doubleToRawLongBits(-0.0);
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            out.write(LOGICAL);
+            expr(expr.left);
+            token(expr.operator);
+            expr(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            out.write(SET);
+            expr(expr.object);
+            token(expr.name);
+            expr(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            out.write(SUPER);
+            token(expr.keyword);
+            token(expr.method);
+            expr(expr.receiver);
+            location(expr.location);
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            out.write(THIS);
+            token(expr.keyword);
+            location(expr.location);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            out.write(UNARY);
+            token(expr.operator);
+            expr(expr.right);
+            bool(expr.rightNumeric);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            out.write(VARIABLE);
+            token(expr.name);
+            location(expr.location);
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            out.write(BLOCK);
+            stmts(stmt.statements);
+            varint(stmt.slotCount);
+            captured(stmt.captured);
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            out.write(CLASS);
+            token(stmt.name);
+            expr(stmt.superclass);
+            varint(stmt.methods.size());
+            for (Stmt.Function method : stmt.methods) {
+                function(method);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            out.write(EXPRESSION);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitForStmt(Stmt.For stmt) {
+            out.write(FOR);
+            stmt(stmt.initializer);
+            expr(stmt.condition);
+            expr(stmt.increment);
+            stmt(stmt.body);
+            varint(stmt.slotCount);
+            captured(stmt.captured);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            out.write(FUNCTION);
+            function(stmt);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            out.write(IF);
+            expr(stmt.condition);
+            stmt(stmt.thenBranch);
+            stmt(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            out.write(PRINT);
+            expr(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            out.write(RETURN);
+            token(stmt.keyword);
+            expr(stmt.value);
+            bool(stmt.tailCall);
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            out.write(VAR);
+            token(stmt.name);
+            expr(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            out.write(WHILE);
+            expr(stmt.condition);
+            stmt(stmt.body);
+            return null;
+        }
+    }
+
+    /**
+     * reads a tree the Encoder wrote, in the same order
+     */
+    private static final class Decoder {
+        private final byte[] bytes;
+        private final Interpreter interpreter;
+        private int position = 0;
+        private String[] strings;
+        private int line = 0;
+
+        Decoder(byte[] bytes, Interpreter interpreter) {
+            this.bytes = bytes;
+            this.interpreter = interpreter;
+        }
+
+        List<Stmt> script() throws IOException {
+            strings = new String[count()];
+            for (int i = 0; i < strings.length; i++) {
+                int length = varint();
+                // names are compared by identity, like the scanner's symbols
+                strings[i] = new String(bytes, position, length, StandardCharsets.UTF_8).intern();
+                position += length;
+            }
+
+            List<Stmt> statements = stmts();
+            if (position != bytes.length) throw new IOException("Trailing bytes.");
+            return statements;
+        }
+
+        int int32() {
+            int value = 0;
+            for (int i = 0; i < 4; i++) {
+                value = (value << 8) | byte8();
+            }
+            return value;
+        }
+
+        byte[] bytes(int length) {
+            byte[] result = Arrays.copyOfRange(bytes, position, position + length);
+            position += length;
+            return result;
+        }
+
+        private int byte8() {
+            return bytes[position++] & 0xff;
+        }
+
+        private int varint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = byte8();
+                value |= (b & 0x7f) << shift;
+                if (b < 0x80) return value;
+            }
+        }
+
+        /**
+         * reads the length of something that takes at least a byte per element
+         */
+        private int count() throws IOException {
+            return fits(varint());
+        }
+
+        /**
+         * @param count of elements of at least a byte each, still to be read
+         * @throws IOException if there aren't as many bytes left, so that a
+         * corrupt file can't make the decoder allocate more than the file holds
+         */
+        private int fits(int count) throws IOException {
+            if (count < 0 || count > bytes.length - position) throw new IOException("Bad count.");
+            return count;
+        }
+
+        private boolean bool() {
+            return byte8() != 0;
+        }
+
+        private Token token() {
+            TokenType type = TYPES[byte8()];
+            String lexeme = TEXTS[type.ordinal()];
+            if (lexeme == null) lexeme = strings[varint()];
+            int delta = varint();
+            line += (delta >>> 1) ^ -(delta & 1);
+            return new Token(type, lexeme, null, line);
+        }
+
+        private List<Token> tokens() throws IOException {
+            int count = count();
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+
+        private Location location() {
+            int flags = byte8();
+            if (flags == NONE) return null;
+            int depth = varint();
+            int slot = varint();
+            return new Location(depth, slot, (flags & BOXED) != 0, (flags & UPVALUE) != 0);
+        }
+
+        private boolean[] captured() throws IOException {
+            int length = varint() - 1;
+            if (length < 0) return null;
+            boolean[] captured = new boolean[fits(length)];
+            for (int i = 0; i < length; i++) {
+                captured[i] = bool();
+            }
+            return captured;
+        }
+
+        private List<Expr> exprs() throws IOException {
+            int count = count();
+            List<Expr> exprs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                exprs.add(expr());
+            }
+            return exprs;
+        }
+
+        List<Stmt> stmts() throws IOException {
+            int count = count();
+            List<Stmt> stmts = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                stmts.add(stmt());
+            }
+            return stmts;
+        }
+
+        private Stmt.Function function() throws IOException {
+            Token name = token();
+            List<Token> params = tokens();
+            List<Stmt> body = stmts();
+            Stmt.Function function = new Stmt.Function(name, params, body);
+            function.slotCount = varint();
+            function.captured = captured();
+            function.upvalues = new Upvalue.Source[count()];
+            for (int i = 0; i < function.upvalues.length; i++) {
+                boolean isLocal = bool();
+                int depth = varint();
+                function.upvalues[i] = new Upvalue.Source(isLocal, depth, varint());
+            }
+            return function;
+        }
+
+        /**
+         * the arguments of a constructor are read in the order they are written
+         */
+        private Expr expr() throws IOException {
+            int tag = byte8();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case ASSIGN: {
+                    Token name = token();
+                    Expr.Assign expr = new Expr.Assign(name, expr());
+                    expr.location = location();
+                    // the Resolver gives the cell to what isn't a local
+                    if (expr.location == null) expr.global = interpreter.globals.cell(name.lexeme());
+                    return expr;
+                }
+                case BINARY: {
+                    Expr left = expr();
+                    Token operator = token();
+                    Expr.Binary expr = new Expr.Binary(left, operator, expr());
+                    expr.leftNumeric = bool();
+                    expr.rightNumeric = bool();
+                    return expr;
+                }
+                case CALL: {
+                    Expr callee = expr();
+                    Token paren = token();
+                    return new Expr.Call(callee, paren, exprs());
+                }
+                case GET: {
+                    Expr object = expr();
+                    Expr.Get expr = new Expr.Get(object, token());
+                    expr.cache = new InlineCache();
+                    return expr;
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expr());
+                case LITERAL:
+                    return new Expr.Literal(literal());
+                case LOGICAL: {
+                    Expr left = expr();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expr());
+                }
+                case SET: {
+                    Expr object = expr();
+                    Token name = token();
+                    Expr.Set expr = new Expr.Set(object, name, expr());
+                    expr.cache = new InlineCache();
+                    return expr;
+                }
+                case SUPER: {
+                    Token keyword = token();
+                    Expr.Super expr = new Expr.Super(keyword, token());
+                    expr.receiver = (Expr.This)expr();
+                    expr.location = location();
+                    return expr;
+                }
+                case THIS: {
+                    Expr.This expr = new Expr.This(token());
+                    expr.location = location();
+                    return expr;
+                }
+                case UNARY: {
+                    Token operator = token();
+                    Expr.Unary expr = new Expr.Unary(operator, expr());
+                    expr.rightNumeric = bool();
+                    return expr;
+                }
+                case VARIABLE: {
+                    Expr.Variable expr = new Expr.Variable(token());
+                    expr.location = location();
+                    if (expr.location == null) expr.global = interpreter.globals.cell(expr.name.lexeme());
+                    return expr;
+                }
+            }
+
+            throw new IOException("Unknown expression " + tag + ".");
+        }
+
+        private Object literal() throws IOException {
+            int kind = byte8();
+            switch (kind) {
+                case NIL: return null;
+                case TRUE: return true;
+                case FALSE: return false;
+                case NUMBER: {
+                    long high = varint() & 0xffffffffL;
+                    long low = varint() & 0xffffffffL;
+                    return Double.longBitsToDouble((high << 32) | low);
+                }
+                case STRING: return strings[varint()];
+                case INTEGER: {
+                    int zigzag = varint();
+                    return (double)((zigzag >>> 1) ^ -(zigzag & 1));
+                }
+            }
+
+            throw new IOException("Unknown literal " + kind + ".");
+        }
+
+        private Stmt stmt() throws IOException {
+            int tag = byte8();
+            switch (tag) {
+                case NONE:
+                    return null;
+                case BLOCK: {
+                    Stmt.Block stmt = new Stmt.Block(stmts());
+                    stmt.slotCount = varint();
+                    stmt.captured = captured();
+                    return stmt;
+                }
+                case CLASS: {
+                    Token name = token();
+                    Expr.Variable superclass = (Expr.Variable)expr();
+                    int count = count();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        methods.add(function());
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case EXPRESSION:
+                    return new Stmt.Expression(expr());
+                case FOR: {
+                    Stmt initializer = stmt();
+                    Expr condition = expr();
+                    Expr increment = expr();
+                    Stmt.For stmt = new Stmt.For(initializer, condition, increment, stmt());
+                    stmt.slotCount = varint();
+                    stmt.captured = captured();
+                    return stmt;
+                }
+                case FUNCTION:
+                    return function();
+                case IF: {
+                    Expr condition = expr();
+                    Stmt thenBranch = stmt();
+                    return new Stmt.If(condition, thenBranch, stmt());
+                }
+                case PRINT:
+                    return new Stmt.Print(expr());
+                case RETURN: {
+                    Token keyword = token();
+                    Stmt.Return stmt = new Stmt.Return(keyword, expr());
+                    stmt.tailCall = bool();
+                    return stmt;
+                }
+                case VAR: {
+                    Token name = token();
+                    return new Stmt.Var(name, expr());
+                }
+                case WHILE: {
+                    Expr condition = expr();
+                    return new Stmt.While(condition, stmt());
+                }
+            }
+
+            throw new IOException("Unknown statement " + tag + ".");
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.kingsman.jlox;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The layout of an instance's fields, also known as a hidden class.
+ *
+ * Instances that get the same fields in the same order share one shape, which maps
+ * each field name to an index in the instances' field arrays. Adding a field moves
+ * an instance along a transition to the next shape, and every instance that adds
+ * the same field after it takes the same transition.
+ */
+class Shape {
+    // field names mapped to their index in the field array. the names are
+    // interned symbols, so both maps compare them by identity.
+    private final Map<String, Integer> indices;
+    // the shapes reached from this one by adding a field
+    private final Map<String, Shape> transitions = new IdentityHashMap<>();
+
+    /**
+     * creates an empty shape, the one every new instance of a class starts with
+     */
+    Shape() {
+        indices = new IdentityHashMap<>();
+    }
+
+    private Shape(Shape parent, String name) {
+        indices = new IdentityHashMap<>(parent.indices);
+        indices.put(name, parent.size());
+    }
+
+    /**
+     * the number of fields an instance of this shape has
+     */
+    int size() {
+        return indices.size();
+    }
+
+    /**
+     * the index of the field in the field array, -1 if the shape has no such field
+     */
+    int indexOf(String name) {
+        Integer index = indices.get(name);
+        if (index == null) return -1;
+        return index;
+    }
+
+    /**
+     * the shape an instance moves to when it gets a new field
+     */
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+
+        return next;
+    }
+}
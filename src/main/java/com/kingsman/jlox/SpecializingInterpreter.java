@@ -0,0 +1,316 @@
+package com.kingsman.jlox;
+
+import java.util.List;
+
+/**
+ * Runs the resolved tree as a tree of {@link Node}s that specialize themselves
+ * to the types they see, instead of visiting the Expr and Stmt objects.
+ *
+ * Top-level statements are translated when they run, a function's body the
+ * first time the function is called. The translated body is kept on the
+ * declaration, so every closure made from it shares the same specializations.
+ */
+class SpecializingInterpreter extends Interpreter {
+    @Override
+    void interpret(List<Stmt> statements) {
+        try {
+            Translator translator = new Translator(true);
+            for (Stmt statement : statements) {
+                translator.translate(statement).execute(null);
+            }
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+        }
+    }
+
+    @Override
+    Object executeFunction(Stmt.Function declaration, Environment environment) {
+        Node.StmtNode body = (Node.StmtNode)declaration.code;
+        if (body == null) {
+            body = new Node.Sequence(new Translator(false).translate(declaration.body));
+            declaration.code = body;
+        }
+
+        if (!body.execute(environment)) return null;
+
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
+    /**
+     * turns Expr and Stmt objects into nodes, deciding everything that
+     * doesn't depend on the values the code runs with
+     */
+    private class Translator implements Expr.Visitor<Node.ExprNode>, Stmt.Visitor<Node.StmtNode> {
+        // true while translating code that runs without an environment,
+        // whose declarations go in global cells
+        private boolean global;
+
+        Translator(boolean global) {
+            this.global = global;
+        }
+
+        Node.ExprNode translate(Expr expr) {
+            return expr.accept(this);
+        }
+
+        Node.StmtNode translate(Stmt stmt) {
+            return stmt.accept(this);
+        }
+
+        Node.StmtNode[] translate(List<Stmt> statements) {
+            Node.StmtNode[] nodes = new Node.StmtNode[statements.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = translate(statements.get(i));
+            }
+
+            return nodes;
+        }
+
+        Node.ExprNode[] translateAll(List<Expr> expressions) {
+            Node.ExprNode[] nodes = new Node.ExprNode[expressions.size()];
+            for (int i = 0; i < nodes.length; i++) {
+                nodes[i] = translate(expressions.get(i));
+            }
+
+            return nodes;
+        }
+
+        /**
+         * the node that reads a local variable from where the Resolver found it
+         */
+        private Node.ExprNode read(Location location) {
+            if (location.upvalue) return new Node.ReadUpvalue(location.slot);
+            if (location.boxed) return new Node.ReadBoxed(location.depth, location.slot);
+            if (location.depth == 0) return new Node.ReadSlot(location.slot);
+            return new Node.ReadLocal(location.depth, location.slot);
+        }
+
+        @Override
+        public Node.ExprNode visitAssignExpr(Expr.Assign expr) {
+            Node.ExprNode value = translate(expr.value);
+            Location location = expr.location;
+            if (location == null) return new Node.WriteGlobal(expr.global, expr.name, value);
+            if (location.upvalue) return new Node.WriteUpvalue(location.slot, value);
+            if (location.boxed) return new Node.WriteBoxed(location.depth, location.slot, value);
+            return new Node.WriteLocal(location.depth, location.slot, value);
+        }
+
+        @Override
+        public Node.ExprNode visitBinaryExpr(Expr.Binary expr) {
+            Node.ExprNode left = translate(expr.left);
+            Node.ExprNode right = translate(expr.right);
+
+            switch (expr.operator.type) {
+                case BANG_EQUAL: return new Node.UninitializedEqual(left, right, expr.operator, true);
+                case EQUAL_EQUAL: return new Node.UninitializedEqual(left, right, expr.operator, false);
+                case GREATER: return new Node.Greater(left, right, expr.operator);
+                case GREATER_EQUAL: return new Node.GreaterEqual(left, right, expr.operator);
+                case LESS: return new Node.Less(left, right, expr.operator);
+                case LESS_EQUAL: return new Node.LessEqual(left, right, expr.operator);
+                case MINUS: return new Node.Subtract(left, right, expr.operator);
+                case SLASH: return new Node.Divide(left, right, expr.operator);
+                case STAR: return new Node.Multiply(left, right, expr.operator);
+                case PLUS:
+                    // the Resolver already knows it is an addition
+                    if (expr.leftNumeric || expr.rightNumeric) {
+                        return new Node.NumberAdd(left, right, expr.operator);
+                    }
+                    return new Node.UninitializedAdd(left, right, expr.operator);
+            }
+
+            // Unreachable.
+            return null;
+        }
+
+        @Override
+        public Node.CallNode visitCallExpr(Expr.Call expr) {
+            Node.ExprNode[] arguments = translateAll(expr.arguments);
+            if (expr.callee instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get)expr.callee;
+                return new Node.Invoke(translate(get.object), get.name, get.cache,
+                        arguments, expr.paren, SpecializingInterpreter.this);
+            }
+
+            return Node.Call.of(translate(expr.callee), arguments,
+                    expr.paren, SpecializingInterpreter.this);
+        }
+
+        @Override
+        public Node.ExprNode visitGetExpr(Expr.Get expr) {
+            return new Node.Get(translate(expr.object), expr.name, expr.cache);
+        }
+
+        @Override
+        public Node.ExprNode visitGroupingExpr(Expr.Grouping expr) {
+            return translate(expr.expression);
+        }
+
+        @Override
+        public Node.ExprNode visitLiteralExpr(Expr.Literal expr) {
+            if (expr.value instanceof Double) return new Node.NumberConstant((double)expr.value);
+            return new Node.Constant(expr.value);
+        }
+
+        @Override
+        public Node.ExprNode visitLogicalExpr(Expr.Logical expr) {
+            Node.ExprNode left = translate(expr.left);
+            Node.ExprNode right = translate(expr.right);
+            if (expr.operator.type == TokenType.OR) {
+                return new Node.Or(left, right, expr.operator);
+            }
+            return new Node.And(left, right, expr.operator);
+        }
+
+        @Override
+        public Node.ExprNode visitSetExpr(Expr.Set expr) {
+            return new Node.Set(translate(expr.object), translate(expr.value),
+                    expr.name, expr.cache);
+        }
+
+        @Override
+        public Node.ExprNode visitSuperExpr(Expr.Super expr) {
+            return new Node.Super(read(expr.location),
+                    read(expr.receiver.location), expr.method);
+        }
+
+        @Override
+        public Node.ExprNode visitThisExpr(Expr.This expr) {
+            return read(expr.location);
+        }
+
+        @Override
+        public Node.ExprNode visitUnaryExpr(Expr.Unary expr) {
+            Node.ExprNode right = translate(expr.right);
+            if (expr.operator.type == TokenType.BANG) return new Node.Not(right);
+            return new Node.Negate(right, expr.operator);
+        }
+
+        @Override
+        public Node.ExprNode visitVariableExpr(Expr.Variable expr) {
+            if (expr.location == null) return new Node.ReadGlobal(expr.global, expr.name);
+            return read(expr.location);
+        }
+
+        @Override
+        public Node.StmtNode visitBlockStmt(Stmt.Block stmt) {
+            if (stmt.slotCount == 0) {
+                return new Node.Sequence(translate(stmt.statements));
+            }
+
+            boolean enclosing = global;
+            global = false;
+            Node.StmtNode[] statements = translate(stmt.statements);
+            global = enclosing;
+            return new Node.Block(statements, stmt.slotCount, stmt.captured);
+        }
+
+        @Override
+        public Node.StmtNode visitClassStmt(Stmt.Class stmt) {
+            Node.ExprNode superclass = stmt.superclass != null ? translate(stmt.superclass) : null;
+            return new Node.DefineClass(stmt, superclass,
+                    global ? globals.cell(stmt.name.lexeme()) : null);
+        }
+
+        @Override
+        public Node.StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+            return new Node.Expression(translate(stmt.expression));
+        }
+
+        @Override
+        public Node.StmtNode visitForStmt(Stmt.For stmt) {
+            // the loop's variable is a local even in top-level code
+            boolean enclosing = global;
+            if (stmt.slotCount > 0) global = false;
+
+            Node.StmtNode initializer = stmt.initializer != null ? translate(stmt.initializer) : null;
+            Node.ExprNode[] invariants = null;
+            Node.StmtNode hoisted = null;
+            if (stmt.hoisted != null) {
+                invariants = translateAll(stmt.invariants);
+                hoisted = loop(stmt.hoisted);
+            }
+            Node.StmtNode loop = loop(stmt);
+
+            global = enclosing;
+            return new Node.For(initializer, stmt.slotCount, stmt.captured,
+                    invariants, loop, hoisted);
+        }
+
+        /**
+         * translates the condition, body and increment of a for loop
+         */
+        private Node.StmtNode loop(Stmt.For stmt) {
+            Node.ExprNode condition = stmt.condition != null ? translate(stmt.condition) : null;
+            Node.ExprNode increment = stmt.increment != null ? translate(stmt.increment) : null;
+
+            if (stmt.body instanceof Stmt.Block) {
+                Stmt.Block body = (Stmt.Block)stmt.body;
+                if (body.slotCount > 0 && body.captured == null) {
+                    boolean enclosing = global;
+                    global = false;
+                    Node.StmtNode[] statements = translate(body.statements);
+                    global = enclosing;
+                    return new Node.LoopReusing(condition, increment, statements, body.slotCount);
+                }
+            }
+
+            return new Node.Loop(condition, increment, translate(stmt.body));
+        }
+
+        @Override
+        public Node.StmtNode visitFunctionStmt(Stmt.Function stmt) {
+            // the body is translated when it is first called
+            return new Node.DefineFunction(stmt,
+                    global ? globals.cell(stmt.name.lexeme()) : null);
+        }
+
+        @Override
+        public Node.StmtNode visitIfStmt(Stmt.If stmt) {
+            return new Node.If(translate(stmt.condition), translate(stmt.thenBranch),
+                    stmt.elseBranch != null ? translate(stmt.elseBranch) : null);
+        }
+
+        @Override
+        public Node.StmtNode visitPrintStmt(Stmt.Print stmt) {
+            return new Node.Print(translate(stmt.expression));
+        }
+
+        @Override
+        public Node.StmtNode visitReturnStmt(Stmt.Return stmt) {
+            Interpreter interpreter = SpecializingInterpreter.this;
+            if (stmt.tailCall) {
+                return new Node.ReturnCall((Node.CallNode)translate(stmt.value), interpreter);
+            }
+            return new Node.ReturnValue(stmt.value != null ? translate(stmt.value) : null, interpreter);
+        }
+
+        @Override
+        public Node.StmtNode visitVarStmt(Stmt.Var stmt) {
+            Node.ExprNode initializer = stmt.initializer != null ? translate(stmt.initializer) : null;
+            if (global) return new Node.DefineGlobal(globals.cell(stmt.name.lexeme()), initializer);
+            return new Node.DefineLocal(initializer);
+        }
+
+        @Override
+        public Node.StmtNode visitWhileStmt(Stmt.While stmt) {
+            Node.ExprNode condition = translate(stmt.condition);
+
+            // when no closure captures the variables of the loop body,
+            // every iteration can run in the same environment
+            if (stmt.body instanceof Stmt.Block) {
+                Stmt.Block body = (Stmt.Block)stmt.body;
+                if (body.slotCount > 0 && body.captured == null) {
+                    boolean enclosing = global;
+                    global = false;
+                    Node.StmtNode[] statements = translate(body.statements);
+                    global = enclosing;
+                    return new Node.WhileReusing(condition, statements, body.slotCount);
+                }
+            }
+
+            return new Node.While(condition, translate(stmt.body));
+        }
+    }
+}
@@ -10,6 +10,7 @@ abstract class Stmt {
         R visitBlockStmt(Block stmt);
         R visitClassStmt(Class stmt);
         R visitExpressionStmt(Expression stmt);
+        R visitForStmt(For stmt);
         R visitFunctionStmt(Function stmt);
         R visitIfStmt(If stmt);
         R visitPrintStmt(Print stmt);
@@ -28,6 +29,9 @@ abstract class Stmt {
         }
 
         final List<Stmt> statements;
+        // Filled in after parsing.
+        int slotCount;
+        boolean[] captured;
     }
     static class Class extends Stmt    {
         Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
@@ -57,6 +61,29 @@ abstract class Stmt {
 
         final Expr expression;
     }
+    static class For extends Stmt    {
+        For(Stmt initializer, Expr condition, Expr increment, Stmt body) {
+            this.initializer = initializer;
+            this.condition = condition;
+            this.increment = increment;
+            this.body = body;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor) {
+            return visitor.visitForStmt(this);
+        }
+
+        final Stmt initializer;
+        final Expr condition;
+        final Expr increment;
+        final Stmt body;
+        // Filled in after parsing.
+        int slotCount;
+        boolean[] captured;
+        List<Expr> invariants;
+        Stmt.For hoisted;
+    }
     static class Function extends Stmt    {
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
@@ -72,6 +99,13 @@ abstract class Stmt {
         final Token name;
         final List<Token> params;
         final List<Stmt> body;
+        // Filled in after parsing.
+        int slotCount;
+        boolean[] captured;
+        Upvalue.Source[] upvalues;
+        Object code;
+        CompiledFunction compiled;
+        Memo memo;
     }
     static class If extends Stmt    {
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
@@ -114,6 +148,8 @@ abstract class Stmt {
 
         final Token keyword;
         final Expr value;
+        // Filled in after parsing.
+        boolean tailCall;
     }
     static class Var extends Stmt    {
         Var(Token name, Expr initializer) {
@@ -0,0 +1,112 @@
+package com.kingsman.jlox;
+
+import java.util.Map;
+
+/**
+ * The symbol table of a scanner, it turns the text of identifiers and keywords
+ * into one shared String per name.
+ *
+ * A name is looked up by its characters in the source, so an identifier that
+ * was seen before costs no String at all. A new one is interned with
+ * String.intern(), which makes it the same object as the name in every other
+ * table and as any Java string literal with that text, like "init" or "this".
+ * The stages after the scanner can therefore tell two names apart by identity.
+ */
+final class Symbols {
+    /**
+     * a name together with the token type it scans to
+     */
+    static final class Symbol {
+        final String name;
+        final TokenType type;
+        final int hash;
+
+        Symbol(String name, TokenType type, int hash) {
+            this.name = name;
+            this.type = type;
+            this.hash = hash;
+        }
+    }
+
+    // open addressing, the length is always a power of two
+    private Symbol[] table = new Symbol[64];
+    private int size = 0;
+
+    /**
+     * @param keywords the names that scan to a type of their own
+     */
+    Symbols(Map<String, TokenType> keywords) {
+        for (Map.Entry<String, TokenType> keyword : keywords.entrySet()) {
+            String name = keyword.getKey();
+            add(new Symbol(name.intern(), keyword.getValue(), hash(name.toCharArray(), 0, name.length())));
+        }
+    }
+
+    /**
+     * a table with the symbols of another one, which it doesn't share any new ones with
+     */
+    Symbols(Symbols symbols) {
+        this.table = symbols.table.clone();
+        this.size = symbols.size;
+    }
+
+    /**
+     * @param chars
+     * @param start the index of the name's first character
+     * @param end the index after its last one
+     * @return the symbol of the name, IDENTIFIER typed if it isn't a keyword
+     */
+    Symbol lookup(char[] chars, int start, int end) {
+        int hash = hash(chars, start, end);
+        int mask = table.length - 1;
+        for (int i = hash & mask; ; i = (i + 1) & mask) {
+            Symbol symbol = table[i];
+            if (symbol == null) break;
+            if (symbol.hash == hash && matches(symbol.name, chars, start, end)) return symbol;
+        }
+
+        Symbol symbol = new Symbol(new String(chars, start, end - start).intern(), TokenType.IDENTIFIER, hash);
+        add(symbol);
+        return symbol;
+    }
+
+    private void add(Symbol symbol) {
+        // keep the table at most half full
+        if (++size * 2 > table.length) {
+            Symbol[] old = table;
+            table = new Symbol[old.length * 2];
+            for (Symbol entry : old) {
+                if (entry != null) insert(entry);
+            }
+        }
+
+        insert(symbol);
+    }
+
+    private void insert(Symbol symbol) {
+        int mask = table.length - 1;
+        int i = symbol.hash & mask;
+        while (table[i] != null) i = (i + 1) & mask;
+        table[i] = symbol;
+    }
+
+    /**
+     * hashes the characters, folding the high bits into the low ones the table indexes by
+     */
+    private static int hash(char[] chars, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + chars[i];
+        }
+
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, char[] chars, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != chars[start + i]) return false;
+        }
+        return true;
+    }
+}
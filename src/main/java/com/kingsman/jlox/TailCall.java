@@ -0,0 +1,63 @@
+package com.kingsman.jlox;
+
+/**
+ * A call in tail position, "return f(...)", that is left to the caller to make.
+ *
+ * The function returns one of these instead of making the call, and the
+ * trampoline in {@link LoxFunction#invoke} makes it after the function's
+ * Java frames are gone. A chain of tail calls so runs in constant Java stack.
+ * The callee is checked before the function returns, so errors are still
+ * reported at the call.
+ */
+final class TailCall {
+    final LoxCallable callee;
+    // the instance a method is called on without being bound, null otherwise
+    final LoxInstance receiver;
+    final Object[] arguments;
+
+    private TailCall(LoxCallable callee, LoxInstance receiver, Object[] arguments) {
+        this.callee = callee;
+        this.receiver = receiver;
+        this.arguments = arguments;
+    }
+
+    /**
+     * checks the callee the way a call would
+     * @param callee
+     * @param arguments
+     * @param paren
+     * @return
+     */
+    static TailCall of(Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof LoxCallable)) {
+            throw new RuntimeError(paren,
+                    "Can only call functions and classes.");
+        }
+
+        LoxCallable function = (LoxCallable)callee;
+        checkArity(paren, function, arguments);
+        return new TailCall(function, null, arguments);
+    }
+
+    /**
+     * a method of the receiver, called without binding it
+     * @param method
+     * @param receiver
+     * @param arguments
+     * @param paren
+     * @return
+     */
+    static TailCall method(LoxFunction method, LoxInstance receiver,
+                           Object[] arguments, Token paren) {
+        checkArity(paren, method, arguments);
+        return new TailCall(method, receiver, arguments);
+    }
+
+    private static void checkArity(Token paren, LoxCallable function, Object[] arguments) {
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
+                    function.arity() + " arguments but got " +
+                    arguments.length + ".");
+        }
+    }
+}
@@ -1,20 +1,93 @@
 package com.kingsman.jlox;
 
+/**
+ * A token refers to its lexeme by its offset and length in the source, so
+ * scanning makes no String for it. The lexeme of an identifier or keyword is
+ * its symbol from the scanner's Symbols, shared by every token with that name,
+ * the others are cut out of the source when something asks for them, which is
+ * mostly an error message.
+ *
+ * A token scanned from a reader has no source to refer to. Its lexeme is the
+ * symbol or fixed text, or for a literal is written from its value, so a number
+ * shows the way print shows it.
+ *
+ * A token never changes. The tokens of a section the IncrementalParser keeps
+ * share a Shift, which moves all of their lines at once when lines are added or
+ * removed above the section.
+ */
 public class Token {
+    /**
+     * how many lines the tokens of a piece of text have moved since it was scanned
+     */
+    static final class Shift {
+        int lines = 0;
+    }
+
     final TokenType type;
-    final String lexeme;
     final Object literal;
-    final int line;
+    // the line the token was scanned on
+    private final int line;
+    // null for a token that stays where it was scanned
+    private final Shift shift;
+    private final String source;
+    private final int offset;
+    private final int length;
+    // the interned name or fixed text, null for the other tokens
+    private final String symbol;
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    Token(TokenType type, String source, int offset, int length, String symbol, Object literal,
+          int line, Shift shift) {
         this.type = type;
-        this.lexeme = lexeme;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
+        this.symbol = symbol;
         this.literal = literal;
         this.line = line;
+        this.shift = shift;
+    }
+
+    /**
+     * a token that isn't from the source, like the ones the resolver makes up
+     */
+    Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, lexeme, 0, lexeme.length(), lexeme, literal, line, null);
+    }
+
+    /**
+     * a token that isn't from the source, on the line of one that is
+     */
+    Token(TokenType type, String lexeme, Token at) {
+        this(type, lexeme, 0, lexeme.length(), lexeme, null, at.line, at.shift);
+    }
+
+    /**
+     * a literal scanned from a reader
+     */
+    Token(TokenType type, Object literal, int line) {
+        this(type, null, 0, 0, null, literal, line, null);
+    }
+
+    int line() {
+        return shift == null ? line : line + shift.lines;
+    }
+
+    /**
+     * where the token starts in its source, 0 for a token without one
+     */
+    int offset() {
+        return offset;
+    }
+
+    String lexeme() {
+        if (symbol != null) return symbol;
+        if (source != null) return source.substring(offset, offset + length);
+        if (type == TokenType.STRING) return "\"" + literal + "\"";
+        return Interpreter.stringify(literal);
     }
 
     @Override
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
 }
@@ -0,0 +1,56 @@
+package com.kingsman.jlox;
+
+/**
+ * A box around a local variable that some inner function captures.
+ *
+ * Only captured locals are boxed, the rest stay directly in their environment's
+ * slots. A closure copies the boxes it needs when it is created, instead of
+ * holding on to the whole chain of environments around it.
+ */
+class Upvalue {
+    Object value;
+
+    Upvalue(Object value) {
+        this.value = value;
+    }
+
+    /**
+     * collects the upvalues of a function that is being declared in the environment
+     * @param sources
+     * @param environment
+     * @return
+     */
+    static Upvalue[] capture(Source[] sources, Environment environment) {
+        Upvalue[] upvalues = new Upvalue[sources.length];
+        for (int i = 0; i < upvalues.length; i++) {
+            Source source = sources[i];
+            if (source.isLocal) {
+                upvalues[i] = (Upvalue)environment.getAt(source.depth, source.index);
+            } else {
+                upvalues[i] = environment.upvalues[source.index];
+            }
+        }
+
+        return upvalues;
+    }
+
+    /**
+     * where a closure finds one of its upvalues when it is created
+     */
+    static final class Source {
+        // true if the variable is a local of the immediately enclosing function,
+        // false if it is one of that function's own upvalues.
+        final boolean isLocal;
+        // how many environments out the local lives, counted from where the
+        // function is declared. unused for an enclosing upvalue.
+        final int depth;
+        // the local's slot, or the index into the enclosing function's upvalues
+        final int index;
+
+        Source(boolean isLocal, int depth, int index) {
+            this.isLocal = isLocal;
+            this.depth = depth;
+            this.index = index;
+        }
+    }
+}
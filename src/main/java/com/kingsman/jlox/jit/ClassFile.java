@@ -0,0 +1,221 @@
+package com.kingsman.jlox.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a class file, just enough of the format for the classes the JIT makes.
+ *
+ * The class files are version 49, the last one that the JVM verifies
+ * without stack map frames, so branches need no bookkeeping of the types
+ * on the stack and in the locals.
+ */
+public final class ClassFile {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    // the constant pool, written as it grows
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    // every constant is only added once, keyed by its tag and contents
+    private final Map<String, Integer> poolIndices = new HashMap<>();
+    private int poolCount = 1;
+
+    private final String name;
+    private final String superName;
+    private final List<String> interfaces = new ArrayList<>();
+    private final ByteArrayOutputStream fieldBytes = new ByteArrayOutputStream();
+    private final DataOutputStream fields = new DataOutputStream(fieldBytes);
+    private int fieldCount = 0;
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    /**
+     * @param name the internal name of the class, like "com/kingsman/jlox/Compiled"
+     * @param superName the internal name of its superclass
+     */
+    public ClassFile(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void addInterface(String interfaceName) {
+        interfaces.add(interfaceName);
+    }
+
+    public void addField(int access, String name, String descriptor) {
+        try {
+            fields.writeShort(access);
+            fields.writeShort(utf8(name));
+            fields.writeShort(utf8(descriptor));
+            // no attributes
+            fields.writeShort(0);
+            fieldCount++;
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * adds a method with the code, which must be complete
+     */
+    public void addMethod(int access, String name, String descriptor, Code code) {
+        byte[] bytes = code.toByteArray();
+        if (bytes.length > 0xffff) {
+            throw new IllegalStateException("Method " + name + " is too large.");
+        }
+
+        try {
+            methods.writeShort(access);
+            methods.writeShort(utf8(name));
+            methods.writeShort(utf8(descriptor));
+            methods.writeShort(1);
+
+            methods.writeShort(utf8("Code"));
+            // max_stack, max_locals, code_length, the code, no exception
+            // table and no attributes of its own
+            methods.writeInt(2 + 2 + 4 + bytes.length + 2 + 2);
+            methods.writeShort(code.maxStack());
+            methods.writeShort(code.maxLocals());
+            methods.writeInt(bytes.length);
+            methods.write(bytes);
+            methods.writeShort(0);
+            methods.writeShort(0);
+            methodCount++;
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    public byte[] toByteArray() {
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int[] interfaceIndices = new int[interfaces.size()];
+        for (int i = 0; i < interfaceIndices.length; i++) {
+            interfaceIndices[i] = classRef(interfaces.get(i));
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xcafebabe);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaceIndices.length);
+            for (int index : interfaceIndices) out.writeShort(index);
+
+            out.writeShort(fieldCount);
+            fieldBytes.writeTo(out);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            // no attributes
+            out.writeShort(0);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, CONSTANT_UTF8, out -> out.writeUTF(value));
+    }
+
+    int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return constant("C" + internalName, CONSTANT_CLASS, out -> out.writeShort(nameIndex));
+    }
+
+    int string(String value) {
+        int valueIndex = utf8(value);
+        return constant("S" + value, CONSTANT_STRING, out -> out.writeShort(valueIndex));
+    }
+
+    int doubleConstant(double value) {
+        int index = constant("D" + Double.doubleToRawLongBits(value), CONSTANT_DOUBLE,
+                out -> out.writeDouble(value));
+        // a double takes two entries of the pool
+        if (index == poolCount - 1) poolCount++;
+        return index;
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + " " + descriptor, CONSTANT_NAME_AND_TYPE, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant(tag + owner + "." + name + " " + descriptor, tag, out -> {
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Contents {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, int tag, Contents contents) {
+        Integer index = poolIndices.get(key);
+        if (index != null) return index;
+
+        if (poolCount >= 0xfffe) {
+            throw new IllegalStateException("Too many constants in " + name + ".");
+        }
+
+        try {
+            pool.writeByte(tag);
+            contents.write(pool);
+        } catch (IOException error) {
+            throw new UncheckedIOException(error);
+        }
+
+        poolIndices.put(key, poolCount);
+        return poolCount++;
+    }
+}
@@ -0,0 +1,274 @@
+package com.kingsman.jlox.jit;
+
+import java.util.Arrays;
+
+import static com.kingsman.jlox.jit.Opcodes.*;
+
+/**
+ * The code of one method as it is emitted.
+ *
+ * Keeps track of the depth of the operand stack, so the method's max_stack
+ * comes out right without analysing the code afterwards. The code is emitted
+ * in structured pieces, so the depth at every label is the one of the
+ * branches to it.
+ */
+public final class Code {
+    private final ClassFile classFile;
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private int stackDepth = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    /**
+     * @param maxLocals the local slots the parameters take, "this" included
+     */
+    public Code(ClassFile classFile, int maxLocals) {
+        this.classFile = classFile;
+        this.maxLocals = maxLocals;
+    }
+
+    int maxStack() {
+        return maxStack;
+    }
+
+    int maxLocals() {
+        return maxLocals;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(code, length);
+    }
+
+    /**
+     * @return a new local variable slot, two of them for a double
+     */
+    public int newLocal(boolean isDouble) {
+        int local = maxLocals;
+        maxLocals += isDouble ? 2 : 1;
+        return local;
+    }
+
+    /**
+     * emits an instruction without operands
+     * @param opcode
+     * @param stackEffect how much the instruction grows the operand stack
+     */
+    public void op(int opcode, int stackEffect) {
+        write(opcode);
+        adjust(stackEffect);
+    }
+
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            write(BIPUSH);
+            write(value);
+            adjust(1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            write(SIPUSH);
+            writeShort(value);
+            adjust(1);
+        } else {
+            throw new IllegalStateException("Integer constant " + value + " is too large.");
+        }
+    }
+
+    public void pushDouble(double value) {
+        // 0.0 and 1.0 have their own instructions, but not -0.0
+        if (Double.doubleToRawLongBits(value) == 0L) {
+            op(DCONST_0, 2);
+        } else if (value == 1.0) {
+            op(DCONST_1, 2);
+        } else {
+            write(LDC2_W);
+            writeShort(classFile.doubleConstant(value));
+            adjust(2);
+        }
+    }
+
+    public void pushString(String value) {
+        int index = classFile.string(value);
+        if (index <= 0xff) {
+            write(LDC);
+            write(index);
+        } else {
+            write(LDC_W);
+            writeShort(index);
+        }
+        adjust(1);
+    }
+
+    public void load(int opcode, int local) {
+        local(opcode, local);
+        adjust(opcode == DLOAD ? 2 : 1);
+    }
+
+    public void store(int opcode, int local) {
+        local(opcode, local);
+        adjust(opcode == DSTORE ? -2 : -1);
+    }
+
+    private void local(int opcode, int local) {
+        if (local > 0xff) {
+            // the wide prefix
+            write(0xc4);
+            write(opcode);
+            writeShort(local);
+        } else {
+            write(opcode);
+            write(local);
+        }
+    }
+
+    public void field(int opcode, String owner, String name, String descriptor) {
+        write(opcode);
+        writeShort(classFile.fieldRef(owner, name, descriptor));
+
+        int size = descriptor.equals("D") || descriptor.equals("J") ? 2 : 1;
+        switch (opcode) {
+            case GETSTATIC: adjust(size); break;
+            case GETFIELD: adjust(size - 1); break;
+            case PUTFIELD: adjust(-size - 1); break;
+            default: adjust(-size); break;
+        }
+    }
+
+    public void invoke(int opcode, String owner, String name, String descriptor) {
+        write(opcode);
+        if (opcode == INVOKEINTERFACE) {
+            writeShort(classFile.interfaceMethodRef(owner, name, descriptor));
+            write(argumentSlots(descriptor) + 1);
+            write(0);
+        } else {
+            writeShort(classFile.methodRef(owner, name, descriptor));
+        }
+
+        int effect = returnSlots(descriptor) - argumentSlots(descriptor);
+        if (opcode != INVOKESTATIC) effect--;
+        adjust(effect);
+    }
+
+    /**
+     * emits an instruction whose operand is a class, like NEW or CHECKCAST
+     */
+    public void type(int opcode, String internalName) {
+        write(opcode);
+        writeShort(classFile.classRef(internalName));
+        // NEW pushes the object, ANEWARRAY and CHECKCAST replace the top of the stack
+        if (opcode == NEW) adjust(1);
+    }
+
+    /**
+     * emits a branch to the label
+     */
+    public void jump(int opcode, Label label) {
+        int at = length;
+        write(opcode);
+        writeShort(0);
+
+        switch (opcode) {
+            case GOTO: break;
+            case IFNULL:
+            case IFNONNULL:
+            case IFEQ:
+            case IFNE:
+            case IFLT:
+            case IFGE:
+            case IFGT:
+            case IFLE:
+                adjust(-1);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a branch " + opcode + ".");
+        }
+
+        if (label.stackDepth < 0) label.stackDepth = stackDepth;
+
+        if (label.offset >= 0) {
+            patch(at, label.offset);
+        } else {
+            if (label.pendingCount == label.pending.length) {
+                label.pending = Arrays.copyOf(label.pending, label.pendingCount * 2);
+            }
+            label.pending[label.pendingCount++] = at;
+        }
+
+        // nothing falls through a goto, the code after it is only
+        // reached by branching to a label
+        if (opcode == GOTO) stackDepth = -1;
+    }
+
+    /**
+     * places the label here, at the next instruction
+     */
+    public void place(Label label) {
+        label.offset = length;
+        if (label.stackDepth < 0) label.stackDepth = Math.max(stackDepth, 0);
+        stackDepth = label.stackDepth;
+
+        for (int i = 0; i < label.pendingCount; i++) {
+            patch(label.pending[i], label.offset);
+        }
+        label.pendingCount = 0;
+    }
+
+    /**
+     * fills in the offset of a branch, which is relative to the branch instruction
+     */
+    private void patch(int at, int target) {
+        int offset = target - at;
+        if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+            throw new IllegalStateException("Branch is too far.");
+        }
+
+        code[at + 1] = (byte)(offset >> 8);
+        code[at + 2] = (byte)offset;
+    }
+
+    private void adjust(int effect) {
+        stackDepth += effect;
+        if (stackDepth > maxStack) maxStack = stackDepth;
+    }
+
+    private void write(int value) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte)value;
+    }
+
+    private void writeShort(int value) {
+        write(value >> 8);
+        write(value);
+    }
+
+    /**
+     * the local slots the arguments of a method descriptor take
+     */
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'D' || c == 'J') {
+                slots += 2;
+            } else {
+                slots++;
+            }
+
+            // skip the rest of an array or class type
+            while (descriptor.charAt(i) == '[') i++;
+            if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+            i++;
+        }
+
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if (c == 'V') return 0;
+        if (c == 'D' || c == 'J') return 2;
+        return 1;
+    }
+}
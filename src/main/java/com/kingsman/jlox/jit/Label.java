@@ -0,0 +1,17 @@
+package com.kingsman.jlox.jit;
+
+/**
+ * A position in a method's code that branches go to, placed before or after
+ * the branches to it.
+ */
+public final class Label {
+    // -1 until the label is placed
+    int offset = -1;
+    // the depth of the operand stack at the label, -1 until a branch or
+    // the label's placement decides it
+    int stackDepth = -1;
+    // the branches waiting for the label to be placed, each is the offset of
+    // the instruction and the offset of its operand
+    int[] pending = new int[4];
+    int pendingCount = 0;
+}
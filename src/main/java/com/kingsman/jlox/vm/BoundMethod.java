@@ -0,0 +1,19 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * A method taken off an instance without calling it right away.
+ */
+final class BoundMethod {
+    final VmInstance receiver;
+    final Closure method;
+
+    BoundMethod(VmInstance receiver, Closure method) {
+        this.receiver = receiver;
+        this.method = method;
+    }
+
+    @Override
+    public String toString() {
+        return method.toString();
+    }
+}
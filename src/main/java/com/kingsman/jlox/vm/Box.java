@@ -0,0 +1,13 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * Holds a local variable that a closure captures, the frame slot and
+ * every closure that captured it share the box.
+ */
+final class Box {
+    Object value;
+
+    Box(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,76 @@
+package com.kingsman.jlox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The bytecode of one function, with its constants and the source line
+ * of every byte so runtime errors can say where they happened.
+ */
+public final class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    private int count = 0;
+
+    private final List<Object> constantList = new ArrayList<>();
+    // the same constant is only stored once
+    private final Map<Object, Integer> constantIndices = new HashMap<>();
+    // the constants as an array, for the VM
+    Object[] constants;
+
+    public int count() {
+        return count;
+    }
+
+    public void write(int value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+
+        code[count] = (byte)value;
+        lines[count] = line;
+        count++;
+    }
+
+    /**
+     * writes a two-byte operand
+     */
+    public void writeShort(int value, int line) {
+        write(value >> 8, line);
+        write(value, line);
+    }
+
+    /**
+     * overwrites a two-byte operand, once a jump knows where it goes
+     */
+    public void patchShort(int offset, int value) {
+        code[offset] = (byte)(value >> 8);
+        code[offset + 1] = (byte)value;
+    }
+
+    /**
+     * @return the index of the constant, or -1 if the chunk has too many
+     */
+    public int addConstant(Object value) {
+        Integer index = constantIndices.get(value);
+        if (index != null) return index;
+
+        if (constantList.size() > 0xffff) return -1;
+        constantList.add(value);
+        constantIndices.put(value, constantList.size() - 1);
+        return constantList.size() - 1;
+    }
+
+    /**
+     * called once the function is compiled, the chunk doesn't change afterwards
+     */
+    void seal() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+    }
+}
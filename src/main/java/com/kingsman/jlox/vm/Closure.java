@@ -0,0 +1,19 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * A function value: the prototype together with the boxes it captured.
+ */
+final class Closure {
+    final Prototype prototype;
+    final Box[] upvalues;
+
+    Closure(Prototype prototype, Box[] upvalues) {
+        this.prototype = prototype;
+        this.upvalues = upvalues;
+    }
+
+    @Override
+    public String toString() {
+        return prototype.toString();
+    }
+}
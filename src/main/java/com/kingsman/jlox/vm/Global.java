@@ -0,0 +1,17 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * A global variable. The compiler puts the cell in the constants of the code
+ * that uses it, so the VM never looks a global up by name.
+ */
+public final class Global {
+    final String name;
+    Object value;
+    // a cell may exist before its variable does, because functions are
+    // allowed to refer to globals that are defined later
+    boolean defined = false;
+
+    Global(String name) {
+        this.name = name;
+    }
+}
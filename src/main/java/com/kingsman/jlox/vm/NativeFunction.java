@@ -0,0 +1,35 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * A function implemented in Java.
+ *
+ * The VM calls one with up to two arguments through call0(), call1() and
+ * call2(), which take the arguments straight off the stack, a function that
+ * overrides them is called without an argument array being made.
+ */
+abstract class NativeFunction {
+    final int arity;
+
+    NativeFunction(int arity) {
+        this.arity = arity;
+    }
+
+    abstract Object call(Object[] arguments);
+
+    Object call0() {
+        return call(new Object[0]);
+    }
+
+    Object call1(Object a) {
+        return call(new Object[] { a });
+    }
+
+    Object call2(Object a, Object b) {
+        return call(new Object[] { a, b });
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,116 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * The instructions of the VM.
+ *
+ * Every instruction is one byte, followed by its operands. Operands are two bytes,
+ * big-endian, except for the argument count of a call, which is one byte.
+ * The comment on each instruction shows its operands and what it does to the stack.
+ */
+public final class OpCode {
+    private OpCode() {}
+
+    // [constant] push the constant
+    public static final byte CONSTANT = 0;
+    // [constant] push the constant, which is a number
+    public static final byte NUMBER = 1;
+    public static final byte NIL = 2;
+    public static final byte TRUE = 3;
+    public static final byte FALSE = 4;
+    public static final byte POP = 5;
+
+    // Locals live in frame slots, counted from the start of the call's frame.
+    // [slot] push the slot's value
+    public static final byte GET_LOCAL = 6;
+    // [slot] store the value on top of the stack in the slot, leaving it there
+    public static final byte SET_LOCAL = 7;
+    // [slot] pop a value into the slot
+    public static final byte STORE_LOCAL = 8;
+    // [slot] pop a value into a new box in the slot, for a local that closures capture
+    public static final byte DEFINE_BOXED = 9;
+    // [slot] push the value in the slot's box
+    public static final byte GET_BOXED = 10;
+    // [slot] store the value on top of the stack in the slot's box, leaving it there
+    public static final byte SET_BOXED = 11;
+    // [index] push the value of the closure's upvalue
+    public static final byte GET_UPVALUE = 12;
+    // [index] store the value on top of the stack in the closure's upvalue
+    public static final byte SET_UPVALUE = 13;
+
+    // [global] push the value of the global cell, which is a constant
+    public static final byte GET_GLOBAL = 14;
+    // [global] store the value on top of the stack in the global cell
+    public static final byte SET_GLOBAL = 15;
+    // [global] pop a value into the global cell, defining the variable
+    public static final byte DEFINE_GLOBAL = 16;
+
+    // [name] object -> value of its property
+    public static final byte GET_PROPERTY = 17;
+    // [name] object value -> value
+    public static final byte SET_PROPERTY = 18;
+    // [name] fails unless the object on top of the stack is an instance that
+    // can have fields, checked before the value to assign is evaluated
+    public static final byte CHECK_INSTANCE = 19;
+    // [name] object -> callee receiver, for a property that is called right away.
+    // the receiver is a marker when the property is a field, not a method.
+    public static final byte GET_METHOD = 20;
+    // [name] this superclass -> the superclass's method bound to this
+    public static final byte GET_SUPER = 21;
+
+    // a b -> result
+    public static final byte EQUAL = 22;
+    public static final byte NOT_EQUAL = 23;
+    public static final byte GREATER = 24;
+    public static final byte GREATER_EQUAL = 25;
+    public static final byte LESS = 26;
+    public static final byte LESS_EQUAL = 27;
+    public static final byte ADD = 28;
+    public static final byte SUBTRACT = 29;
+    public static final byte MULTIPLY = 30;
+    public static final byte DIVIDE = 31;
+    // a -> result
+    public static final byte NOT = 32;
+    public static final byte NEGATE = 33;
+
+    public static final byte PRINT = 34;
+
+    // Jump offsets are unsigned and relative to the end of the instruction.
+    // [offset] jump forward
+    public static final byte JUMP = 35;
+    // [offset] jump forward if the value on top of the stack is falsey, leaving it there
+    public static final byte JUMP_IF_FALSE = 36;
+    // [offset] jump forward if the value on top of the stack is truthy, leaving it there
+    public static final byte JUMP_IF_TRUE = 37;
+    // [offset] pop a value and jump forward if it is falsey
+    public static final byte POP_JUMP_IF_FALSE = 38;
+    // [offset] jump backward
+    public static final byte LOOP = 39;
+    // [offset] a b -> , comparing the numbers and jumping forward if the comparison is false
+    public static final byte JUMP_IF_NOT_GREATER = 40;
+    public static final byte JUMP_IF_NOT_GREATER_EQUAL = 41;
+    public static final byte JUMP_IF_NOT_LESS = 42;
+    public static final byte JUMP_IF_NOT_LESS_EQUAL = 43;
+
+    // [count] callee arguments -> result
+    public static final byte CALL = 44;
+    // [count] callee receiver arguments -> result, after GET_METHOD
+    public static final byte INVOKE = 45;
+    // [prototype] push a new closure of the function, capturing its upvalues
+    public static final byte CLOSURE = 46;
+    // return from the current function with the value on top of the stack
+    public static final byte RETURN = 47;
+
+    // [name] push a new class without methods
+    public static final byte CLASS = 48;
+    // [name] class closure -> class, adding the method to it
+    public static final byte METHOD = 49;
+    // class superclass -> class, copying the methods the class doesn't override
+    public static final byte INHERIT = 50;
+    // fails unless the value on top of the stack is a class
+    public static final byte CHECK_SUPERCLASS = 51;
+
+    // [count] callee arguments -> , "return f(...)": the callee takes over the frame
+    public static final byte TAIL_CALL = 52;
+    // [count] callee receiver arguments -> , the same for a method
+    public static final byte TAIL_INVOKE = 53;
+}
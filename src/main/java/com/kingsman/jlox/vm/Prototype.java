@@ -0,0 +1,45 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * A compiled function, before it is closed over anything.
+ *
+ * One prototype is made for each function declaration, the closures
+ * made from it at runtime each have their own upvalues.
+ */
+public final class Prototype {
+    final String name;
+    final int arity;
+    // a method gets the instance it is called on in frame slot 0
+    final boolean isMethod;
+    final Chunk chunk;
+    // frame slots taken by the locals, the operand stack starts after them
+    final int localCount;
+    // the most the operand stack grows to in a call
+    final int stackSize;
+    // for each upvalue, true if it is a slot of the enclosing function's frame,
+    // false if it is one of the enclosing closure's own upvalues
+    final boolean[] upvalueIsLocal;
+    // the enclosing frame slot, or the index of the enclosing upvalue
+    final int[] upvalueIndices;
+    // the parameter slots, and "this", that closures capture and so must be boxed
+    final int[] boxedParameters;
+
+    public Prototype(String name, int arity, boolean isMethod, Chunk chunk,
+                     int localCount, int stackSize, boolean[] upvalueIsLocal, int[] upvalueIndices, int[] boxedParameters) {
+        this.name = name;
+        this.arity = arity;
+        this.isMethod = isMethod;
+        this.chunk = chunk;
+        this.localCount = localCount;
+        this.stackSize = stackSize;
+        this.upvalueIsLocal = upvalueIsLocal;
+        this.upvalueIndices = upvalueIndices;
+        this.boxedParameters = boxedParameters;
+        chunk.seal();
+    }
+
+    @Override
+    public String toString() {
+        return "<fn " + name + ">";
+    }
+}
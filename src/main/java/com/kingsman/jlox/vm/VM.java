@@ -0,0 +1,674 @@
+package com.kingsman.jlox.vm;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs compiled Lox code.
+ *
+ * The VM has a single stack shared by all calls. Each call's frame starts with
+ * the slots of the function's locals, where the arguments already are when the
+ * call begins, and continues with the operand stack the instructions push and
+ * pop. Calls don't recurse into Java, the loop just switches to the frame of
+ * the callee, and back to the caller's once the callee returns.
+ */
+public final class VM {
+    // deep enough for any reasonable recursion, but a runaway one stops with an error
+    private static final int MAX_FRAMES = 1 << 16;
+    // what GET_METHOD leaves in the receiver slot when the property is a field
+    private static final Object NO_RECEIVER = new Object();
+    // marks a stack slot that holds an unboxed number, numbers only
+    // get boxed when they leave the stack
+    private static final Object NUMBER = new Object();
+
+    private final Map<String, Global> globals = new HashMap<>();
+
+    // a slot holding a number is marked with NUMBER,
+    // and the number is in the same slot of numbers
+    private Object[] stack = new Object[1024];
+    private double[] numbers = new double[1024];
+    private int sp = 0;
+
+    // the call frames, the last one is running
+    private Closure[] frameClosures = new Closure[64];
+    private int[] frameIps = new int[64];
+    // where the frame's slots start on the stack
+    private int[] frameBases = new int[64];
+    // where the frame's result goes on the caller's stack
+    private int[] frameResults = new int[64];
+    private int frameCount = 0;
+
+    public VM() {
+        defineNative("clock", new NativeFunction(0) {
+            @Override
+            Object call(Object[] arguments) {
+                return call0();
+            }
+
+            @Override
+            Object call0() {
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+        });
+    }
+
+    private void defineNative(String name, NativeFunction function) {
+        Global global = global(name);
+        global.value = function;
+        global.defined = true;
+    }
+
+    /**
+     * get the cell of a global, creating it if the name is new
+     */
+    public Global global(String name) {
+        Global global = globals.get(name);
+        if (global == null) {
+            global = new Global(name);
+            globals.put(name, global);
+        }
+
+        return global;
+    }
+
+    /**
+     * runs a compiled script
+     *
+     * @throws VmError if the script fails
+     */
+    public void interpret(Prototype script) {
+        // a failed script may have left frames behind
+        frameCount = 0;
+        sp = 0;
+        pushFrame(new Closure(script, new Box[0]), 0, 0);
+        run();
+    }
+
+    private void run() {
+        Object[] stack = this.stack;
+        double[] numbers = this.numbers;
+        int sp = this.sp;
+        int frame = frameCount - 1;
+        Closure closure = frameClosures[frame];
+        byte[] code = closure.prototype.chunk.code;
+        Object[] constants = closure.prototype.chunk.constants;
+        int ip = frameIps[frame];
+        int base = frameBases[frame];
+
+        for (;;) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[operand(code, ip)];
+                    ip += 2;
+                    break;
+                case OpCode.NUMBER:
+                    numbers[sp] = (double)constants[operand(code, ip)];
+                    stack[sp++] = NUMBER;
+                    ip += 2;
+                    break;
+                case OpCode.NIL: stack[sp++] = null; break;
+                case OpCode.TRUE: stack[sp++] = Boolean.TRUE; break;
+                case OpCode.FALSE: stack[sp++] = Boolean.FALSE; break;
+                case OpCode.POP: sp--; break;
+
+                case OpCode.GET_LOCAL: {
+                    int slot = base + operand(code, ip);
+                    ip += 2;
+                    numbers[sp] = numbers[slot];
+                    stack[sp++] = stack[slot];
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + operand(code, ip);
+                    ip += 2;
+                    numbers[slot] = numbers[sp - 1];
+                    stack[slot] = stack[sp - 1];
+                    break;
+                }
+                case OpCode.STORE_LOCAL: {
+                    int slot = base + operand(code, ip);
+                    ip += 2;
+                    sp--;
+                    numbers[slot] = numbers[sp];
+                    stack[slot] = stack[sp];
+                    break;
+                }
+                case OpCode.DEFINE_BOXED:
+                    sp--;
+                    stack[base + operand(code, ip)] = new Box(value(stack, numbers, sp));
+                    ip += 2;
+                    break;
+                case OpCode.GET_BOXED:
+                    push(stack, numbers, sp++, ((Box)stack[base + operand(code, ip)]).value);
+                    ip += 2;
+                    break;
+                case OpCode.SET_BOXED:
+                    ((Box)stack[base + operand(code, ip)]).value = value(stack, numbers, sp - 1);
+                    ip += 2;
+                    break;
+                case OpCode.GET_UPVALUE:
+                    push(stack, numbers, sp++, closure.upvalues[operand(code, ip)].value);
+                    ip += 2;
+                    break;
+                case OpCode.SET_UPVALUE:
+                    closure.upvalues[operand(code, ip)].value = value(stack, numbers, sp - 1);
+                    ip += 2;
+                    break;
+
+                case OpCode.GET_GLOBAL: {
+                    Global global = (Global)constants[operand(code, ip)];
+                    ip += 2;
+                    if (!global.defined) throw undefinedVariable(global, closure, ip);
+                    push(stack, numbers, sp++, global.value);
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    // assignment is not allowed to create a new variable
+                    Global global = (Global)constants[operand(code, ip)];
+                    ip += 2;
+                    if (!global.defined) throw undefinedVariable(global, closure, ip);
+                    global.value = value(stack, numbers, sp - 1);
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    Global global = (Global)constants[operand(code, ip)];
+                    ip += 2;
+                    global.value = value(stack, numbers, --sp);
+                    global.defined = true;
+                    break;
+                }
+
+                case OpCode.GET_PROPERTY: {
+                    String name = (String)constants[operand(code, ip)];
+                    ip += 2;
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof VmInstance)) {
+                        throw error("Only instances have properties.", closure, ip);
+                    }
+
+                    VmInstance instance = (VmInstance)object;
+                    Object value = instance.fields.get(name);
+                    if (value == null && !instance.fields.containsKey(name)) {
+                        Closure method = instance.klass.methods.get(name);
+                        if (method == null) throw undefinedProperty(name, closure, ip);
+                        value = new BoundMethod(instance, method);
+                    }
+                    push(stack, numbers, sp - 1, value);
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String)constants[operand(code, ip)];
+                    ip += 2;
+                    sp--;
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof VmInstance)) {
+                        throw error("Only instances have fields.", closure, ip);
+                    }
+
+                    ((VmInstance)object).fields.put(name, value(stack, numbers, sp));
+                    numbers[sp - 1] = numbers[sp];
+                    stack[sp - 1] = stack[sp];
+                    break;
+                }
+                case OpCode.CHECK_INSTANCE:
+                    ip += 2;
+                    if (!(stack[sp - 1] instanceof VmInstance)) {
+                        throw error("Only instances have fields.", closure, ip);
+                    }
+                    break;
+                case OpCode.GET_METHOD: {
+                    String name = (String)constants[operand(code, ip)];
+                    ip += 2;
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof VmInstance)) {
+                        throw error("Only instances have properties.", closure, ip);
+                    }
+
+                    VmInstance instance = (VmInstance)object;
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        // a field, which may hold anything callable
+                        push(stack, numbers, sp - 1, value);
+                        stack[sp++] = NO_RECEIVER;
+                        break;
+                    }
+
+                    Closure method = instance.klass.methods.get(name);
+                    if (method == null) throw undefinedProperty(name, closure, ip);
+                    stack[sp - 1] = method;
+                    stack[sp++] = instance;
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String)constants[operand(code, ip)];
+                    ip += 2;
+                    VmClass superclass = (VmClass)stack[--sp];
+                    Closure method = superclass.methods.get(name);
+                    if (method == null) throw undefinedProperty(name, closure, ip);
+                    stack[sp - 1] = new BoundMethod((VmInstance)stack[sp - 1], method);
+                    break;
+                }
+
+                case OpCode.EQUAL:
+                    sp--;
+                    stack[sp - 1] = isEqual(stack, numbers, sp - 1, sp);
+                    break;
+                case OpCode.NOT_EQUAL:
+                    sp--;
+                    stack[sp - 1] = !isEqual(stack, numbers, sp - 1, sp);
+                    break;
+                case OpCode.GREATER:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw numbers(closure, ip);
+                    stack[sp - 1] = numbers[sp - 1] > numbers[sp];
+                    break;
+                case OpCode.GREATER_EQUAL:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw numbers(closure, ip);
+                    stack[sp - 1] = numbers[sp - 1] >= numbers[sp];
+                    break;
+                case OpCode.LESS:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw numbers(closure, ip);
+                    stack[sp - 1] = numbers[sp - 1] < numbers[sp];
+                    break;
+                case OpCode.LESS_EQUAL:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw numbers(closure, ip);
+                    stack[sp - 1] = numbers[sp - 1] <= numbers[sp];
+                    break;
+                case OpCode.ADD: {
+                    sp--;
+                    Object a = stack[sp - 1];
+                    Object b = stack[sp];
+                    if (a == NUMBER && b == NUMBER) {
+                        numbers[sp - 1] += numbers[sp];
+                    } else if (a instanceof String && b instanceof String) {
+                        stack[sp - 1] = (String)a + (String)b;
+                    } else {
+                        throw error("Operands must be two numbers or two strings.", closure, ip);
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw numbers(closure, ip);
+                    numbers[sp - 1] -= numbers[sp];
+                    break;
+                case OpCode.MULTIPLY:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw numbers(closure, ip);
+                    numbers[sp - 1] *= numbers[sp];
+                    break;
+                case OpCode.DIVIDE:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw numbers(closure, ip);
+                    numbers[sp - 1] /= numbers[sp];
+                    break;
+                case OpCode.NOT:
+                    stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    if (stack[sp - 1] != NUMBER) {
+                        throw error("Operand must be a number.", closure, ip);
+                    }
+                    numbers[sp - 1] = -numbers[sp - 1];
+                    break;
+
+                case OpCode.PRINT:
+                    System.out.println(stringify(value(stack, numbers, --sp)));
+                    break;
+
+                case OpCode.JUMP:
+                    ip += 2 + operand(code, ip);
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (!isTruthy(stack[sp - 1])) ip += operand(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.JUMP_IF_TRUE:
+                    if (isTruthy(stack[sp - 1])) ip += operand(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.POP_JUMP_IF_FALSE:
+                    if (!isTruthy(stack[--sp])) ip += operand(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.LOOP:
+                    ip += 2 - operand(code, ip);
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw numbers(closure, ip + 2);
+                    if (!(numbers[sp] > numbers[sp + 1])) ip += operand(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw numbers(closure, ip + 2);
+                    if (!(numbers[sp] >= numbers[sp + 1])) ip += operand(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw numbers(closure, ip + 2);
+                    if (!(numbers[sp] < numbers[sp + 1])) ip += operand(code, ip);
+                    ip += 2;
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw numbers(closure, ip + 2);
+                    if (!(numbers[sp] <= numbers[sp + 1])) ip += operand(code, ip);
+                    ip += 2;
+                    break;
+
+                case OpCode.CALL:
+                case OpCode.INVOKE: {
+                    boolean invoke = code[ip - 1] == OpCode.INVOKE;
+                    int argCount = code[ip++] & 0xff;
+                    int first = sp - argCount;
+                    frameIps[frame] = ip;
+                    this.sp = sp;
+                    call(invoke, first, argCount, closure, ip);
+
+                    // either a new frame, or the caller's with the result in place
+                    stack = this.stack;
+                    numbers = this.numbers;
+                    sp = this.sp;
+                    frame = frameCount - 1;
+                    closure = frameClosures[frame];
+                    code = closure.prototype.chunk.code;
+                    constants = closure.prototype.chunk.constants;
+                    ip = frameIps[frame];
+                    base = frameBases[frame];
+                    break;
+                }
+                case OpCode.TAIL_CALL:
+                case OpCode.TAIL_INVOKE: {
+                    boolean invoke = code[ip - 1] == OpCode.TAIL_INVOKE;
+                    int argCount = code[ip++] & 0xff;
+                    // the function is done with its frame, so the callee and its
+                    // arguments move down to where the function's result would go
+                    int callee = sp - argCount - (invoke ? 2 : 1);
+                    int result = frameResults[frame];
+                    int count = sp - callee;
+                    System.arraycopy(stack, callee, stack, result, count);
+                    System.arraycopy(numbers, callee, numbers, result, count);
+                    frameCount--;
+                    sp = result + count;
+                    this.sp = sp;
+                    call(invoke, sp - argCount, argCount, closure, ip);
+
+                    stack = this.stack;
+                    numbers = this.numbers;
+                    sp = this.sp;
+                    frame = frameCount - 1;
+                    closure = frameClosures[frame];
+                    code = closure.prototype.chunk.code;
+                    constants = closure.prototype.chunk.constants;
+                    ip = frameIps[frame];
+                    base = frameBases[frame];
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Prototype prototype = (Prototype)constants[operand(code, ip)];
+                    ip += 2;
+                    Box[] upvalues = new Box[prototype.upvalueIndices.length];
+                    for (int i = 0; i < upvalues.length; i++) {
+                        int index = prototype.upvalueIndices[i];
+                        if (prototype.upvalueIsLocal[i]) {
+                            upvalues[i] = (Box)stack[base + index];
+                        } else {
+                            upvalues[i] = closure.upvalues[index];
+                        }
+                    }
+                    stack[sp++] = new Closure(prototype, upvalues);
+                    break;
+                }
+                case OpCode.RETURN: {
+                    sp--;
+                    frameCount--;
+                    if (frameCount == 0) {
+                        this.sp = 0;
+                        return;
+                    }
+
+                    int result = frameResults[frame];
+                    numbers[result] = numbers[sp];
+                    stack[result] = stack[sp];
+                    sp = result + 1;
+                    frame = frameCount - 1;
+                    closure = frameClosures[frame];
+                    code = closure.prototype.chunk.code;
+                    constants = closure.prototype.chunk.constants;
+                    ip = frameIps[frame];
+                    base = frameBases[frame];
+                    break;
+                }
+
+                case OpCode.CLASS:
+                    stack[sp++] = new VmClass((String)constants[operand(code, ip)]);
+                    ip += 2;
+                    break;
+                case OpCode.METHOD: {
+                    String name = (String)constants[operand(code, ip)];
+                    ip += 2;
+                    ((VmClass)stack[sp - 2]).addMethod(name, (Closure)stack[--sp]);
+                    break;
+                }
+                case OpCode.INHERIT: {
+                    VmClass superclass = (VmClass)stack[--sp];
+                    ((VmClass)stack[sp - 1]).inherit(superclass);
+                    break;
+                }
+                case OpCode.CHECK_SUPERCLASS:
+                    if (!(stack[sp - 1] instanceof VmClass)) {
+                        throw error("Superclass must be a class.", closure, ip);
+                    }
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown instruction " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    /**
+     * makes the call of a CALL or INVOKE instruction, whose arguments are on the stack from first on
+     */
+    private void call(boolean invoke, int first, int argCount, Closure caller, int ip) {
+        if (invoke && stack[first - 1] != NO_RECEIVER) {
+            // the receiver is already where a method's frame starts
+            Closure method = (Closure)stack[first - 2];
+            checkArity(method.prototype.arity, argCount, caller, ip);
+            pushFrame(method, first - 1, first - 2);
+        } else if (invoke) {
+            callValue(stack[first - 2], first, argCount, first - 2, caller, ip);
+        } else {
+            callValue(stack[first - 1], first, argCount, first - 1, caller, ip);
+        }
+    }
+
+    /**
+     * calls anything that can be called, the arguments are on the stack from first on
+     *
+     * @param result where the result goes
+     */
+    private void callValue(Object callee, int first, int argCount, int result,
+                           Closure caller, int ip) {
+        if (callee instanceof Closure) {
+            Closure function = (Closure)callee;
+            checkArity(function.prototype.arity, argCount, caller, ip);
+            pushFrame(function, first, result);
+        } else if (callee instanceof BoundMethod) {
+            BoundMethod bound = (BoundMethod)callee;
+            checkArity(bound.method.prototype.arity, argCount, caller, ip);
+            stack[first - 1] = bound.receiver;
+            pushFrame(bound.method, first - 1, result);
+        } else if (callee instanceof VmClass) {
+            VmClass klass = (VmClass)callee;
+            VmInstance instance = new VmInstance(klass);
+            if (klass.initializer != null) {
+                // the initializer returns the instance
+                checkArity(klass.initializer.prototype.arity, argCount, caller, ip);
+                stack[first - 1] = instance;
+                pushFrame(klass.initializer, first - 1, result);
+            } else {
+                checkArity(0, argCount, caller, ip);
+                stack[result] = instance;
+                sp = result + 1;
+            }
+        } else if (callee instanceof NativeFunction) {
+            NativeFunction function = (NativeFunction)callee;
+            checkArity(function.arity, argCount, caller, ip);
+            push(stack, numbers, result, callNative(function, stack, numbers, first, argCount));
+            sp = result + 1;
+        } else {
+            throw error("Can only call functions and classes.", caller, ip);
+        }
+    }
+
+    /**
+     * calls the native function with the arguments from first on,
+     * up to two of them are passed as they are
+     */
+    private static Object callNative(NativeFunction function, Object[] stack, double[] numbers,
+                                     int first, int argCount) {
+        switch (argCount) {
+            case 0: return function.call0();
+            case 1: return function.call1(value(stack, numbers, first));
+            case 2: return function.call2(value(stack, numbers, first),
+                    value(stack, numbers, first + 1));
+        }
+
+        Object[] arguments = new Object[argCount];
+        for (int i = 0; i < argCount; i++) {
+            arguments[i] = value(stack, numbers, first + i);
+        }
+        return function.call(arguments);
+    }
+
+    /**
+     * starts running a function whose arguments are in place from base on
+     */
+    private void pushFrame(Closure closure, int base, int result) {
+        if (frameCount == MAX_FRAMES) {
+            throw error("Stack overflow.", frameClosures[frameCount - 1],
+                    frameIps[frameCount - 1]);
+        }
+
+        if (frameCount == frameClosures.length) {
+            int capacity = frameCount * 2;
+            frameClosures = Arrays.copyOf(frameClosures, capacity);
+            frameIps = Arrays.copyOf(frameIps, capacity);
+            frameBases = Arrays.copyOf(frameBases, capacity);
+            frameResults = Arrays.copyOf(frameResults, capacity);
+        }
+
+        Prototype prototype = closure.prototype;
+        int end = base + prototype.localCount + prototype.stackSize;
+        if (end > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(end, stack.length * 2));
+            numbers = Arrays.copyOf(numbers, stack.length);
+        }
+
+        for (int slot : prototype.boxedParameters) {
+            stack[base + slot] = new Box(value(stack, numbers, base + slot));
+        }
+
+        frameClosures[frameCount] = closure;
+        frameIps[frameCount] = 0;
+        frameBases[frameCount] = base;
+        frameResults[frameCount] = result;
+        frameCount++;
+        sp = base + prototype.localCount;
+    }
+
+    private static int operand(byte[] code, int ip) {
+        return ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+    }
+
+    private void checkArity(int arity, int argCount, Closure caller, int ip) {
+        if (argCount != arity) {
+            throw error("Expected " + arity + " arguments but got " + argCount + ".",
+                    caller, ip);
+        }
+    }
+
+    /**
+     * an error in the instruction that ends right before ip
+     */
+    private static VmError error(String message, Closure closure, int ip) {
+        return new VmError(message, closure.prototype.chunk.lines[ip - 1]);
+    }
+
+    private static VmError numbers(Closure closure, int ip) {
+        return error("Operands must be numbers.", closure, ip);
+    }
+
+    private static VmError undefinedVariable(Global global, Closure closure, int ip) {
+        return error("Undefined variable '" + global.name + "'.", closure, ip);
+    }
+
+    private static VmError undefinedProperty(String name, Closure closure, int ip) {
+        return error("Undefined property '" + name + "'.", closure, ip);
+    }
+
+    /**
+     * the value in a stack slot, boxing it if it is a number
+     */
+    private static Object value(Object[] stack, double[] numbers, int slot) {
+        if (stack[slot] == NUMBER) return numbers[slot];
+        return stack[slot];
+    }
+
+    /**
+     * puts a value in a stack slot, unboxing it if it is a number
+     */
+    private static void push(Object[] stack, double[] numbers, int slot, Object value) {
+        if (value instanceof Double) {
+            numbers[slot] = (double)value;
+            stack[slot] = NUMBER;
+        } else {
+            stack[slot] = value;
+        }
+    }
+
+    private static boolean isEqual(Object[] stack, double[] numbers, int a, int b) {
+        if (stack[a] == NUMBER) {
+            // the same equality as Double.equals()
+            return stack[b] == NUMBER &&
+                    Double.doubleToLongBits(numbers[a]) == Double.doubleToLongBits(numbers[b]);
+        }
+
+        return isEqual(stack[a], stack[b]);
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    private static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        return object.toString();
+    }
+}
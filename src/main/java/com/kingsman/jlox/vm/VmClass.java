@@ -0,0 +1,40 @@
+package com.kingsman.jlox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A class at runtime. Its method table has the inherited methods copied into it,
+ * so finding a method never walks the superclass chain.
+ */
+final class VmClass {
+    final String name;
+    final Map<String, Closure> methods = new HashMap<>();
+    // "init" is looked up on every instantiation, so keep it at hand
+    Closure initializer;
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    void addMethod(String name, Closure method) {
+        methods.put(name, method);
+        if (name.equals("init")) initializer = method;
+    }
+
+    /**
+     * copies the superclass's methods, after the class's own have been added
+     */
+    void inherit(VmClass superclass) {
+        for (Map.Entry<String, Closure> method : superclass.methods.entrySet()) {
+            if (!methods.containsKey(method.getKey())) {
+                addMethod(method.getKey(), method.getValue());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,13 @@
+package com.kingsman.jlox.vm;
+
+/**
+ * A runtime error in code the VM is running.
+ */
+public final class VmError extends RuntimeException {
+    public final int line;
+
+    VmError(String message, int line) {
+        super(message);
+        this.line = line;
+    }
+}
@@ -19,30 +19,36 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
+                "Assign   : Token name, Expr value : Globals.Cell global, Location location",
+                "Binary   : Expr left, Token operator, Expr right :" +
+                        " boolean leftNumeric, boolean rightNumeric",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Get      : Expr object, Token name : InlineCache cache",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
-                "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Set      : Expr object, Token name, Expr value : InlineCache cache",
+                "Super    : Token keyword, Token method : Expr.This receiver, Location location",
+                "This     : Token keyword : Location location",
+                "Unary    : Token operator, Expr right : boolean rightNumeric",
+                "Variable : Token name : Globals.Cell global, Location location"
         ));
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements : int slotCount, boolean[] captured",
                 "Class      : Token name, Expr.Variable superclass," +
                         " List<Stmt.Function> methods",
                 "Expression : Expr expression",
+                "For        : Stmt initializer, Expr condition, Expr increment," +
+                            " Stmt body : int slotCount, boolean[] captured," +
+                            " List<Expr> invariants, Stmt.For hoisted",
                 "Function   : Token name, List<Token> params," +
-                            " List<Stmt> body",
+                            " List<Stmt> body : int slotCount, boolean[] captured," +
+                            " Upvalue.Source[] upvalues, Object code," +
+                            " CompiledFunction compiled, Memo memo",
                 "If         : Expr condition, Stmt thenBranch," +
                             " Stmt elseBranch",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
+                "Return     : Token keyword, Expr value : boolean tailCall",
                 "Var        : Token name, Expr initializer",
                 "While      : Expr condition, Stmt body"
         ));
@@ -75,10 +81,13 @@ public class GenerateAst {
         defineVisitor(writer, baseName, types);
 
         // The AST classes.
+        // A type may have a third section listing the fields the Resolver fills in.
         for (String type : types) {
-            String className = type.split(":")[0].trim();
-            String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] sections = type.split(":");
+            String className = sections[0].trim();
+            String fields = sections[1].trim();
+            String resolvedFields = sections.length > 2 ? sections[2].trim() : null;
+            defineType(writer, baseName, className, fields, resolvedFields);
         }
 
         // The base accept() method.
@@ -97,10 +106,11 @@ public class GenerateAst {
      * @param baseName
      * @param className
      * @param fieldList
+     * @param resolvedFieldList
      */
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldList, String resolvedFieldList) {
         writer.println("    static class " + className + " extends " +
                 baseName + "    {");
 
@@ -130,6 +140,15 @@ public class GenerateAst {
             writer.println("        final " + field + ";");
         }
 
+        // Mutable fields, not known until the Resolver or the engine running
+        // the tree has walked it.
+        if (resolvedFieldList != null) {
+            writer.println("        // Filled in after parsing.");
+            for (String field : resolvedFieldList.split(", ")) {
+                writer.println("        " + field + ";");
+            }
+        }
+
         writer.println("    }");
     }
 
@@ -0,0 +1,102 @@
+package com.kingsman.jlox;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Runs every script under scripts/ on every engine and compares what it
+ * prints, errors included, with the script's .expected file.
+ *
+ * The scripts cover closures, classes and super, tail calls, runtime errors,
+ * and functions called often enough to cross the JIT's threshold and then with
+ * arguments the compiled code doesn't expect. Each run is a java process of its
+ * own, Lox keeps its state in static fields and exits with the script's status.
+ */
+class EnginesTest {
+    // the options that pick an engine, the tree-walking interpreter without any.
+    // the bytecode VM runs the same scripts, it has to print the same
+    private static final List<String> ENGINES = Arrays.asList(
+            "--engine=tree",
+            "--engine=specializing",
+            "--engine=closure",
+            "--jit",
+            "--engine=closure --jit",
+            "--no-optimize",
+            "--memoize",
+            // scanned from a memory mapping of the script while it is parsed
+            "--stream",
+            "--engine=vm",
+            "--engine=vm --no-optimize"
+    );
+
+    static Stream<Arguments> runs() throws IOException, URISyntaxException {
+        List<Arguments> runs = new ArrayList<>();
+        for (Path script : scripts()) {
+            for (String engine : ENGINES) {
+                runs.add(Arguments.of(script.getFileName().toString(), engine, script));
+            }
+        }
+
+        return runs.stream();
+    }
+
+    @ParameterizedTest(name = "{0} {1}")
+    @MethodSource("runs")
+    void printsExpectedOutput(String name, String engine, Path script) throws Exception {
+        String expected = new String(Files.readAllBytes(expectedOf(script)), StandardCharsets.UTF_8);
+        assertEquals(expected, run(engine, script));
+    }
+
+    /**
+     * @return the .lox files among the test resources
+     */
+    static List<Path> scripts() throws IOException, URISyntaxException {
+        Path directory = Paths.get(EnginesTest.class.getResource("/scripts").toURI());
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".lox"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    static Path expectedOf(Path script) {
+        String name = script.getFileName().toString();
+        return script.resolveSibling(name.substring(0, name.length() - ".lox".length()) + ".expected");
+    }
+
+    /**
+     * runs the script in a new JVM
+     *
+     * @param options space separated, before the script
+     * @param script
+     * @return what it printed to standard output and standard error
+     */
+    static String run(String options, Path script) throws IOException, InterruptedException, URISyntaxException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        String classes = Paths.get(Lox.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
+
+        List<String> command = new ArrayList<>(Arrays.asList(java, "-Xss8m", "-cp", classes, Lox.class.getName()));
+        if (!options.isEmpty()) command.addAll(Arrays.asList(options.split(" ")));
+        command.add(script.toString());
+
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        byte[] output = process.getInputStream().readAllBytes();
+        process.waitFor();
+        return new String(output, StandardCharsets.UTF_8);
+    }
+}
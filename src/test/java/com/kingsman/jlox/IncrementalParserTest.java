@@ -0,0 +1,197 @@
+package com.kingsman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Edits scripts through an IncrementalParser and compares its statements with
+ * those of scanning, parsing and resolving the edited text from scratch. The
+ * trees are compared through ScriptCache.encode(), which writes every token with
+ * its line and everything the Resolver filled in.
+ */
+class IncrementalParserTest {
+    private static final String SCRIPT =
+            "fun add(a, b) {\n" +
+            "  return a + b;\n" +
+            "}\n" +
+            "var total = 0;\n" +
+            "class A {\n" +
+            "  get() { return 1; }\n" +
+            "}\n" +
+            "class B < A {\n" +
+            "  get() { return super.get() + 1; }\n" +
+            "}\n" +
+            "fun loop(n) {\n" +
+            "  var s = 0;\n" +
+            "  for (var i = 0; i < n; i = i + 1) { s = s + total * 2; }\n" +
+            "  return s;\n" +
+            "}\n";
+
+    private PrintStream err;
+
+    @BeforeEach
+    void silenceErrors() {
+        // the errors of the edits are expected, only whether there were any matters
+        err = System.err;
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        Lox.hadError = false;
+    }
+
+    @AfterEach
+    void restoreErrors() {
+        System.setErr(err);
+        Lox.hadError = false;
+    }
+
+    /**
+     * @return the encoded statements of the text, or null if it has an error
+     */
+    private static byte[] full(String text) {
+        Lox.hadError = false;
+        List<Stmt> statements = new Parser(new Scanner(text).scanTokens().iterator()).parse();
+        if (!Lox.hadError) new Resolver(new Interpreter()).resolve(statements);
+        boolean hadError = Lox.hadError;
+        Lox.hadError = false;
+        return hadError ? null : ScriptCache.encode(statements);
+    }
+
+    /**
+     * edits both the parser and the text, and checks that they still agree
+     *
+     * @return the edited text
+     */
+    private static String edit(IncrementalParser parser, String text, int offset, int length, String replacement) {
+        parser.edit(offset, length, replacement);
+        String edited = text.substring(0, offset) + replacement + text.substring(offset + length);
+        assertEquals(edited, parser.text());
+
+        byte[] expected = full(edited);
+        assertEquals(expected == null, parser.hadError(), "errors after editing " + offset);
+        if (expected != null) {
+            assertArrayEquals(expected, ScriptCache.encode(parser.statements()), "tree after editing " + offset);
+        }
+        return edited;
+    }
+
+    @Test
+    void matchesAFullParseAfterEachEdit() {
+        String text = SCRIPT;
+        IncrementalParser parser = new IncrementalParser(text);
+        assertArrayEquals(full(text), ScriptCache.encode(parser.statements()));
+
+        // within a line
+        text = edit(parser, text, text.indexOf("a + b"), 5, "b + a");
+        // lines added and removed above the classes, super's receiver moves with them
+        text = edit(parser, text, text.indexOf("var total"), 0, "var x = 1;\n\nvar y = 2;\n");
+        text = edit(parser, text, text.indexOf("var x"), "var x = 1;\n\n".length(), "");
+        // a string that runs on to the end of the script, then closed again
+        int quote = text.indexOf("var y");
+        text = edit(parser, text, quote, 0, "\"");
+        text = edit(parser, text, quote, 1, "");
+        // a brace that takes the following declarations into a block
+        int brace = text.indexOf("class A");
+        text = edit(parser, text, brace, 0, "{ ");
+        text = edit(parser, text, brace, 2, "");
+        // at the very start and the very end
+        text = edit(parser, text, 0, 0, "print 1;\n");
+        edit(parser, text, text.length(), 0, "\nprint add(1, 2);\n");
+    }
+
+    @Test
+    void matchesAFullParseAfterRandomEdits() throws Exception {
+        String[] junk = {"\"", "{", "}", "(", ")", "\n", "//", "var ", "fun ", "class ", "x", ";", " ", "1", "= ", "}\n", "/"};
+        String[] statements = {"var zz1 = 1;\n", "fun zz2(a) { return a; }\n", "print \"a\";\n", "{ var zz3 = 2; }\n", "\n\n"};
+        Random random = new Random(24);
+
+        for (Path script : EnginesTest.scripts()) {
+            String text = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            IncrementalParser parser = new IncrementalParser(text);
+            for (int i = 0; i < 40; i++) {
+                if (random.nextBoolean()) {
+                    // anything anywhere, then undone
+                    int offset = random.nextInt(text.length() + 1);
+                    int length = random.nextInt(Math.min(20, text.length() - offset) + 1);
+                    String replacement = junk[random.nextInt(junk.length)];
+                    String old = text.substring(offset, offset + length);
+                    text = edit(parser, text, offset, length, replacement);
+                    text = edit(parser, text, offset, replacement.length(), old);
+                } else {
+                    // a statement at the start of a line
+                    List<Integer> starts = new ArrayList<>();
+                    starts.add(0);
+                    for (int at = text.indexOf('\n'); at >= 0; at = text.indexOf('\n', at + 1)) {
+                        starts.add(at + 1);
+                    }
+                    int offset = starts.get(random.nextInt(starts.size()));
+                    text = edit(parser, text, offset, 0, statements[random.nextInt(statements.length)]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void keepsTheStatementsAnEditDoesNotTouch() {
+        IncrementalParser parser = new IncrementalParser(SCRIPT);
+        List<Stmt> before = parser.statements();
+
+        parser.edit(SCRIPT.indexOf("a + b"), 5, "a - b");
+        List<Stmt> after = parser.statements();
+
+        assertEquals(before.size(), after.size());
+        assertNotSame(before.get(0), after.get(0));
+        for (int i = 1; i < before.size(); i++) {
+            assertSame(before.get(i), after.get(i));
+        }
+    }
+
+    @Test
+    void runningLeavesTheStatementsAsTheyWere() {
+        String text = SCRIPT + "print loop(3);\nprint B().get();\n";
+        IncrementalParser parser = new IncrementalParser(text);
+        byte[] resolved = ScriptCache.encode(parser.statements());
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream printed = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(printed));
+        try {
+            parser.run();
+            parser.run();
+        } finally {
+            System.setOut(out);
+        }
+
+        assertEquals("0\n2\n0\n2\n", printed.toString().replace("\r\n", "\n"));
+        // the Optimizer hoisted total * 2 out of the loop in a copy
+        assertArrayEquals(resolved, ScriptCache.encode(parser.statements()));
+    }
+
+    @Test
+    void reportsErrorsUntilTheyAreFixed() {
+        IncrementalParser parser = new IncrementalParser(SCRIPT);
+        assertFalse(parser.hadError());
+
+        int offset = SCRIPT.indexOf("return a + b;") + "return a + b".length();
+        parser.edit(offset, 1, "");
+        assertTrue(parser.hadError());
+        parser.edit(offset, 0, ";");
+        assertFalse(parser.hadError());
+    }
+}
@@ -0,0 +1,226 @@
+package com.kingsman.jlox;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OptimizerTest {
+    private static final String NESTED_LOOPS =
+            "var n = 3;\n" +
+            "for (var i = 0; i < 2; i = i + 1) {\n" +
+            "  for (var j = 0; j < 2; j = j + 1) {\n" +
+            "    print n * 2 + j;\n" +
+            "  }\n" +
+            "}\n";
+
+    // globals of every kind for the rewrites to look at, none of them known to be a number
+    private static final String GLOBALS =
+            "var x = 2;\n" +
+            "var s = \"a\";\n" +
+            "fun f() { print \"called\"; return 1; }\n";
+
+    @TempDir
+    Path directory;
+
+    static List<Stmt> resolve(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens().iterator()).parse();
+        new Resolver(new Interpreter()).resolve(statements);
+        return statements;
+    }
+
+    /**
+     * optimizes the statement after GLOBALS and checks the result
+     *
+     * @param statement
+     * @param expected what it should be optimized to, the statement itself
+     * if it should be left alone, or nothing if it should be dropped
+     * @param rewrites how many rewrites the Optimizer should count
+     * @param groupings how many groupings it should remove
+     */
+    private static void assertOptimized(String statement, String expected, int rewrites, int groupings) {
+        List<Stmt> statements = resolve(GLOBALS + statement);
+        Optimizer optimizer = new Optimizer();
+
+        assertEquals(rewrites, optimizer.optimize(statements), statement + " rewrites");
+        assertEquals(groupings, optimizer.groupings, statement + " groupings");
+        assertArrayEquals(ScriptCache.encode(resolve(GLOBALS + expected)), ScriptCache.encode(statements),
+                statement + " optimized");
+    }
+
+    /**
+     * @return the value of the expression of the last statement, a print, after optimizing
+     */
+    private static Expr optimizedPrint(String statement, int rewrites) {
+        List<Stmt> statements = resolve(GLOBALS + statement);
+        assertEquals(rewrites, new Optimizer().optimize(statements), statement + " rewrites");
+        return ((Stmt.Print)statements.get(statements.size() - 1)).expression;
+    }
+
+    private static boolean isNegativeZero(Expr expr) {
+        assertInstanceOf(Expr.Literal.class, expr);
+        Object value = ((Expr.Literal)expr).value;
+        return value instanceof Double && Double.doubleToLongBits((double)value) == Double.doubleToLongBits(-0.0);
+    }
+
+    @Test
+    void foldsConstants() {
+        assertOptimized("print 1 + 2 * 3;", "print 7;", 2, 0);
+        assertOptimized("print (1 + 2) * 3;", "print 9;", 2, 1);
+        assertOptimized("print \"a\" + \"b\";", "print \"ab\";", 1, 0);
+        assertOptimized("print 1 < 2;", "print true;", 1, 0);
+        assertOptimized("print 1 == \"1\";", "print false;", 1, 0);
+        assertOptimized("print !nil;", "print true;", 1, 0);
+        // the constant on the left of "and" and "or" decides, the right is kept as it is
+        assertOptimized("print nil or f();", "print f();", 1, 0);
+        assertOptimized("print true and f();", "print f();", 1, 0);
+        assertOptimized("print false and f();", "print false;", 1, 0);
+    }
+
+    @Test
+    void foldsToNegativeZero() {
+        // the sign of zero survives folding, as it does when computed at runtime
+        assertTrue(isNegativeZero(optimizedPrint("print -0;", 1)));
+        assertTrue(isNegativeZero(optimizedPrint("print 0 * -1;", 2)));
+    }
+
+    @Test
+    void leavesOperationsThatFailAtRuntime() {
+        assertOptimized("print \"a\" * 1;", "print \"a\" * 1;", 0, 0);
+        assertOptimized("print 1 + \"a\";", "print 1 + \"a\";", 0, 0);
+        assertOptimized("print -\"a\";", "print -\"a\";", 0, 0);
+        assertOptimized("print 1 < nil;", "print 1 < nil;", 0, 0);
+    }
+
+    @Test
+    void removesDeadBranches() {
+        assertOptimized("if (true) print 1; else print 2;", "print 1;", 1, 0);
+        assertOptimized("if (false) print 1; else print 2;", "print 2;", 1, 0);
+        assertOptimized("if (nil) print 1;", "", 1, 0);
+        assertOptimized("if (1 > 2) print 1;", "", 2, 0);
+        assertOptimized("while (false) print 1;", "", 1, 0);
+        // computed for nothing
+        assertOptimized("1 + 2;", "", 2, 0);
+        // a loop that never runs its body still runs its initializer
+        assertOptimized("for (var i = f(); false; i = i + 1) print i;",
+                "for (var i = f(); false; i = i + 1) print i;", 0, 0);
+        // one that never ends has no condition to check
+        List<Stmt> statements = resolve(GLOBALS + "for (var i = 0; true; i = i + 1) print i;");
+        assertEquals(1, new Optimizer().optimize(statements));
+        assertNull(((Stmt.For)statements.get(statements.size() - 1)).condition);
+    }
+
+    @Test
+    void keepsConditionsWithSideEffects() {
+        assertOptimized("if (f()) print 1;", "if (f()) print 1;", 0, 0);
+        assertOptimized("if (f() or true) print 1;", "if (f() or true) print 1;", 0, 0);
+        assertOptimized("while (f() and false) print 1;", "while (f() and false) print 1;", 0, 0);
+        assertOptimized("print f() and false;", "print f() and false;", 0, 0);
+        assertOptimized("f() * 0;", "f() * 0;", 0, 0);
+    }
+
+    @Test
+    void removesGroupings() {
+        assertOptimized("print ((x));", "print x;", 0, 2);
+        assertOptimized("print (s);", "print s;", 0, 1);
+    }
+
+    @Test
+    void simplifiesNumbers() {
+        assertOptimized("print (x * 2) * 1;", "print x * 2;", 1, 1);
+        assertOptimized("print 1 * (x - 1);", "print x - 1;", 1, 1);
+        assertOptimized("print (x / 2) / 1;", "print x / 2;", 1, 1);
+        assertOptimized("print (x - 1) - 0;", "print x - 1;", 1, 1);
+        assertOptimized("print -(-(x * 2));", "print x * 2;", 1, 2);
+    }
+
+    @Test
+    void leavesOperandsThatMayNotBeNumbers() {
+        // a variable may hold anything, "x * 1" fails for a string x
+        assertOptimized("print x * 1;", "print x * 1;", 0, 0);
+        assertOptimized("print s * 1;", "print s * 1;", 0, 0);
+        assertOptimized("print 1 * s;", "print 1 * s;", 0, 0);
+        assertOptimized("print s / 1;", "print s / 1;", 0, 0);
+        assertOptimized("print s - 0;", "print s - 0;", 0, 0);
+        assertOptimized("print f() * 1;", "print f() * 1;", 0, 0);
+        assertOptimized("print -(-s);", "print - -s;", 0, 1);
+    }
+
+    @Test
+    void leavesZerosThatChangeTheSign() {
+        // -0 + 0 is +0, so "x + 0" is never x
+        assertOptimized("print (x * 2) + 0;", "print x * 2 + 0;", 0, 1);
+        // and -0 - -0 is +0, so only "x - 0" is x. the -0 itself is folded
+        Expr expr = optimizedPrint("print (x * 2) - -0;", 1);
+        assertInstanceOf(Expr.Binary.class, expr);
+        assertTrue(isNegativeZero(((Expr.Binary)expr).right));
+    }
+
+    @Test
+    void reportsTheRewrites() throws Exception {
+        Path script = Files.write(directory.resolve("report.lox"),
+                "var x = 2;\nprint (x * 2) * 1 + 1 + 2;\nif (false) print x;\n".getBytes(StandardCharsets.UTF_8));
+
+        String output = EnginesTest.run("--optimize-report", script);
+
+        assertTrue(output.contains("Optimizer: 2 rewrites, 1 groupings removed."), output);
+        assertTrue(output.contains("7"), output);
+    }
+
+    @Test
+    void hoistingLeavesTheLoopAsItWas() {
+        List<Stmt> statements = resolve(NESTED_LOOPS);
+        Stmt.For loop = (Stmt.For)statements.get(1);
+        int slotCount = loop.slotCount;
+
+        new Optimizer().optimize(statements);
+
+        Stmt.For optimized = (Stmt.For)statements.get(1);
+        assertNotSame(loop, optimized);
+        assertNull(loop.hoisted);
+        assertNull(loop.invariants);
+        assertEquals(slotCount, loop.slotCount);
+        assertNotNull(optimized.hoisted);
+    }
+
+    @Test
+    void outerInvariantsAreHoistedOnce() {
+        List<Stmt> statements = resolve(NESTED_LOOPS);
+        new Optimizer().optimize(statements);
+
+        // n * 2 is hoisted by the inner loop, then out of the inner loop's invariants
+        Stmt.For outer = (Stmt.For)statements.get(1);
+        assertEquals(1, outer.invariants.size());
+        Stmt.For inner = (Stmt.For)((Stmt.Block)outer.hoisted.body).statements.get(0);
+        assertNotNull(inner.hoisted);
+        // the inner loop as written still computes everything itself
+        Stmt.For written = (Stmt.For)((Stmt.Block)outer.body).statements.get(0);
+        assertSame(written.body, inner.body);
+    }
+
+    @Test
+    void optimizingTwiceChangesNothing() {
+        List<Stmt> statements = resolve(NESTED_LOOPS);
+        new Optimizer().optimize(statements);
+        Stmt.For outer = (Stmt.For)statements.get(1);
+        int slotCount = outer.slotCount;
+        List<Expr> invariants = outer.invariants;
+
+        assertEquals(0, new Optimizer().optimize(statements));
+        assertSame(outer, statements.get(1));
+        assertEquals(slotCount, outer.slotCount);
+        assertSame(invariants, outer.invariants);
+    }
+}
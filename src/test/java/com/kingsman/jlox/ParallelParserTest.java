@@ -0,0 +1,174 @@
+package com.kingsman.jlox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Parses scripts in chunks of a few tokens, so that even the short test scripts
+ * are cut, and compares the statements and the errors with those of a Parser
+ * going through the whole script.
+ */
+class ParallelParserTest {
+    private static final int MIN_CHUNK = 8;
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    // classes and functions declared inside others, their "class", "fun" and
+    // "var" are inside braces and must never be cut at
+    private static final String NESTED =
+            "var a = 1;\n" +
+            "class A {\n" +
+            "  m() {\n" +
+            "    fun inner() { var x = 1; class B { n() { fun f() { return x; } return f; } } return B; }\n" +
+            "    return inner();\n" +
+            "  }\n" +
+            "}\n" +
+            "fun outer() { var y = 2; fun g() { var z = y; return z; } return g; }\n" +
+            "for (var i = 0; i < 2; i = i + 1) { var j = i; }\n" +
+            "var b = A().m()().n()();\n" +
+            "print b + outer()();\n";
+
+    private PrintStream err;
+
+    @AfterAll
+    static void shutDown() {
+        POOL.shutdown();
+    }
+
+    @BeforeEach
+    void resetErrors() {
+        err = System.err;
+        Lox.hadError = false;
+    }
+
+    @AfterEach
+    void restoreErrors() {
+        System.setErr(err);
+        Lox.hadError = false;
+    }
+
+    /**
+     * what parsing and resolving the tokens gave
+     */
+    private static final class Result {
+        final byte[] tree;
+        final String errors;
+        final boolean hadError;
+
+        Result(byte[] tree, String errors, boolean hadError) {
+            this.tree = tree;
+            this.errors = errors;
+            this.hadError = hadError;
+        }
+    }
+
+    private static Result parse(List<Token> tokens, Function<List<Token>, List<Stmt>> parser) {
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errors, true, StandardCharsets.UTF_8));
+        Lox.hadError = false;
+
+        List<Stmt> statements = parser.apply(tokens);
+        if (!Lox.hadError) new Resolver(new Interpreter()).resolve(statements);
+        // a tree the Resolver rejected is missing what encode() writes
+        Result result = new Result(Lox.hadError ? null : ScriptCache.encode(statements),
+                errors.toString(StandardCharsets.UTF_8), Lox.hadError);
+        Lox.hadError = false;
+        return result;
+    }
+
+    /**
+     * parses the text both ways and checks that they agree
+     *
+     * @return whether it had errors
+     */
+    private static boolean compare(String text, String name) {
+        System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+        List<Token> tokens = new Scanner(text).scanTokens();
+        assertFalse(Lox.hadError, name + " scans");
+
+        Result whole = parse(tokens, all -> new Parser(all.iterator()).parse());
+        Result chunked = parse(tokens, all -> ParallelParser.parse(all, POOL, MIN_CHUNK));
+
+        assertEquals(whole.hadError, chunked.hadError, name);
+        assertEquals(whole.errors, chunked.errors, name);
+        if (!whole.hadError) assertArrayEquals(whole.tree, chunked.tree, name);
+        return whole.hadError;
+    }
+
+    private static List<Integer> cuts(String text) {
+        List<Token> tokens = new Scanner(text).scanTokens();
+        return ParallelParser.cuts(tokens, POOL.getParallelism() * 4, MIN_CHUNK);
+    }
+
+    @Test
+    void givesTheStatementsOfTheWholeScript() throws Exception {
+        for (Path script : EnginesTest.scripts()) {
+            String text = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            // the test scripts have no syntax errors, their errors come at runtime
+            assertFalse(compare(text, script.getFileName().toString()));
+        }
+    }
+
+    @Test
+    void cutsEveryScriptAtTopLevelDeclarations() throws Exception {
+        for (Path script : EnginesTest.scripts()) {
+            String text = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            List<Token> tokens = new Scanner(text).scanTokens();
+            List<Integer> cuts = cuts(text);
+
+            // the scripts' top-level declarations are the lines that aren't indented
+            long declarations = text.lines().filter(line -> line.matches("(class|fun|var) .*")).count();
+            if (declarations > 1) assertTrue(cuts.size() > 2, script.getFileName() + " is parsed in one chunk");
+            for (int cut : cuts.subList(1, cuts.size() - 1)) {
+                TokenType type = tokens.get(cut).type;
+                assertTrue(type == TokenType.CLASS || type == TokenType.FUN || type == TokenType.VAR);
+            }
+        }
+    }
+
+    @Test
+    void neverCutsInsideBracesOrParentheses() {
+        List<Token> tokens = new Scanner(NESTED).scanTokens();
+        List<Integer> cuts = cuts(NESTED);
+        assertTrue(cuts.size() > 2);
+
+        // the cuts fall on the lines of the top-level declarations
+        for (int cut : cuts.subList(1, cuts.size() - 1)) {
+            int line = tokens.get(cut).line();
+            assertTrue(line == 1 || line == 2 || line == 8 || line == 10, "cut on line " + line);
+        }
+        assertFalse(compare(NESTED, "nested"));
+    }
+
+    @Test
+    void reportsTheErrorsOfTheWholeScript() {
+        // an error in the middle of a chunk
+        assertTrue(compare(NESTED.replace("var y = 2;", "var y = ;"), "error in a chunk"));
+        // in the last chunk, and in several
+        assertTrue(compare(NESTED.replace("print b", "print b +"), "error at the end"));
+        assertTrue(compare(NESTED.replace("var a = 1;", "var a = 1").replace("var b =", "var b"), "two errors"));
+        // the parser recovers from the missing semicolon at the next "fun",
+        // where a chunk starts as well
+        assertTrue(compare(NESTED.replace("}\nfun outer", "} 1 +\nfun outer"), "error before a cut"));
+        // an unclosed brace takes in every declaration after it
+        assertTrue(compare(NESTED.replace("fun outer() {", "fun outer() { {"), "unclosed brace"));
+        // a declaration the Resolver rejects, after a clean parse
+        assertTrue(compare(NESTED.replace("var z = y;", "var z = z;"), "resolver error"));
+    }
+}
@@ -0,0 +1,162 @@
+package com.kingsman.jlox;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Scans text from a Reader, as --stream does, and compares the tokens with
+ * those of scanning the same text held in memory. The text is longer than the
+ * scanner's buffer, and every kind of token is put across the places where the
+ * buffer is refilled and where MappedReader maps the next window of the file.
+ */
+class ScannerTest {
+    // the size of the scanner's buffer
+    private static final int CHUNK = 8192;
+
+    // what may be cut by a refill: identifiers, numbers, keywords, operators of
+    // two characters, and strings and comments with characters of two, three
+    // and four bytes in UTF-8, the last one two chars as well
+    private static final List<String> PIECES = List.of(
+            "abcdefghij_0123456789",
+            "12345.6789",
+            "while",
+            "<=",
+            "\"a é € 😀 z\"",
+            "// é€😀\n"
+    );
+
+    @TempDir
+    Path directory;
+
+    /**
+     * a reader that gives at most a few characters at a time, so the scanner
+     * refills its buffer that often
+     */
+    private static final class Trickle extends Reader {
+        private final Reader reader;
+        private final int most;
+
+        Trickle(String text, int most) {
+            this.reader = new StringReader(text);
+            this.most = most;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) throws IOException {
+            return reader.read(chars, offset, Math.min(length, most));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * the tokens' types, values and lines. a token of a reader keeps its value
+     * rather than its text, a number's text is written from its value.
+     */
+    private static List<String> describe(List<Token> tokens) {
+        List<String> described = new ArrayList<>();
+        for (Token token : tokens) {
+            Object value = token.literal != null ? token.literal : token.lexeme();
+            described.add(token.type + " " + value + " " + token.line());
+        }
+        return described;
+    }
+
+    private static List<String> scan(String text) {
+        return describe(new Scanner(text).scanTokens());
+    }
+
+    private static List<String> scan(Reader reader) {
+        return describe(new Scanner(reader).scanTokens());
+    }
+
+    /**
+     * the pieces over and over, on lines of varying length, until the text is
+     * longer than the buffer a few times over
+     */
+    private static String generate(int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < length; i++) {
+            text.append(PIECES.get(i % PIECES.size()));
+            text.append(i % 7 == 0 ? "\n" : " ");
+        }
+        return text.toString();
+    }
+
+    @Test
+    void scansTokensAcrossTheEndOfTheBuffer() {
+        for (String piece : PIECES) {
+            List<String> expected = scan(piece);
+            expected.remove(expected.size() - 1);
+
+            for (int before = 1; before < piece.length(); before++) {
+                // the first refill comes after CHUNK characters
+                String text = " ".repeat(CHUNK - before) + piece + " ;";
+                List<String> tokens = scan(new StringReader(text));
+
+                assertEquals(scan(text), tokens, piece + " cut after " + before);
+                assertEquals(expected, tokens.subList(0, expected.size()), piece + " cut after " + before);
+            }
+        }
+    }
+
+    @Test
+    void scansTokensAcrossEveryRefill() {
+        String text = generate(3 * CHUNK + 100);
+        List<String> expected = scan(text);
+
+        assertEquals(expected, scan(new StringReader(text)));
+        for (int most : new int[] {1, 2, 3, 5, 7, 64, CHUNK - 1}) {
+            assertEquals(expected, scan(new Trickle(text, most)), "read " + most + " at a time");
+        }
+    }
+
+    @Test
+    void growsTheBufferForALongToken() {
+        // a string longer than the buffer, the buffer has to hold all of it
+        String text = "print \"" + "é€😀 ".repeat(CHUNK / 2) + "\";\nprint 1;\n";
+
+        assertEquals(scan(text), scan(new StringReader(text)));
+        assertEquals(scan(text), scan(new Trickle(text, 100)));
+    }
+
+    @Test
+    void decodesCharactersAcrossMappedWindows() throws IOException {
+        String text = generate(2000);
+        Path script = Files.write(directory.resolve("script.lox"), text.getBytes(StandardCharsets.UTF_8));
+        List<String> expected = scan(text);
+
+        // windows of 1 to 5 bytes cut every character of 2, 3 and 4 bytes everywhere
+        for (long window : new long[] {1, 2, 3, 4, 5, 4096}) {
+            StringBuilder read = new StringBuilder();
+            try (Reader reader = new MappedReader(script, StandardCharsets.UTF_8, window)) {
+                char[] chars = new char[CHUNK];
+                for (int count; (count = reader.read(chars, 0, chars.length)) >= 0; ) {
+                    read.append(chars, 0, count);
+                }
+            }
+            assertEquals(text, read.toString(), "windows of " + window);
+
+            try (Reader reader = new MappedReader(script, StandardCharsets.UTF_8, window)) {
+                assertEquals(expected, scan(reader), "windows of " + window);
+            } catch (UncheckedIOException error) {
+                throw error.getCause();
+            }
+        }
+    }
+}
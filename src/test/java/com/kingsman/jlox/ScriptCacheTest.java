@@ -0,0 +1,161 @@
+package com.kingsman.jlox;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Saves the resolved trees of the test scripts and reads them back, and checks
+ * that a cache file which is stale, of another version, cut short or garbled
+ * is ignored rather than run.
+ */
+class ScriptCacheTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * @return the script copied into the temporary directory
+     */
+    private Path copy(Path script) throws Exception {
+        return Files.copy(script, directory.resolve(script.getFileName()));
+    }
+
+    private static byte[] resolved(byte[] source) {
+        return ScriptCache.encode(OptimizerTest.resolve(new String(source, StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void readsBackWhatWasSaved() throws Exception {
+        for (Path script : EnginesTest.scripts()) {
+            byte[] source = Files.readAllBytes(script);
+            Path cache = ScriptCache.pathOf(copy(script));
+            byte[] hash = ScriptCache.hash(source);
+            List<Stmt> statements = OptimizerTest.resolve(new String(source, StandardCharsets.UTF_8));
+
+            ScriptCache.save(cache, hash, statements);
+            List<Stmt> loaded = ScriptCache.load(cache, hash, new Interpreter());
+
+            assertNotNull(loaded, script.getFileName().toString());
+            assertArrayEquals(ScriptCache.encode(statements), ScriptCache.encode(loaded),
+                    script.getFileName().toString());
+        }
+    }
+
+    @Test
+    void savesNextToTheScript() {
+        assertEquals(directory.resolve("a.loxc"), ScriptCache.pathOf(directory.resolve("a.lox")));
+    }
+
+    @Test
+    void ignoresTheFileOfAnotherVersionOfTheScript() throws Exception {
+        byte[] source = "var a = 1;\nprint a;\n".getBytes(StandardCharsets.UTF_8);
+        byte[] edited = "var a = 2;\nprint a;\n".getBytes(StandardCharsets.UTF_8);
+        Path cache = directory.resolve("a.loxc");
+        ScriptCache.save(cache, ScriptCache.hash(source), OptimizerTest.resolve(new String(source, StandardCharsets.UTF_8)));
+
+        assertNull(ScriptCache.load(cache, ScriptCache.hash(edited), new Interpreter()));
+        assertNotNull(ScriptCache.load(cache, ScriptCache.hash(source), new Interpreter()));
+    }
+
+    @Test
+    void ignoresMissingFiles() {
+        assertNull(ScriptCache.load(directory.resolve("none.loxc"), ScriptCache.hash(new byte[0]), new Interpreter()));
+    }
+
+    @Test
+    void ignoresFilesOfAnotherLayout() throws Exception {
+        Path script = copy(EnginesTest.scripts().get(0));
+        byte[] source = Files.readAllBytes(script);
+        Path cache = ScriptCache.pathOf(script);
+        byte[] hash = ScriptCache.hash(source);
+        ScriptCache.save(cache, hash, OptimizerTest.resolve(new String(source, StandardCharsets.UTF_8)));
+
+        // the version follows the four bytes of the magic number
+        byte[] bytes = Files.readAllBytes(cache);
+        bytes[7]++;
+        Files.write(cache, bytes);
+
+        assertNull(ScriptCache.load(cache, hash, new Interpreter()));
+    }
+
+    @Test
+    void ignoresFilesCutShort() throws Exception {
+        for (Path script : EnginesTest.scripts()) {
+            byte[] source = Files.readAllBytes(script);
+            Path cache = ScriptCache.pathOf(copy(script));
+            byte[] hash = ScriptCache.hash(source);
+            ScriptCache.save(cache, hash, OptimizerTest.resolve(new String(source, StandardCharsets.UTF_8)));
+            byte[] bytes = Files.readAllBytes(cache);
+
+            for (int length = 0; length < bytes.length; length++) {
+                Files.write(cache, Arrays.copyOf(bytes, length));
+                assertNull(ScriptCache.load(cache, hash, new Interpreter()),
+                        script.getFileName() + " cut to " + length + " bytes");
+            }
+        }
+    }
+
+    @Test
+    void ignoresOrReadsGarbledFilesWithoutFailing() throws Exception {
+        Random random = new Random(25);
+        for (Path script : EnginesTest.scripts()) {
+            byte[] source = Files.readAllBytes(script);
+            Path cache = ScriptCache.pathOf(copy(script));
+            byte[] hash = ScriptCache.hash(source);
+            ScriptCache.save(cache, hash, OptimizerTest.resolve(new String(source, StandardCharsets.UTF_8)));
+            byte[] bytes = Files.readAllBytes(cache);
+            // the magic number, the version and the hash
+            int header = 8 + hash.length;
+
+            for (int i = 0; i < 200; i++) {
+                byte[] garbled = bytes.clone();
+                for (int j = random.nextInt(4); j >= 0; j--) {
+                    garbled[header + random.nextInt(garbled.length - header)] = (byte)random.nextInt(256);
+                }
+                Files.write(cache, garbled);
+                // a byte that still makes a tree reads as one, anything else as no file at all
+                ScriptCache.load(cache, hash, new Interpreter());
+            }
+
+            byte[] noise = new byte[bytes.length];
+            random.nextBytes(noise);
+            Files.write(cache, noise);
+            assertNull(ScriptCache.load(cache, hash, new Interpreter()));
+        }
+    }
+
+    @Test
+    void ignoresCountsLargerThanTheFile() throws Exception {
+        byte[] source = "print 1;\n".getBytes(StandardCharsets.UTF_8);
+        Path cache = directory.resolve("a.loxc");
+        byte[] hash = ScriptCache.hash(source);
+        ScriptCache.save(cache, hash, OptimizerTest.resolve(new String(source, StandardCharsets.UTF_8)));
+
+        // the header, then more names and strings than an int can count
+        byte[] bytes = Arrays.copyOf(Files.readAllBytes(cache), 8 + hash.length + 5);
+        bytes[8 + hash.length] = bytes[9 + hash.length] = bytes[10 + hash.length] = bytes[11 + hash.length] = (byte)0xff;
+        bytes[12 + hash.length] = 0x07;
+        Files.write(cache, bytes);
+
+        assertNull(ScriptCache.load(cache, hash, new Interpreter()));
+    }
+
+    @Test
+    void encodesTheSameTreeTheSameWay() throws Exception {
+        for (Path script : EnginesTest.scripts()) {
+            byte[] source = Files.readAllBytes(script);
+            assertArrayEquals(resolved(source), resolved(source), script.getFileName().toString());
+        }
+    }
+}